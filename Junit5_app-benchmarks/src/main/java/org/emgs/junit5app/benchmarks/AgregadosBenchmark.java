@@ -0,0 +1,83 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+saldo total del banco y de un grupo: agregado incremental contra sumar cuenta por cuenta,
+y lo que cuesta mantener los agregados en una transferencia entre grupos distintos
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class AgregadosBenchmark {
+    private static final String[] GRUPOS = {"norte/monterrey", "norte/saltillo", "sur/merida", "centro/cdmx"};
+
+    @Param({"1000", "100000", "1000000"})
+    int cuentas;
+
+    Banco banco;
+    List<Cuenta> lista;
+    BigDecimal monto = new BigDecimal("0.01");
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        banco = new Banco(cuentas);
+        for (int i = 0; i < cuentas; i++) {
+            banco.addCuenta(new Cuenta("persona" + i, BigDecimal.valueOf(100_000 + i, 2)), GRUPOS[i % GRUPOS.length]);
+        }
+        lista = banco.getCuentas();
+    }
+
+    @State(Scope.Thread)
+    public static class Aleatorio {
+        SplittableRandom random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public BigDecimal saldoAgregado() {
+        return banco.getSaldoAgregado();
+    }
+
+    @Benchmark
+    public BigDecimal saldoGrupo() {
+        return banco.getSaldoGrupo("norte");
+    }
+
+    //O(n) con lecturas optimistas de cada cuenta
+    @Benchmark
+    public BigDecimal saldoTotalRecorriendo() {
+        return banco.getSaldoTotal();
+    }
+
+    //lo que haria quien no tiene agregados: filtrar por grupo y sumar
+    @Benchmark
+    public BigDecimal saldoGrupoRecorriendo() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Cuenta cuenta : lista) {
+            if (cuenta.getGrupo().startsWith("norte/")) {
+                total = total.add(cuenta.getSaldo());
+            }
+        }
+        return total;
+    }
+
+    //origen y destino siempre en grupos distintos, toca hasta cuatro agregados
+    @Benchmark
+    public boolean transferirEntreGrupos(Aleatorio aleatorio) {
+        int i = aleatorio.random.nextInt(cuentas);
+        Cuenta origen = lista.get(i);
+        Cuenta destino = lista.get((i + 1) % cuentas);
+        return banco.tryTransferir(origen, destino, monto).isAplicada()
+                || banco.tryTransferir(destino, origen, monto).isAplicada();
+    }
+}
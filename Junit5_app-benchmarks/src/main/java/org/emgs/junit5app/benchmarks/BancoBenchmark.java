@@ -0,0 +1,58 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+Banco.transferir en un solo hilo y con 8 hilos; con pocas cuentas casi todas las transferencias
+compiten por los mismos candados, con muchas cuentas corren en paralelo
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BancoBenchmark {
+    static final BigDecimal SALDO_INICIAL = new BigDecimal("1000000000000000");
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+
+    @State(Scope.Benchmark)
+    public static class BancoCompartido {
+        @Param({"2", "1024"})
+        int cuentas;
+
+        Banco banco;
+        Cuenta[] arreglo;
+
+        @Setup(Level.Iteration)
+        public void preparar() {
+            banco = new Banco(cuentas);
+            arreglo = new Cuenta[cuentas];
+            for (int i = 0; i < cuentas; i++) {
+                arreglo[i] = new Cuenta("persona" + i, SALDO_INICIAL);
+                banco.addCuenta(arreglo[i]);
+            }
+        }
+
+        void transferirAlAzar() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], MONTO);
+        }
+    }
+
+    @Benchmark
+    public void transferir(BancoCompartido estado) {
+        estado.transferirAlAzar();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void transferirContendido(BancoCompartido estado) {
+        estado.transferirAlAzar();
+    }
+}
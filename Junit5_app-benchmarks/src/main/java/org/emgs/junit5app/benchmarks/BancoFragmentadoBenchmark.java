@@ -0,0 +1,98 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.BancoFragmentado;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.persistencia.DiarioTransacciones;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+transferencias por segundo segun la cantidad de fragmentos, cada fragmento con su propio diario.
+porcentajeLocal de las transferencias quedan dentro del fragmento del origen, las demas van a una cuenta cualquiera
+(con dos fases si cae en otro fragmento)
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class BancoFragmentadoBenchmark {
+    static final int CUENTAS = 1024;
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+
+    @Param({"1", "2", "4", "8"})
+    int fragmentos;
+
+    @Param({"90"})
+    int porcentajeLocal;
+
+    BancoFragmentado banco;
+    List<Path> archivos;
+    List<DiarioTransacciones> diarios;
+    Cuenta[] cuentas;
+    //cuentas de cada fragmento, por indice de fragmento
+    Cuenta[][] porFragmento;
+    int[] fragmentoDeCuenta;
+
+    //diarios nuevos por iteracion para que no se llenen
+    @Setup(Level.Iteration)
+    public void preparar() throws IOException {
+        archivos = new ArrayList<>();
+        diarios = new ArrayList<>();
+        List<Banco> bancos = new ArrayList<>();
+        for (int i = 0; i < fragmentos; i++) {
+            Path archivo = Files.createTempFile("fragmento" + i, ".diario");
+            DiarioTransacciones diario = new DiarioTransacciones(archivo, 16 * 1024 * 1024);
+            Banco fragmento = new Banco(CUENTAS);
+            fragmento.setDiario(diario);
+            archivos.add(archivo);
+            diarios.add(diario);
+            bancos.add(fragmento);
+        }
+        banco = new BancoFragmentado(bancos);
+        cuentas = new Cuenta[CUENTAS];
+        fragmentoDeCuenta = new int[CUENTAS];
+        for (int i = 0; i < CUENTAS; i++) {
+            cuentas[i] = new Cuenta("persona" + i, new BigDecimal("1000000000"));
+            banco.addCuenta(cuentas[i]);
+            fragmentoDeCuenta[i] = bancos.indexOf(cuentas[i].getBanco());
+        }
+        porFragmento = new Cuenta[fragmentos][];
+        for (int i = 0; i < fragmentos; i++) {
+            porFragmento[i] = bancos.get(i).getCuentas().toArray(new Cuenta[0]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cerrar() throws IOException {
+        for (int i = 0; i < diarios.size(); i++) {
+            diarios.get(i).close();
+            Files.deleteIfExists(archivos.get(i));
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transferir() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int origen = random.nextInt(CUENTAS);
+        Cuenta destino;
+        if (random.nextInt(100) < porcentajeLocal) {
+            Cuenta[] locales = porFragmento[fragmentoDeCuenta[origen]];
+            destino = locales[random.nextInt(locales.length)];
+        } else {
+            destino = cuentas[random.nextInt(CUENTAS)];
+        }
+        banco.transferir(cuentas[origen], destino, MONTO);
+    }
+}
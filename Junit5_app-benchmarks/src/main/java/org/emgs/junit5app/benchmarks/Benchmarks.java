@@ -0,0 +1,22 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+punto de entrada de benchmarks.jar: acepta las mismas opciones que org.openjdk.jmh.Main
+y siempre agrega el profiler gc para reportar la tasa de asignacion (gc.alloc.rate.norm)
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions lineaComandos = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(lineaComandos)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/*
+operaciones de Cuenta en un solo hilo (cada hilo con su cuenta) y con muchos hilos sobre la misma cuenta.
+el saldo inicial es tan grande que los debitos de una corrida nunca lo agotan
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CuentaBenchmark {
+    static final BigDecimal SALDO_INICIAL = new BigDecimal("1000000000000000.12345");
+    static final BigDecimal MONTO = new BigDecimal("100");
+    //10^13 con escala 5 todavia cabe en un long
+    static final BigDecimal SALDO_ESCALADO = new BigDecimal("10000000000000.12345");
+
+    @State(Scope.Thread)
+    public static class CuentaPropia {
+        Cuenta cuenta;
+        Cuenta escalada;
+        Cuenta igual;
+        Cuenta distinta;
+
+        @Setup(Level.Iteration)
+        public void preparar() {
+            cuenta = new Cuenta("Eduardo", SALDO_INICIAL);
+            escalada = new Cuenta("Eduardo", SALDO_ESCALADO, 5);
+            igual = new Cuenta("Eduardo", SALDO_INICIAL);
+            distinta = new Cuenta("Eduardo", new BigDecimal("1000.12345"));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CuentaCompartida {
+        Cuenta cuenta;
+
+        @Setup(Level.Iteration)
+        public void preparar() {
+            cuenta = new Cuenta("Eduardo", SALDO_INICIAL);
+        }
+    }
+
+    @Benchmark
+    public void debito(CuentaPropia estado) {
+        estado.cuenta.debito(MONTO);
+    }
+
+    @Benchmark
+    public void credito(CuentaPropia estado) {
+        estado.cuenta.credito(MONTO);
+    }
+
+    //modo escalado: sin BigDecimal en el camino critico
+    @Benchmark
+    public void debitoUnidades(CuentaPropia estado) {
+        estado.escalada.debitoUnidades(10_000_000L);
+    }
+
+    @Benchmark
+    public boolean equalsIguales(CuentaPropia estado) {
+        return estado.cuenta.equals(estado.igual);
+    }
+
+    @Benchmark
+    public boolean equalsDistintas(CuentaPropia estado) {
+        return estado.cuenta.equals(estado.distinta);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void debitoContendido(CuentaCompartida estado) {
+        estado.cuenta.debito(MONTO);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void creditoContendido(CuentaCompartida estado) {
+        estado.cuenta.credito(MONTO);
+    }
+}
@@ -0,0 +1,114 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.persistencia.DiarioTransacciones;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+rendimiento del diario de transacciones: transferencias por segundo con y sin diario (group commit)
+y tiempo de recuperacion al reproducir un diario completo en un banco vacio
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DiarioTransaccionesBenchmark {
+    static final int CUENTAS = 1024;
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+
+    @State(Scope.Benchmark)
+    public static class BancoConDiario {
+        @Param({"true", "false"})
+        boolean conDiario;
+
+        Path archivo;
+        DiarioTransacciones diario;
+        Banco banco;
+        Cuenta[] cuentas;
+
+        //un diario nuevo por iteracion para que no se llene
+        @Setup(Level.Iteration)
+        public void preparar() throws IOException {
+            banco = new Banco(CUENTAS);
+            if (conDiario) {
+                archivo = Files.createTempFile("diario", ".bin");
+                diario = new DiarioTransacciones(archivo, 16 * 1024 * 1024);
+                banco.setDiario(diario);
+            }
+            cuentas = new Cuenta[CUENTAS];
+            for (int i = 0; i < CUENTAS; i++) {
+                cuentas[i] = new Cuenta("persona" + i, new BigDecimal("1000000000"));
+                banco.addCuenta(cuentas[i]);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void cerrar() throws IOException {
+            if (diario != null) {
+                diario.close();
+                Files.deleteIfExists(archivo);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transferir(BancoConDiario estado) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Cuenta origen = estado.cuentas[random.nextInt(CUENTAS)];
+        Cuenta destino = estado.cuentas[random.nextInt(CUENTAS)];
+        estado.banco.transferir(origen, destino, MONTO);
+    }
+
+    @State(Scope.Benchmark)
+    public static class DiarioLleno {
+        @Param({"1000000"})
+        int operaciones;
+
+        Path archivo;
+        DiarioTransacciones diario;
+
+        @Setup(Level.Trial)
+        public void preparar() throws IOException {
+            archivo = Files.createTempFile("diario", ".bin");
+            diario = new DiarioTransacciones(archivo, 2 * operaciones + 2 * CUENTAS);
+            Banco banco = new Banco(CUENTAS);
+            banco.setDiario(diario);
+            Cuenta[] cuentas = new Cuenta[CUENTAS];
+            for (int i = 0; i < CUENTAS; i++) {
+                cuentas[i] = new Cuenta("persona" + i, new BigDecimal("1000000000"));
+                banco.addCuenta(cuentas[i]);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < operaciones; i++) {
+                banco.transferir(cuentas[random.nextInt(CUENTAS)], cuentas[random.nextInt(CUENTAS)], MONTO);
+            }
+            diario.sincronizar();
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() throws IOException {
+            diario.close();
+            Files.deleteIfExists(archivo);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Banco recuperar(DiarioLleno estado) {
+        Banco banco = new Banco(CUENTAS);
+        estado.diario.reproducir(banco);
+        return banco;
+    }
+}
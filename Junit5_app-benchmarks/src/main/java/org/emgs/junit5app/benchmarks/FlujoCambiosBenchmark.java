@@ -0,0 +1,88 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.eventos.Contrapresion;
+import org.emgs.junit5app.ejemplos.eventos.FlujoCambios;
+import org.emgs.junit5app.ejemplos.eventos.Suscripcion;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+transferencias por segundo sin flujo de cambios y con flujo y N suscripciones consumiendo en sus propios hilos.
+contrapresion NINGUNA = el banco no tiene flujo
+ */
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class FlujoCambiosBenchmark {
+    private static final int CUENTAS = 1024;
+
+    @Param({"NINGUNA", "BLOQUEAR", "DESCARTAR"})
+    String contrapresion;
+
+    @Param({"1", "4"})
+    int suscriptores;
+
+    Banco banco;
+    List<Cuenta> cuentas;
+    FlujoCambios flujo;
+    ExecutorService executor;
+    List<Suscripcion> suscripciones = new ArrayList<>();
+    BigDecimal monto = new BigDecimal("0.01");
+    //lo que acumulan los consumidores, para que el trabajo del manejador no se elimine
+    volatile long consumido;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        banco = new Banco(CUENTAS);
+        for (int i = 0; i < CUENTAS; i++) {
+            banco.addCuenta(new Cuenta("persona" + i, new BigDecimal("1000000.00")));
+        }
+        cuentas = banco.getCuentas();
+        if (!"NINGUNA".equals(contrapresion)) {
+            flujo = new FlujoCambios(1 << 16, Contrapresion.valueOf(contrapresion));
+            banco.setFlujoCambios(flujo);
+            executor = Executors.newFixedThreadPool(suscriptores);
+            for (int i = 0; i < suscriptores; i++) {
+                Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> {
+                    if (finDeLote) {
+                        consumido += cambio.getSecuencia();
+                    }
+                });
+                suscripcion.iniciar(executor);
+                suscripciones.add(suscripcion);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        if (flujo != null) {
+            System.out.println("\ndescartados " + flujo.getDescartados() + " de " + (flujo.getSecuencia() + 1 + flujo.getDescartados()));
+            suscripciones.forEach(Suscripcion::close);
+            executor.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Aleatorio {
+        SplittableRandom random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public boolean transferir(Aleatorio aleatorio) {
+        int i = aleatorio.random.nextInt(CUENTAS);
+        return banco.tryTransferir(cuentas.get(i), cuentas.get((i + 1) % CUENTAS), monto).isAplicada();
+    }
+}
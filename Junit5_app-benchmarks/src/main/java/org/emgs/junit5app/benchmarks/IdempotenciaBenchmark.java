@@ -0,0 +1,87 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.RegistroIdempotencia;
+import org.emgs.junit5app.ejemplos.models.ResultadoOperacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+costo de la clave de idempotencia en transferir: sin clave, con una clave nueva en cada llamada (el caso normal)
+y reintentando una clave ya registrada. con millones de claves nuevas el registro se queda en maximoClaves;
+al final de cada prueba se imprime su tamano y la memoria usada despues de un GC
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class IdempotenciaBenchmark {
+    private static final int CUENTAS = 1024;
+
+    @Param({"1000000"})
+    int maximoClaves;
+
+    Banco banco;
+    List<Cuenta> cuentas;
+    RegistroIdempotencia registro;
+    BigDecimal monto = new BigDecimal("0.01");
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        banco = new Banco(CUENTAS);
+        for (int i = 0; i < CUENTAS; i++) {
+            banco.addCuenta(new Cuenta("persona" + i, new BigDecimal("1000000.00")));
+        }
+        cuentas = banco.getCuentas();
+        registro = new RegistroIdempotencia(Duration.ofHours(1), maximoClaves);
+        banco.setIdempotencia(registro);
+        banco.transferir("fija", cuentas.get(0), cuentas.get(1), monto);
+    }
+
+    @TearDown(Level.Trial)
+    public void reportar() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%nclaves %d, desalojadas %d, heap usado %d MB%n", registro.size(), registro.getDesalojadas(),
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+    }
+
+    @State(Scope.Thread)
+    public static class Cliente {
+        SplittableRandom random = new SplittableRandom(42);
+        long siguienteClave;
+    }
+
+    @Benchmark
+    public ResultadoOperacion sinClave(Cliente cliente) {
+        int i = cliente.random.nextInt(CUENTAS);
+        return banco.tryTransferir(cuentas.get(i), cuentas.get((i + 1) % CUENTAS), monto);
+    }
+
+    //incluye armar la clave, que el cliente manda de todos modos
+    @Benchmark
+    public ResultadoOperacion claveNueva(Cliente cliente) {
+        int i = cliente.random.nextInt(CUENTAS);
+        String clave = Thread.currentThread().getId() + "-" + cliente.siguienteClave++;
+        return banco.tryTransferir(clave, cuentas.get(i), cuentas.get((i + 1) % CUENTAS), monto);
+    }
+
+    //lo que cuesta solo armar la clave, para restarlo de claveNueva
+    @Benchmark
+    public String soloClave(Cliente cliente) {
+        return Thread.currentThread().getId() + "-" + cliente.siguienteClave++;
+    }
+
+    @Benchmark
+    public ResultadoOperacion reintento() {
+        return banco.tryTransferir("fija", cuentas.get(0), cuentas.get(1), monto);
+    }
+}
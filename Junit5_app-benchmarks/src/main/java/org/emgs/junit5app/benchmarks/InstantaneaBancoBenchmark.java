@@ -0,0 +1,60 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.persistencia.InstantaneaBanco;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+tiempo de escribir y de cargar una instantanea del banco.
+para la meta de 10M de cuentas: -p cuentas=10000000 -jvmArgs -Xmx8g
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class InstantaneaBancoBenchmark {
+    @Param({"1000000"})
+    int cuentas;
+
+    Banco banco;
+    Path archivo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        List<Cuenta> nuevas = new ArrayList<>(cuentas);
+        for (int i = 0; i < cuentas; i++) {
+            nuevas.add(new Cuenta("persona" + i, BigDecimal.valueOf(100_000 + i, 2)));
+        }
+        banco = new Banco(cuentas);
+        banco.setNombre("banamex");
+        banco.cargarCuentas(nuevas);
+        archivo = Files.createTempFile("banco", ".foto");
+        InstantaneaBanco.escribir(banco, archivo);
+    }
+
+    @TearDown(Level.Trial)
+    public void borrar() throws IOException {
+        Files.deleteIfExists(archivo);
+    }
+
+    @Benchmark
+    public void escribir() throws IOException {
+        InstantaneaBanco.escribir(banco, archivo);
+    }
+
+    @Benchmark
+    public Banco cargar() throws IOException {
+        return InstantaneaBanco.leer(archivo);
+    }
+}
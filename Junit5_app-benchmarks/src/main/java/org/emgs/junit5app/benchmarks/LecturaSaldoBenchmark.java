@@ -0,0 +1,76 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+lecturas de saldo (optimistas, sin candado) con un escritor al mismo tiempo: 3 hilos leen y 1 transfiere.
+getSaldo de una cuenta escalada o con BigDecimal, y getSaldoTotal de todo el banco
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Group)
+public class LecturaSaldoBenchmark {
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+
+    @Param({"16", "1024"})
+    int cuentas;
+
+    @Param({"false", "true"})
+    boolean escaladas;
+
+    Banco banco;
+    Cuenta[] arreglo;
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        banco = new Banco(cuentas);
+        arreglo = new Cuenta[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            BigDecimal saldo = new BigDecimal("1000000000000");
+            arreglo[i] = escaladas ? new Cuenta("persona" + i, saldo, 2) : new Cuenta("persona" + i, saldo);
+            banco.addCuenta(arreglo[i]);
+        }
+    }
+
+    void transferir() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        banco.tryTransferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], MONTO);
+    }
+
+    @Benchmark
+    @Group("saldo")
+    @GroupThreads(3)
+    public BigDecimal leerSaldo() {
+        return arreglo[ThreadLocalRandom.current().nextInt(cuentas)].getSaldo();
+    }
+
+    @Benchmark
+    @Group("saldo")
+    @GroupThreads(1)
+    public void escribirSaldo() {
+        transferir();
+    }
+
+    @Benchmark
+    @Group("total")
+    @GroupThreads(3)
+    public BigDecimal leerTotal() {
+        return banco.getSaldoTotal();
+    }
+
+    @Benchmark
+    @Group("total")
+    @GroupThreads(1)
+    public void escribirTotal() {
+        transferir();
+    }
+}
@@ -0,0 +1,83 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.LimitesVelocidad;
+import org.emgs.junit5app.ejemplos.models.ResultadoOperacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+debitos y transferencias por segundo con 4 hilos, sin limites de velocidad, con limites que casi nunca se alcanzan
+(con System.nanoTime o con un reloj grueso que se actualiza cada milisegundo) y con limites que rechazan casi todo.
+cuentas=1 pone a todos los hilos sobre la misma cuenta (maxima contencion)
+ */
+@Fork(1)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LimitesVelocidadBenchmark {
+    @Param({"SIN_LIMITES", "DENTRO", "DENTRO_RELOJ_GRUESO", "RECHAZA"})
+    String limites;
+
+    @Param({"1", "1024"})
+    int cuentas;
+
+    Banco banco;
+    List<Cuenta> lista;
+    BigDecimal monto = new BigDecimal("0.01");
+    ScheduledExecutorService executor;
+    volatile long relojGrueso = System.nanoTime();
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        banco = new Banco(cuentas + 1);
+        for (int i = 0; i <= cuentas; i++) {
+            banco.addCuenta(new Cuenta("persona" + i, new BigDecimal("1000000000000.00")));
+        }
+        lista = banco.getCuentas();
+        if ("DENTRO".equals(limites)) {
+            banco.setLimites(new LimitesVelocidad(Duration.ofMinutes(1), 60, Integer.MAX_VALUE, new BigDecimal("1000000000000")));
+        } else if ("DENTRO_RELOJ_GRUESO".equals(limites)) {
+            executor = Executors.newSingleThreadScheduledExecutor();
+            executor.scheduleAtFixedRate(() -> relojGrueso = System.nanoTime(), 1, 1, TimeUnit.MILLISECONDS);
+            banco.setLimites(new LimitesVelocidad(Duration.ofMinutes(1), 60, Integer.MAX_VALUE, new BigDecimal("1000000000000"),
+                    () -> relojGrueso));
+        } else if ("RECHAZA".equals(limites)) {
+            banco.setLimites(new LimitesVelocidad(Duration.ofMinutes(1), 60, 1, new BigDecimal("1000000000000")));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Aleatorio {
+        SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public ResultadoOperacion debito(Aleatorio aleatorio) {
+        return lista.get(aleatorio.random.nextInt(cuentas)).tryDebito(monto);
+    }
+
+    //el destino es siempre la ultima cuenta, que nunca es origen
+    @Benchmark
+    public ResultadoOperacion transferir(Aleatorio aleatorio) {
+        return banco.tryTransferir(lista.get(aleatorio.random.nextInt(cuentas)), lista.get(cuentas), monto);
+    }
+}
@@ -0,0 +1,67 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.metricas.MetricasBanco;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+costo de las metricas en debito+credito y en transferir, apagadas y encendidas.
+apagadas debe quedar igual que sin instrumentar (comparar con BancoBenchmark/CuentaBenchmark)
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class MetricasBenchmark {
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+
+    @Param({"false", "true"})
+    boolean activas;
+
+    Banco banco;
+    Cuenta[] cuentas;
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        MetricasBanco.getInstancia().reiniciar();
+        MetricasBanco.getInstancia().setActivas(activas);
+        banco = new Banco(1024);
+        cuentas = new Cuenta[1024];
+        for (int i = 0; i < cuentas.length; i++) {
+            cuentas[i] = new Cuenta("persona" + i, new BigDecimal("1000000000000000"));
+            banco.addCuenta(cuentas[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void apagar() {
+        MetricasBanco.getInstancia().setActivas(false);
+    }
+
+    @Benchmark
+    public void debitoCredito() {
+        Cuenta cuenta = cuentas[ThreadLocalRandom.current().nextInt(cuentas.length)];
+        cuenta.debito(MONTO);
+        cuenta.credito(MONTO);
+    }
+
+    @Benchmark
+    public void transferir() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        banco.transferir(cuentas[random.nextInt(cuentas.length)], cuentas[random.nextInt(cuentas.length)], MONTO);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void transferirContendido() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        banco.transferir(cuentas[random.nextInt(cuentas.length)], cuentas[random.nextInt(cuentas.length)], MONTO);
+    }
+}
@@ -0,0 +1,71 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.ResultadoMasivo;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+Banco.aplicarInteres sobre todas las cuentas con un ForkJoinPool de 1 a 8 hilos, contra el ciclo de un solo hilo
+que recorre getCuentas() y llama credito por cuenta. la escala es cercana a lineal mientras haya nucleos libres
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class MovimientoMasivoBenchmark {
+    static final BigDecimal TASA = new BigDecimal("0.0001");
+
+    @Param({"1000000"})
+    int cuentas;
+
+    @Param({"1", "2", "4", "8"})
+    int hilos;
+
+    Banco banco;
+    ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        List<Cuenta> nuevas = new ArrayList<>(cuentas);
+        for (int i = 0; i < cuentas; i++) {
+            nuevas.add(new Cuenta("persona" + i, BigDecimal.valueOf(100_000 + i, 2)));
+        }
+        banco = new Banco(cuentas);
+        banco.cargarCuentas(nuevas);
+        pool = new ForkJoinPool(hilos);
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ResultadoMasivo aplicarInteres() {
+        return banco.aplicarATodas(saldo -> saldo.multiply(TASA), 2, RoundingMode.HALF_EVEN, pool);
+    }
+
+    //lo que se hacia antes: un solo hilo, sin importar hilos
+    @Benchmark
+    public BigDecimal cicloUnHilo() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Cuenta cuenta : banco.getCuentas()) {
+            BigDecimal interes = cuenta.getSaldo().multiply(TASA).setScale(2, RoundingMode.HALF_EVEN);
+            if (interes.signum() != 0) {
+                cuenta.credito(interes);
+                total = total.add(interes);
+            }
+        }
+        return total;
+    }
+}
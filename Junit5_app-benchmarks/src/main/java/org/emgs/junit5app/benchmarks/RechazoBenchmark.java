@@ -0,0 +1,135 @@
+package org.emgs.junit5app.benchmarks;
+
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.ResultadoOperacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+debitos y transferencias cuando la mayoria se rechaza por falta de saldo:
+excepcion con traza, excepcion sin traza y los metodos try que regresan un ResultadoOperacion
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RechazoBenchmark {
+    static final int CUENTAS = 1024;
+    static final BigDecimal SALDO_INICIAL = new BigDecimal("1000000000000");
+    static final BigDecimal MONTO = new BigDecimal("1.25");
+    static final BigDecimal MONTO_RECHAZADO = new BigDecimal("10000000000000");
+    static final long UNIDADES = 125;
+    static final long UNIDADES_RECHAZADAS = 10_000_000_000_000_00L;
+
+    @State(Scope.Benchmark)
+    public static class Cuentas {
+        @Param({"90"})
+        int porcentajeRechazos;
+
+        Banco banco;
+        Cuenta[] cuentas;
+        Cuenta[] escaladas;
+
+        @Setup(Level.Iteration)
+        public void preparar() {
+            banco = new Banco(CUENTAS);
+            cuentas = new Cuenta[CUENTAS];
+            escaladas = new Cuenta[CUENTAS];
+            for (int i = 0; i < CUENTAS; i++) {
+                cuentas[i] = new Cuenta("persona" + i, SALDO_INICIAL);
+                escaladas[i] = new Cuenta("escalada" + i, SALDO_INICIAL, 2);
+                banco.addCuenta(cuentas[i]);
+            }
+        }
+
+        boolean rechazar() {
+            return ThreadLocalRandom.current().nextInt(100) < porcentajeRechazos;
+        }
+
+        Cuenta alAzar() {
+            return cuentas[ThreadLocalRandom.current().nextInt(CUENTAS)];
+        }
+    }
+
+    //el modo de DineroInsuficienteException es global, se fija al inicio de cada benchmark
+    @State(Scope.Benchmark)
+    public static class ConTraza {
+        @Setup(Level.Trial)
+        public void preparar() {
+            DineroInsuficienteException.setConTraza(true);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SinTraza {
+        @Setup(Level.Trial)
+        public void preparar() {
+            DineroInsuficienteException.setConTraza(false);
+        }
+
+        @TearDown(Level.Trial)
+        public void restaurar() {
+            DineroInsuficienteException.setConTraza(true);
+        }
+    }
+
+    @Benchmark
+    public Object debitoConTraza(Cuentas estado, ConTraza modo) {
+        return debitoConExcepcion(estado);
+    }
+
+    @Benchmark
+    public Object debitoSinTraza(Cuentas estado, SinTraza modo) {
+        return debitoConExcepcion(estado);
+    }
+
+    @Benchmark
+    public ResultadoOperacion tryDebito(Cuentas estado) {
+        return estado.alAzar().tryDebito(estado.rechazar() ? MONTO_RECHAZADO : MONTO);
+    }
+
+    @Benchmark
+    public ResultadoOperacion tryDebitoUnidades(Cuentas estado) {
+        Cuenta cuenta = estado.escaladas[ThreadLocalRandom.current().nextInt(CUENTAS)];
+        return cuenta.tryDebitoUnidades(estado.rechazar() ? UNIDADES_RECHAZADAS : UNIDADES);
+    }
+
+    @Benchmark
+    public Object transferirConTraza(Cuentas estado, ConTraza modo) {
+        return transferirConExcepcion(estado);
+    }
+
+    @Benchmark
+    public Object transferirSinTraza(Cuentas estado, SinTraza modo) {
+        return transferirConExcepcion(estado);
+    }
+
+    @Benchmark
+    public ResultadoOperacion tryTransferir(Cuentas estado) {
+        return estado.banco.tryTransferir(estado.alAzar(), estado.alAzar(), estado.rechazar() ? MONTO_RECHAZADO : MONTO);
+    }
+
+    private static Object debitoConExcepcion(Cuentas estado) {
+        try {
+            estado.alAzar().debito(estado.rechazar() ? MONTO_RECHAZADO : MONTO);
+            return ResultadoOperacion.APLICADA;
+        } catch (DineroInsuficienteException e) {
+            return e;
+        }
+    }
+
+    private static Object transferirConExcepcion(Cuentas estado) {
+        try {
+            estado.banco.transferir(estado.alAzar(), estado.alAzar(), estado.rechazar() ? MONTO_RECHAZADO : MONTO);
+            return ResultadoOperacion.APLICADA;
+        } catch (DineroInsuficienteException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+import org.emgs.junit5app.ejemplos.metricas.Operacion;
+
+import java.math.BigDecimal;
+
+/*
+un cambio de saldo publicado en el FlujoCambios. los eventos se crean una sola vez con el flujo y se reutilizan
+en cada vuelta, por eso solo son validos dentro de ManejadorCambios.alCambio; quien los guarde debe copiar los datos.
+en una TRANSFERENCIA la cuenta es el origen y la contraparte el destino; en DEBITO y CREDITO no hay contraparte.
+version es la version de la cuenta despues del movimiento: como los eventos se publican fuera del candado,
+dos movimientos de la misma cuenta pueden llegar en otro orden y la version dice cual fue primero
+ */
+public class CambioSaldo {
+    private long secuencia;
+    private Operacion operacion;
+    private long cuenta;
+    private BigDecimal saldo;
+    private long version;
+    private long contraparte;
+    private BigDecimal saldoContraparte;
+    private long versionContraparte;
+    private BigDecimal monto;
+
+    void llenar(long secuencia, Operacion operacion, long cuenta, BigDecimal saldo, long version,
+                long contraparte, BigDecimal saldoContraparte, long versionContraparte, BigDecimal monto) {
+        this.secuencia = secuencia;
+        this.operacion = operacion;
+        this.cuenta = cuenta;
+        this.saldo = saldo;
+        this.version = version;
+        this.contraparte = contraparte;
+        this.saldoContraparte = saldoContraparte;
+        this.versionContraparte = versionContraparte;
+        this.monto = monto;
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public Operacion getOperacion() {
+        return operacion;
+    }
+
+    public long getCuenta() {
+        return cuenta;
+    }
+
+    //saldo de la cuenta despues del movimiento
+    public BigDecimal getSaldo() {
+        return saldo;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    //FlujoCambios.SIN_CONTRAPARTE si no es transferencia
+    public long getContraparte() {
+        return contraparte;
+    }
+
+    public BigDecimal getSaldoContraparte() {
+        return saldoContraparte;
+    }
+
+    public long getVersionContraparte() {
+        return versionContraparte;
+    }
+
+    //siempre positivo, la operacion dice si entro o salio de la cuenta
+    public BigDecimal getMonto() {
+        return monto;
+    }
+}
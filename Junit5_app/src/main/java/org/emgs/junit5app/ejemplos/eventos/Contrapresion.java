@@ -0,0 +1,11 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+//que hace un publicador cuando el flujo esta lleno porque la suscripcion mas lenta no ha procesado los eventos
+public enum Contrapresion {
+    //espera a que haya lugar; no se pierde ningun evento pero el movimiento tarda lo que tarde el consumidor
+    BLOQUEAR,
+    //el evento se descarta y se cuenta en getDescartados(), el movimiento nunca espera
+    DESCARTAR,
+    //con mas de la mitad del flujo ocupado solo se publica uno de cada muestreo eventos; si aun asi se llena, descarta
+    MUESTREAR
+}
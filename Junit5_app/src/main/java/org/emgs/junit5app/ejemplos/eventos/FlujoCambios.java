@@ -0,0 +1,210 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+import org.emgs.junit5app.ejemplos.metricas.Operacion;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+flujo de los cambios de saldo de un banco para otros sistemas (riesgo, notificaciones), al estilo Disruptor:
+un arreglo circular de eventos creados de antemano, sin candados.
+un publicador aparta la siguiente secuencia con CAS sobre el cursor, llena el evento de esa posicion y lo marca
+disponible escribiendo su secuencia en disponibles; varias publicaciones avanzan en paralelo y cada suscripcion
+espera a que su siguiente secuencia este marcada. cada suscripcion lleva su propia secuencia y ningun publicador
+da la vuelta sobre un evento que la suscripcion mas lenta no ha procesado; que hacer entonces lo decide la Contrapresion.
+la secuencia de cada evento es unica y creciente: un consumidor que guarda la ultima que proceso continua con
+suscribir(manejador, ultima + 1) mientras ese evento siga en el arreglo
+ */
+public class FlujoCambios {
+    public static final long SIN_CONTRAPARTE = -1;
+    //lo que regresa publicar cuando la contrapresion descarto el evento
+    public static final long SIN_SECUENCIA = -1;
+    //esperas activas de un publicador bloqueado o un consumidor sin eventos antes de ceder el procesador y luego dormir
+    private static final int ESPERAS_ACTIVAS = 64;
+    private static final int ESPERAS_CEDIENDO = 128;
+    private static final long NANOS_DORMIDO = 100_000;
+
+    private final CambioSaldo[] eventos;
+    //secuencia publicada en cada posicion, -1 si nunca se ha usado
+    private final AtomicLongArray disponibles;
+    private final int mascara;
+    private final Contrapresion contrapresion;
+    private final int muestreo;
+
+    //ultima secuencia apartada por un publicador
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Suscripcion> suscripciones = new CopyOnWriteArrayList<>();
+    //minimo de las secuencias de las suscripciones visto la ultima vez, asi no se recorren en cada publicacion
+    private volatile long minimoVisto = -1;
+    private final AtomicLong contadorMuestreo = new AtomicLong();
+    private final LongAdder descartados = new LongAdder();
+
+    public FlujoCambios(int capacidad, Contrapresion contrapresion) {
+        this(capacidad, contrapresion, 1);
+    }
+
+    //capacidad potencia de 2; muestreo solo aplica con MUESTREAR (p.ej. 4 = uno de cada cuatro eventos)
+    public FlujoCambios(int capacidad, Contrapresion contrapresion, int muestreo) {
+        if (capacidad <= 0 || Integer.bitCount(capacidad) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser potencia de 2: " + capacidad);
+        }
+        if (muestreo <= 0) {
+            throw new IllegalArgumentException("El muestreo debe ser mayor a cero");
+        }
+        this.eventos = new CambioSaldo[capacidad];
+        for (int i = 0; i < capacidad; i++) {
+            eventos[i] = new CambioSaldo();
+        }
+        this.disponibles = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            disponibles.set(i, -1);
+        }
+        this.mascara = capacidad - 1;
+        this.contrapresion = contrapresion;
+        this.muestreo = muestreo;
+    }
+
+    public int getCapacidad() {
+        return eventos.length;
+    }
+
+    public Contrapresion getContrapresion() {
+        return contrapresion;
+    }
+
+    //ultima secuencia apartada, -1 si no se ha publicado nada
+    public long getSecuencia() {
+        return cursor.get();
+    }
+
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    /*
+    los publica Cuenta y Banco despues de soltar los candados, con el saldo y la version leidos todavia con el candado.
+    regresan la secuencia del evento o SIN_SECUENCIA si la contrapresion lo descarto
+     */
+    public long publicar(Operacion operacion, long cuenta, BigDecimal saldo, long version, BigDecimal monto) {
+        return publicar(operacion, cuenta, saldo, version, SIN_CONTRAPARTE, null, 0, monto);
+    }
+
+    public long publicarTransferencia(long origen, BigDecimal saldoOrigen, long versionOrigen,
+                                      long destino, BigDecimal saldoDestino, long versionDestino, BigDecimal monto) {
+        return publicar(Operacion.TRANSFERENCIA, origen, saldoOrigen, versionOrigen, destino, saldoDestino, versionDestino, monto);
+    }
+
+    private long publicar(Operacion operacion, long cuenta, BigDecimal saldo, long version,
+                          long contraparte, BigDecimal saldoContraparte, long versionContraparte, BigDecimal monto) {
+        long secuencia = apartar();
+        if (secuencia == SIN_SECUENCIA) {
+            descartados.increment();
+            return SIN_SECUENCIA;
+        }
+        int posicion = (int) secuencia & mascara;
+        eventos[posicion].llenar(secuencia, operacion, cuenta, saldo, version, contraparte, saldoContraparte, versionContraparte, monto);
+        disponibles.set(posicion, secuencia); //escritura volatile: los campos del evento quedan visibles antes que la marca
+        return secuencia;
+    }
+
+    private long apartar() {
+        if (contrapresion == Contrapresion.MUESTREAR && masDeLaMitad()
+                && contadorMuestreo.getAndIncrement() % muestreo != 0) {
+            return SIN_SECUENCIA;
+        }
+        for (int esperas = 0; ; ) {
+            long actual = cursor.get();
+            long siguiente = actual + 1;
+            long sobreescribe = siguiente - eventos.length; //secuencia que ocupaba la posicion
+            if (sobreescribe > minimoVisto) {
+                long minimo = minimoSuscripciones(actual);
+                minimoVisto = minimo;
+                if (sobreescribe > minimo) { //lleno
+                    if (contrapresion != Contrapresion.BLOQUEAR) {
+                        return SIN_SECUENCIA;
+                    }
+                    esperar(esperas++);
+                    continue;
+                }
+            }
+            if (cursor.compareAndSet(actual, siguiente)) {
+                return siguiente;
+            }
+        }
+    }
+
+    private boolean masDeLaMitad() {
+        long actual = cursor.get();
+        int mitad = eventos.length / 2;
+        if (actual - minimoVisto <= mitad) {
+            return false;
+        }
+        long minimo = minimoSuscripciones(actual);
+        minimoVisto = minimo;
+        return actual - minimo > mitad;
+    }
+
+    //sin suscripciones no hay quien frene: el minimo es el cursor y los eventos viejos se sobreescriben
+    private long minimoSuscripciones(long actual) {
+        long minimo = actual;
+        for (Suscripcion suscripcion : suscripciones) {
+            minimo = Math.min(minimo, suscripcion.getSecuencia());
+        }
+        return minimo;
+    }
+
+    //recibe solo los eventos que se publiquen despues de suscribirse
+    public Suscripcion suscribir(ManejadorCambios manejador) {
+        Suscripcion suscripcion = new Suscripcion(this, manejador, cursor.get());
+        suscripciones.add(suscripcion);
+        return suscripcion;
+    }
+
+    /*
+    continua desde la secuencia desde (la siguiente a la ultima que proceso el consumidor).
+    lanza IllegalArgumentException si ese evento ya se sobreescribio o todavia no existe.
+    la suscripcion se registra antes de validar, asi los publicadores ya la respetan al terminar la validacion;
+    un publicador que aparto su lugar justo en ese momento todavia puede sobreescribir el evento, la suscripcion
+    lo detecta al procesar y lo cuenta en getPerdidos()
+     */
+    public Suscripcion suscribir(ManejadorCambios manejador, long desde) {
+        Suscripcion suscripcion = new Suscripcion(this, manejador, desde - 1);
+        suscripciones.add(suscripcion);
+        minimoVisto = Math.min(minimoVisto, desde - 1);
+        long actual = cursor.get();
+        if (desde < 0 || desde > actual + 1 || desde <= actual - eventos.length) {
+            suscripciones.remove(suscripcion);
+            throw new IllegalArgumentException("La secuencia " + desde + " ya no esta en el flujo");
+        }
+        return suscripcion;
+    }
+
+    void quitar(Suscripcion suscripcion) {
+        suscripciones.remove(suscripcion);
+    }
+
+    //secuencia que hay en la posicion de secuencia: igual si ya se publico, menor si falta, mayor si se sobreescribio
+    long publicadaEn(long secuencia) {
+        return disponibles.get((int) secuencia & mascara);
+    }
+
+    CambioSaldo evento(long secuencia) {
+        return eventos[(int) secuencia & mascara];
+    }
+
+    //espera activa corta, luego cede el procesador y al final duerme; esperas cuenta los intentos sin exito
+    static void esperar(int esperas) {
+        if (esperas < ESPERAS_ACTIVAS) {
+            Thread.onSpinWait();
+        } else if (esperas < ESPERAS_CEDIENDO) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(NANOS_DORMIDO);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+//recibe los eventos de una suscripcion en orden de secuencia, finDeLote indica el ultimo evento disponible por ahora
+@FunctionalInterface
+public interface ManejadorCambios {
+    void alCambio(CambioSaldo cambio, boolean finDeLote);
+}
@@ -0,0 +1,103 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+consumidor de un FlujoCambios. procesar() entrega de una vez todos los eventos publicados desde la ultima llamada
+y solo al final del lote avanza la secuencia, que es lo que libera esos lugares para los publicadores.
+se usa desde el hilo del consumidor o con iniciar(executor), que llama procesar() hasta close().
+si el manejador lanza una excepcion en el hilo de iniciar, la suscripcion se cierra (para no frenar a los publicadores)
+y la excepcion queda en getError()
+ */
+public class Suscripcion implements AutoCloseable {
+    private final FlujoCambios flujo;
+    private final ManejadorCambios manejador;
+    //ultima secuencia procesada
+    private final AtomicLong secuencia;
+    private volatile long perdidos;
+    private volatile boolean cerrada;
+    private volatile RuntimeException error;
+
+    Suscripcion(FlujoCambios flujo, ManejadorCambios manejador, long secuencia) {
+        this.flujo = flujo;
+        this.manejador = manejador;
+        this.secuencia = new AtomicLong(secuencia);
+    }
+
+    //procesa los eventos disponibles y regresa cuantos fueron, 0 si no habia ninguno
+    public int procesar() {
+        long siguiente = secuencia.get() + 1;
+        long ultima = flujo.getSecuencia();
+        long hasta = siguiente - 1;
+        while (hasta < ultima) {
+            long publicada = flujo.publicadaEn(hasta + 1);
+            if (publicada > hasta + 1) {
+                if (hasta < siguiente) { //ver suscribir(manejador, desde): se brinca lo sobreescrito
+                    long masAntigua = publicada - flujo.getCapacidad() + 1;
+                    perdidos += masAntigua - siguiente;
+                    secuencia.set(masAntigua - 1);
+                    return 0;
+                }
+                break;
+            }
+            if (publicada < hasta + 1) { //apartada pero el publicador no ha terminado de llenarla
+                break;
+            }
+            hasta++;
+        }
+        long procesada = siguiente - 1;
+        try {
+            for (long s = siguiente; s <= hasta; s++) {
+                manejador.alCambio(flujo.evento(s), s == hasta);
+                procesada = s;
+            }
+        } finally {
+            secuencia.lazySet(procesada); //los publicadores lo ven poco despues, no hace falta una barrera completa
+        }
+        return (int) (hasta - siguiente + 1);
+    }
+
+    public void iniciar(Executor executor) {
+        executor.execute(() -> {
+            int esperas = 0;
+            try {
+                while (!cerrada) {
+                    if (procesar() > 0) {
+                        esperas = 0;
+                    } else {
+                        FlujoCambios.esperar(esperas++);
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = e;
+                close();
+            }
+        });
+    }
+
+    //la siguiente a esta es la secuencia para continuar con FlujoCambios.suscribir(manejador, desde)
+    public long getSecuencia() {
+        return secuencia.get();
+    }
+
+    //eventos que se sobreescribieron antes de procesarlos, solo al continuar desde una secuencia vieja
+    public long getPerdidos() {
+        return perdidos;
+    }
+
+    public RuntimeException getError() {
+        return error;
+    }
+
+    public boolean isCerrada() {
+        return cerrada;
+    }
+
+    //deja de frenar a los publicadores; el hilo de iniciar termina en su siguiente vuelta
+    @Override
+    public void close() {
+        cerrada = true;
+        flujo.quitar(this);
+    }
+}
@@ -0,0 +1,9 @@
+package org.emgs.junit5app.ejemplos.exceptions;
+
+//el diario de transacciones no tiene lugar para los registros de la operacion; se lanza antes de mover el dinero
+public class DiarioLlenoException extends IllegalStateException{
+
+    public DiarioLlenoException(String message){
+        super(message);
+    }
+}
@@ -1,7 +1,26 @@
 package org.emgs.junit5app.ejemplos.exceptions;
 
 public class DineroInsuficienteException extends RuntimeException{
+    /*
+    sin traza la excepcion no llama a fillInStackTrace, que es lo mas caro de crearla cuando hay muchos rechazos.
+    se activa con -Dbanco.excepciones.sinTraza=true o setConTraza(false); quien no quiera excepciones
+    puede usar Cuenta.tryDebito / Banco.tryTransferir
+     */
+    private static volatile boolean conTraza = !Boolean.getBoolean("banco.excepciones.sinTraza");
+
     public DineroInsuficienteException(String message){
-        super(message);
+        this(message, conTraza);
+    }
+
+    public DineroInsuficienteException(String message, boolean conTraza){
+        super(message, null, true, conTraza); //la supresion queda activa, try-with-resources sigue anotando sus errores
+    }
+
+    public static boolean isConTraza() {
+        return conTraza;
+    }
+
+    public static void setConTraza(boolean conTraza) {
+        DineroInsuficienteException.conTraza = conTraza;
     }
 }
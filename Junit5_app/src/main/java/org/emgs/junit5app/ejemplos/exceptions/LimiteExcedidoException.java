@@ -0,0 +1,10 @@
+package org.emgs.junit5app.ejemplos.exceptions;
+
+//debito o transferencia rechazado por los limites de velocidad de la cuenta (LimitesVelocidad del banco)
+public class LimiteExcedidoException extends RuntimeException{
+
+    //con o sin traza igual que DineroInsuficienteException, asi un solo ajuste cubre todos los rechazos
+    public LimiteExcedidoException(String message){
+        super(message, null, true, DineroInsuficienteException.isConTraza());
+    }
+}
@@ -0,0 +1,111 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+histograma de latencias en nanosegundos con cubetas logaritmicas-lineales (como HdrHistogram):
+valores menores a 32 tienen cubeta propia y de ahi en adelante cada potencia de 2 se parte en 16 cubetas,
+asi el error relativo de un percentil es menor a 1/16 y la memoria es fija (un arreglo de contadores).
+registrar no crea objetos ni bloquea
+ */
+public class HistogramaLatencia {
+    private static final int BITS_SUBCUBETA = 4;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    //latencias mayores a ~18 minutos se cuentan en la ultima cubeta
+    private static final long MAXIMO = (1L << 40) - 1;
+    private static final int CUBETAS = indice(MAXIMO) + 1;
+
+    private final AtomicLongArray cuentas;
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    public HistogramaLatencia() {
+        this.cuentas = new AtomicLongArray(CUBETAS);
+    }
+
+    private HistogramaLatencia(long[] copia, long cantidad, long suma, long maximo) {
+        this.cuentas = new AtomicLongArray(copia);
+        this.cantidad.add(cantidad);
+        this.suma.add(suma);
+        this.maximo.accumulate(maximo);
+    }
+
+    public void registrar(long nanos) {
+        long valor = Math.min(Math.max(nanos, 0), MAXIMO);
+        cuentas.getAndIncrement(indice(valor));
+        cantidad.increment();
+        suma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    public long getCantidad() {
+        return cantidad.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public double getMedia() {
+        long total = cantidad.sum();
+        return total == 0 ? 0 : (double) suma.sum() / total;
+    }
+
+    //valor mas alto de la cubeta donde cae el percentil (0-100); 0 si no hay registros
+    public long getPercentil(double percentil) {
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            total += cuentas.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * Math.min(percentil, 100) / 100));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), getMaximo());
+            }
+        }
+        return getMaximo();
+    }
+
+    //copia para reportar sin que la sigan modificando los hilos que registran
+    public HistogramaLatencia instantanea() {
+        long[] copia = new long[CUBETAS];
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+        }
+        return new HistogramaLatencia(copia, cantidad.sum(), suma.sum(), maximo.get());
+    }
+
+    public void reiniciar() {
+        for (int i = 0; i < CUBETAS; i++) {
+            cuentas.set(i, 0);
+        }
+        cantidad.reset();
+        suma.reset();
+        maximo.reset();
+    }
+
+    static int indice(long valor) {
+        if (valor < 2 * SUBCUBETAS) {
+            return (int) valor;
+        }
+        int desplazamiento = 63 - Long.numberOfLeadingZeros(valor) - BITS_SUBCUBETA;
+        return desplazamiento * SUBCUBETAS + (int) (valor >>> desplazamiento);
+    }
+
+    static long limiteSuperior(int indice) {
+        if (indice < 2 * SUBCUBETAS) {
+            return indice;
+        }
+        int desplazamiento = indice / SUBCUBETAS - 1;
+        long inicio = (long) (indice % SUBCUBETAS + SUBCUBETAS) << desplazamiento;
+        return inicio + (1L << desplazamiento) - 1;
+    }
+}
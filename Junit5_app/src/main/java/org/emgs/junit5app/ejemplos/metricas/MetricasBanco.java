@@ -0,0 +1,183 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+metricas de debito, credito y transferir: latencias, rechazos (por falta de saldo y por limite de velocidad, contados
+aparte) y contencion de candados.
+es una sola instancia para todo el proceso; empieza apagada (o encendida con -Dbanco.metricas=true) y se
+puede prender o apagar en caliente, tambien por JMX. apagada, cada operacion solo lee un campo volatile.
+los contadores son LongAdder, asi hilos en distintas cuentas no se estorban al contar
+ */
+public final class MetricasBanco implements MetricasBancoMBean {
+    //valor de iniciar() cuando las metricas estan apagadas
+    public static final long SIN_MEDIR = Long.MIN_VALUE;
+    public static final String NOMBRE_JMX = "org.emgs.junit5app:type=MetricasBanco";
+
+    private static final MetricasBanco INSTANCIA = new MetricasBanco(Boolean.getBoolean("banco.metricas"));
+
+    private volatile boolean activas;
+    private final EnumMap<Operacion, HistogramaLatencia> latencias = new EnumMap<>(Operacion.class);
+    private final EnumMap<Operacion, LongAdder> rechazos = new EnumMap<>(Operacion.class);
+    private final EnumMap<Operacion, LongAdder> rechazosPorLimite = new EnumMap<>(Operacion.class);
+    private final LongAdder contenciones = new LongAdder();
+
+    private MetricasBanco(boolean activas) {
+        this.activas = activas;
+        for (Operacion operacion : Operacion.values()) {
+            latencias.put(operacion, new HistogramaLatencia());
+            rechazos.put(operacion, new LongAdder());
+            rechazosPorLimite.put(operacion, new LongAdder());
+        }
+    }
+
+    public static MetricasBanco getInstancia() {
+        return INSTANCIA;
+    }
+
+    @Override
+    public boolean isActivas() {
+        return activas;
+    }
+
+    @Override
+    public void setActivas(boolean activas) {
+        this.activas = activas;
+    }
+
+    //marca de tiempo para registrar(); SIN_MEDIR si estan apagadas
+    public long iniciar() {
+        return activas ? System.nanoTime() : SIN_MEDIR;
+    }
+
+    public void registrar(Operacion operacion, long inicio) {
+        if (inicio != SIN_MEDIR) {
+            latencias.get(operacion).registrar(System.nanoTime() - inicio);
+        }
+    }
+
+    //rechazo por falta de saldo
+    public void rechazo(Operacion operacion, long inicio) {
+        if (inicio != SIN_MEDIR) {
+            rechazos.get(operacion).increment();
+        }
+    }
+
+    //rechazo por LimitesVelocidad
+    public void rechazoPorLimite(Operacion operacion, long inicio) {
+        if (inicio != SIN_MEDIR) {
+            rechazosPorLimite.get(operacion).increment();
+        }
+    }
+
+    public void contencion() {
+        if (activas) {
+            contenciones.increment();
+        }
+    }
+
+    public ResumenMetricas resumen() {
+        EnumMap<Operacion, HistogramaLatencia> copias = new EnumMap<>(Operacion.class);
+        EnumMap<Operacion, Long> totales = new EnumMap<>(Operacion.class);
+        EnumMap<Operacion, Long> totalesPorLimite = new EnumMap<>(Operacion.class);
+        for (Operacion operacion : Operacion.values()) {
+            copias.put(operacion, latencias.get(operacion).instantanea());
+            totales.put(operacion, rechazos.get(operacion).sum());
+            totalesPorLimite.put(operacion, rechazosPorLimite.get(operacion).sum());
+        }
+        return new ResumenMetricas(Instant.now(), copias, totales, totalesPorLimite, contenciones.sum());
+    }
+
+    //llama al reporte cada periodo en el executor dado; se detiene cancelando el ScheduledFuture
+    public ScheduledFuture<?> reportarCada(Duration periodo, ReporteMetricas reporte, ScheduledExecutorService executor) {
+        long nanos = periodo.toNanos();
+        return executor.scheduleAtFixedRate(() -> reporte.reportar(resumen()), nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    //registra el MBean en el servidor de la plataforma; si ya estaba registrado no hace nada
+    public ObjectName registrarJmx() {
+        try {
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+            return nombre;
+        } catch (JMException e) {
+            throw new IllegalStateException("No se pudo registrar " + NOMBRE_JMX, e);
+        }
+    }
+
+    @Override
+    public long getDebitos() {
+        return latencias.get(Operacion.DEBITO).getCantidad();
+    }
+
+    @Override
+    public long getCreditos() {
+        return latencias.get(Operacion.CREDITO).getCantidad();
+    }
+
+    @Override
+    public long getTransferencias() {
+        return latencias.get(Operacion.TRANSFERENCIA).getCantidad();
+    }
+
+    @Override
+    public long getRechazos() {
+        long total = 0;
+        for (LongAdder contador : rechazos.values()) {
+            total += contador.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRechazosPorLimite() {
+        long total = 0;
+        for (LongAdder contador : rechazosPorLimite.values()) {
+            total += contador.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getContenciones() {
+        return contenciones.sum();
+    }
+
+    @Override
+    public long getTransferenciaP50Nanos() {
+        return latencias.get(Operacion.TRANSFERENCIA).getPercentil(50);
+    }
+
+    @Override
+    public long getTransferenciaP99Nanos() {
+        return latencias.get(Operacion.TRANSFERENCIA).getPercentil(99);
+    }
+
+    @Override
+    public long getTransferenciaMaximoNanos() {
+        return latencias.get(Operacion.TRANSFERENCIA).getMaximo();
+    }
+
+    @Override
+    public void reiniciar() {
+        for (Operacion operacion : Operacion.values()) {
+            latencias.get(operacion).reiniciar();
+            rechazos.get(operacion).reset();
+            rechazosPorLimite.get(operacion).reset();
+        }
+        contenciones.reset();
+    }
+}
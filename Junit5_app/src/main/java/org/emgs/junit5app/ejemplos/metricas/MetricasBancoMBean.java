@@ -0,0 +1,29 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+//atributos que se ven por JMX (jconsole, VisualVM...)
+public interface MetricasBancoMBean {
+    boolean isActivas();
+
+    void setActivas(boolean activas);
+
+    long getDebitos();
+
+    long getCreditos();
+
+    long getTransferencias();
+
+    //por falta de saldo
+    long getRechazos();
+
+    long getRechazosPorLimite();
+
+    long getContenciones();
+
+    long getTransferenciaP50Nanos();
+
+    long getTransferenciaP99Nanos();
+
+    long getTransferenciaMaximoNanos();
+
+    void reiniciar();
+}
@@ -0,0 +1,6 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+//operaciones del libro de cuentas que se miden
+public enum Operacion {
+    DEBITO, CREDITO, TRANSFERENCIA
+}
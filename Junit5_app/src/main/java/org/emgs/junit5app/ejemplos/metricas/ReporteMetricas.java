@@ -0,0 +1,7 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+//destino de las metricas (log, archivo, sistema de monitoreo...), se llama cada periodo con una foto nueva
+@FunctionalInterface
+public interface ReporteMetricas {
+    void reportar(ResumenMetricas resumen);
+}
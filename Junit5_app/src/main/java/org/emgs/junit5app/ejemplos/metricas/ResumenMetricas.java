@@ -0,0 +1,65 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+//foto de las metricas en un instante, es lo que reciben los ReporteMetricas
+public class ResumenMetricas {
+    private final Instant instante;
+    private final Map<Operacion, HistogramaLatencia> latencias;
+    private final Map<Operacion, Long> rechazos;
+    private final Map<Operacion, Long> rechazosPorLimite;
+    private final long contenciones;
+
+    ResumenMetricas(Instant instante, EnumMap<Operacion, HistogramaLatencia> latencias, EnumMap<Operacion, Long> rechazos,
+                    EnumMap<Operacion, Long> rechazosPorLimite, long contenciones) {
+        this.instante = instante;
+        this.latencias = Collections.unmodifiableMap(latencias);
+        this.rechazos = Collections.unmodifiableMap(rechazos);
+        this.rechazosPorLimite = Collections.unmodifiableMap(rechazosPorLimite);
+        this.contenciones = contenciones;
+    }
+
+    public Instant getInstante() {
+        return instante;
+    }
+
+    //operaciones completas (sin contar rechazos)
+    public long getOperaciones(Operacion operacion) {
+        return latencias.get(operacion).getCantidad();
+    }
+
+    //rechazos por falta de saldo (DINERO_INSUFICIENTE o DineroInsuficienteException)
+    public long getRechazos(Operacion operacion) {
+        return rechazos.get(operacion);
+    }
+
+    //rechazos por LimitesVelocidad (LIMITE_EXCEDIDO o LimiteExcedidoException), no se cuentan en getRechazos
+    public long getRechazosPorLimite(Operacion operacion) {
+        return rechazosPorLimite.get(operacion);
+    }
+
+    public HistogramaLatencia getLatencias(Operacion operacion) {
+        return latencias.get(operacion);
+    }
+
+    //veces que una cuenta ya estaba bloqueada por otro hilo al intentar tomar su candado
+    public long getContenciones() {
+        return contenciones;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder texto = new StringBuilder("metricas ").append(instante).append(" contenciones=").append(contenciones);
+        for (Operacion operacion : Operacion.values()) {
+            HistogramaLatencia h = latencias.get(operacion);
+            texto.append(String.format(" | %s n=%d rechazos=%d porLimite=%d p50=%dns p99=%dns p999=%dns max=%dns",
+                    operacion, h.getCantidad(), rechazos.get(operacion), rechazosPorLimite.get(operacion),
+                    h.getPercentil(50), h.getPercentil(99),
+                    h.getPercentil(99.9), h.getMaximo()));
+        }
+        return texto.toString();
+    }
+}
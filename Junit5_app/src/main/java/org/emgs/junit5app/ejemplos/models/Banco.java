@@ -1,16 +1,71 @@
 package org.emgs.junit5app.ejemplos.models;
 
+import org.emgs.junit5app.ejemplos.eventos.FlujoCambios;
+import org.emgs.junit5app.ejemplos.exceptions.DiarioLlenoException;
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.metricas.MetricasBanco;
+import org.emgs.junit5app.ejemplos.metricas.Operacion;
+import org.emgs.junit5app.ejemplos.persistencia.DiarioTransacciones;
+
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 public class Banco {
+    //valor que regresan los metodos registrar* cuando el banco no tiene diario
+    static final long SIN_REGISTRO = -1;
+    private static final long NO_ESTABA = -2; //bajaSinEsperar: la cuenta no estaba dada de alta
+    //lecturas optimistas de getSaldoTotal antes de bloquear todas las cuentas
+    static final int INTENTOS_OPTIMISTAS = 16;
+
     private String nombre;
-    private List<Cuenta> cuentas;
+    //cuentas en orden de alta; solo se modifica con el candado del banco (addCuenta, removeCuenta...)
+    private Map<Long, Cuenta> cuentas;
+    //indices concurrentes para busquedas O(1) sin bloquear, se reemplazan completos en la carga masiva
+    private volatile Map<Long, Cuenta> cuentasPorId;
+    private volatile Map<String, List<Cuenta>> cuentasPorPersona;
+    //diario opcional donde se anotan altas, bajas y movimientos de saldo
+    private volatile DiarioTransacciones diario;
+    //flujo opcional donde se publican debitos, creditos y transferencias para otros sistemas
+    private volatile FlujoCambios flujoCambios;
+    //claves de idempotencia para transferir(clave, ...), opcional
+    private volatile RegistroIdempotencia idempotencia;
+    //limites de velocidad por cuenta para debitos y transferencias, opcional
+    private volatile LimitesVelocidad limites;
+    //montos apartados por transferencias hacia otros bancos en curso (BancoFragmentado), por id de reserva
+    private final Map<Long, Reserva> reservas = new ConcurrentHashMap<>();
+    //ids de reservas de otros bancos ya acreditadas aqui cuyo origen todavia no confirma
+    private final Set<Long> abonos = ConcurrentHashMap.newKeySet();
+    //agregados que mantienen los movimientos: total del banco y subtotal de cada grupo (incluye sus subgrupos)
+    private final SaldoAgregado total = new SaldoAgregado(null);
+    private final SaldoAgregado[] cadenaSinGrupo = {total};
+    private final Map<String, SaldoAgregado> grupos = new ConcurrentHashMap<>();
+    private final Map<String, SaldoAgregado[]> cadenas = new ConcurrentHashMap<>();
+    private volatile boolean modoVerificacion;
 
     public Banco() {
+        this(16);
+    }
+
+    //capacidad esperada de cuentas para no redimensionar los indices mientras se cargan
+    public Banco(int capacidad) {
         //para inicializar la lista cuentas es necesario realizarlo en constructor de la clase
-        cuentas = new ArrayList<>();
+        cuentas = new LinkedHashMap<>(capacidad);
+        cuentasPorId = new ConcurrentHashMap<>(capacidad);
+        cuentasPorPersona = new ConcurrentHashMap<>(capacidad);
     }
 
     public String getNombre() {
@@ -21,21 +76,978 @@ public class Banco {
         this.nombre = nombre;
     }
 
-    public List<Cuenta> getCuentas() {
-        return cuentas;
+    public DiarioTransacciones getDiario() {
+        return diario;
+    }
+
+    //solo se anotan las cuentas y movimientos posteriores, para restaurar un banco primero se usa diario.reproducir(banco)
+    public void setDiario(DiarioTransacciones diario) {
+        this.diario = diario;
+    }
+
+    public FlujoCambios getFlujoCambios() {
+        return flujoCambios;
+    }
+
+    /*
+    solo se publican los movimientos posteriores. un lote publica un evento por cuenta con su neto y aplicarATodas
+    uno por cuenta que cambio, como CREDITO o DEBITO; setSaldo publica la diferencia con el saldo anterior
+     */
+    public void setFlujoCambios(FlujoCambios flujoCambios) {
+        this.flujoCambios = flujoCambios;
+    }
+
+    public RegistroIdempotencia getIdempotencia() {
+        return idempotencia;
+    }
+
+    public void setIdempotencia(RegistroIdempotencia idempotencia) {
+        this.idempotencia = idempotencia;
+    }
+
+    public LimitesVelocidad getLimites() {
+        return limites;
+    }
+
+    //las cuentas empiezan con su ventana vacia; cambiar los limites reinicia las ventanas en el siguiente debito de cada una
+    public void setLimites(LimitesVelocidad limites) {
+        this.limites = limites;
     }
 
-    public void setCuentas(List<Cuenta> cuentas) {
-        this.cuentas = cuentas;
+    /*
+    antes regresaba la lista interna; ahora es una copia de solo lectura tomada en el momento de la llamada:
+    no refleja altas ni bajas posteriores y add/remove sobre ella lanzan UnsupportedOperationException.
+    es copia y no vista porque las cuentas viven en un mapa que cambia bajo el monitor del banco, y una vista
+    recorrida sin el fallaria con otros hilos dando altas. para agregar o quitar cuentas se usa addCuenta/removeCuenta
+    y asi no se desfasan los indices; cada llamada cuesta O(cuentas), quien la recorre seguido debe guardarla
+     */
+    public synchronized List<Cuenta> getCuentas() {
+        return Collections.unmodifiableList(new ArrayList<>(cuentas.values()));
+    }
+
+    public synchronized void setCuentas(List<Cuenta> cuentas) {
+        for (Cuenta cuenta : this.cuentas.values()) {
+            quitarDeAgregados(cuenta);
+        }
+        this.cuentas = new LinkedHashMap<>(Math.max(16, cuentas.size()));
+        cuentasPorId = new ConcurrentHashMap<>(Math.max(16, cuentas.size()));
+        cuentasPorPersona = new ConcurrentHashMap<>(Math.max(16, cuentas.size()));
+        cargarCuentas(cuentas);
     }
 
     public void addCuenta(Cuenta cuenta){
-        cuentas.add(cuenta);
-        cuenta.setBanco(this); //agrega el banco a cada cuenta en la lista
+        addCuenta(cuenta, null);
+    }
+
+    //grupo con niveles separados por "/" (p.ej. "norte/monterrey"); null = sin grupo, solo cuenta en el total del banco
+    //el registro se escribe con el candado del banco (mismo orden que las altas) pero la espera del fsync es afuera
+    public void addCuenta(Cuenta cuenta, String grupo){
+        DiarioTransacciones actual = diario;
+        long registro = altaSinEsperar(cuenta, grupo, actual);
+        if (registro != SIN_REGISTRO) {
+            actual.esperarPersistido(registro);
+        }
+    }
+
+    private synchronized long altaSinEsperar(Cuenta cuenta, String grupo, DiarioTransacciones actual) {
+        if (cuentas.containsKey(cuenta.getId())) {
+            return SIN_REGISTRO; //la cuenta ya estaba dada de alta
+        }
+        //el grupo se valida antes de crear nada, un grupo invalido no deja agregados vacios
+        SaldoAgregado[] cadena = cadena(grupo);
+        //se anota primero: si el diario la rechaza la cuenta no queda dada de alta
+        long registro = actual == null ? SIN_REGISTRO : actual.registrarAlta(cuenta, grupo);
+        cuentas.put(cuenta.getId(), cuenta);
+        indexar(cuenta, cuentasPorId, cuentasPorPersona);
+        agregarAAgregados(cuenta, grupo, cadena); //agrega el banco a cada cuenta en la lista
+        return registro;
+    }
+
+    public boolean removeCuenta(Cuenta cuenta){
+        DiarioTransacciones actual = diario;
+        long registro = bajaSinEsperar(cuenta, actual);
+        if (registro == NO_ESTABA) {
+            return false;
+        }
+        if (registro != SIN_REGISTRO) {
+            actual.esperarPersistido(registro);
+        }
+        return true;
+    }
+
+    private synchronized long bajaSinEsperar(Cuenta cuenta, DiarioTransacciones actual) {
+        if (!cuentas.containsKey(cuenta.getId())) {
+            return NO_ESTABA;
+        }
+        long registro = actual == null ? SIN_REGISTRO : actual.registrarBaja(cuenta);
+        cuentas.remove(cuenta.getId());
+        cuentasPorId.remove(cuenta.getId());
+        if (cuenta.getPersona() != null) {
+            quitarDePersona(cuenta, cuenta.getPersona());
+        }
+        quitarDeAgregados(cuenta);
+        return registro;
+    }
+
+    /*
+    carga masiva: los indices nuevos se crean con la capacidad final y se publican de una sola vez,
+    las busquedas concurrentes ven el indice anterior o el completo, nunca uno a medias.
+    si el diario se llena a la mitad quedan dadas de alta (y publicadas) las cuentas anteriores a la que fallo
+     */
+    public void cargarCuentas(Collection<Cuenta> nuevas){
+        cargarCuentas(nuevas, cuenta -> null);
+    }
+
+    //carga masiva con el grupo de cada cuenta (null = sin grupo), p.ej. al restaurar una instantanea
+    public synchronized void cargarCuentas(Collection<Cuenta> nuevas, Function<Cuenta, String> grupoDe){
+        int capacidad = cuentas.size() + nuevas.size();
+        Map<Long, Cuenta> porId = new ConcurrentHashMap<>(capacidad);
+        Map<String, List<Cuenta>> porPersona = new ConcurrentHashMap<>(capacidad);
+        porId.putAll(cuentasPorId);
+        porPersona.putAll(cuentasPorPersona);
+        DiarioTransacciones actual = diario;
+        long registro = SIN_REGISTRO;
+        try {
+            for (Cuenta cuenta : nuevas) {
+                if (cuentas.containsKey(cuenta.getId())) {
+                    continue;
+                }
+                String grupo = grupoDe.apply(cuenta);
+                SaldoAgregado[] cadena = cadena(grupo);
+                if (actual != null) {
+                    registro = actual.registrarAlta(cuenta, grupo);
+                }
+                cuentas.put(cuenta.getId(), cuenta);
+                indexar(cuenta, porId, porPersona);
+                agregarAAgregados(cuenta, grupo, cadena);
+            }
+        } finally {
+            cuentasPorId = porId;
+            cuentasPorPersona = porPersona;
+            if (registro != SIN_REGISTRO) {
+                actual.esperarPersistido(registro); //una sola espera para toda la carga
+            }
+        }
+    }
+
+    public Optional<Cuenta> findCuenta(long id){
+        return Optional.ofNullable(cuentasPorId.get(id));
+    }
+
+    //primera cuenta dada de alta para la persona
+    public Optional<Cuenta> findCuenta(String persona){
+        List<Cuenta> encontradas = cuentasPorPersona.get(persona);
+        return encontradas == null ? Optional.empty() : Optional.of(encontradas.get(0));
+    }
+
+    public List<Cuenta> findCuentas(String persona){
+        return cuentasPorPersona.getOrDefault(persona, Collections.emptyList());
+    }
+
+    //llamado por Cuenta.setPersona para mantener el indice por persona
+    synchronized void cambiarPersona(Cuenta cuenta, String anterior){
+        if (!cuentas.containsKey(cuenta.getId())) {
+            return;
+        }
+        if (anterior != null) {
+            quitarDePersona(cuenta, anterior);
+        }
+        if (cuenta.getPersona() != null) {
+            agregarAPersona(cuenta, cuentasPorPersona);
+        }
+    }
+
+    //saldo total del banco mantenido con cada movimiento, O(1); exacto cuando no hay movimientos en curso
+    public BigDecimal getSaldoAgregado(){
+        revisarSiVerifica();
+        return total.getSaldo();
+    }
+
+    //saldo del grupo y de todos sus subgrupos; cero si el grupo no existe
+    public BigDecimal getSaldoGrupo(String grupo){
+        revisarSiVerifica();
+        SaldoAgregado agregado = grupos.get(grupo);
+        return agregado == null ? BigDecimal.ZERO : agregado.getSaldo();
+    }
+
+    public long getCantidadCuentas(){
+        return total.getCuentas();
+    }
+
+    public long getCantidadCuentas(String grupo){
+        SaldoAgregado agregado = grupos.get(grupo);
+        return agregado == null ? 0 : agregado.getCuentas();
+    }
+
+    public Set<String> getGrupos(){
+        return Collections.unmodifiableSet(grupos.keySet());
+    }
+
+    public boolean isModoVerificacion() {
+        return modoVerificacion;
+    }
+
+    //en modo verificacion cada consulta de saldo agregado recalcula todo y lanza IllegalStateException si no cuadra
+    public void setModoVerificacion(boolean modoVerificacion) {
+        this.modoVerificacion = modoVerificacion;
+    }
+
+    /*
+    recalcula desde cero el total, los subtotales y las cantidades de cuentas y los compara con los agregados.
+    bloquea el banco y todas las cuentas (los agregados solo cambian con el candado de alguna cuenta),
+    asi la comparacion es exacta aunque haya movimientos. regresa las diferencias, vacia si todo cuadra
+     */
+    public synchronized List<String> verificarAgregados(){
+        List<Cuenta> ordenadas = new ArrayList<>(cuentas.values());
+        ordenadas.sort(Comparator.comparingLong(Cuenta::getId));
+        int bloqueadas = 0;
+        try {
+            for (Cuenta cuenta : ordenadas) {
+                cuenta.bloquear();
+                bloqueadas++;
+            }
+            Map<SaldoAgregado, BigDecimal> saldos = new LinkedHashMap<>();
+            Map<SaldoAgregado, Long> cantidades = new LinkedHashMap<>();
+            saldos.put(total, BigDecimal.ZERO);
+            cantidades.put(total, 0L);
+            for (SaldoAgregado agregado : grupos.values()) {
+                saldos.put(agregado, BigDecimal.ZERO);
+                cantidades.put(agregado, 0L);
+            }
+            for (Cuenta cuenta : ordenadas) {
+                BigDecimal saldo = cuenta.getSaldo();
+                for (SaldoAgregado agregado : cuenta.getAgregados()) {
+                    saldos.merge(agregado, saldo, BigDecimal::add);
+                    cantidades.merge(agregado, 1L, Long::sum);
+                }
+            }
+            List<String> diferencias = new ArrayList<>();
+            for (Map.Entry<SaldoAgregado, BigDecimal> esperado : saldos.entrySet()) {
+                SaldoAgregado agregado = esperado.getKey();
+                String nombreGrupo = agregado.getGrupo() == null ? "banco" : "grupo " + agregado.getGrupo();
+                if (agregado.getSaldo().compareTo(esperado.getValue()) != 0) {
+                    diferencias.add(nombreGrupo + ": saldo agregado " + agregado.getSaldo() + ", recalculado " + esperado.getValue());
+                }
+                if (agregado.getCuentas() != cantidades.get(agregado)) {
+                    diferencias.add(nombreGrupo + ": cuentas agregadas " + agregado.getCuentas() + ", recalculadas " + cantidades.get(agregado));
+                }
+            }
+            return diferencias;
+        } finally {
+            for (int i = bloqueadas - 1; i >= 0; i--) {
+                ordenadas.get(i).desbloquear();
+            }
+        }
+    }
+
+    private void revisarSiVerifica() {
+        if (modoVerificacion) {
+            List<String> diferencias = verificarAgregados();
+            if (!diferencias.isEmpty()) {
+                throw new IllegalStateException("Los agregados del banco no cuadran: " + diferencias);
+            }
+        }
+    }
+
+    //cadena de agregados de un grupo: total del banco, "norte", "norte/monterrey"; se comparte entre las cuentas del grupo
+    private SaldoAgregado[] cadena(String grupo) {
+        if (grupo == null) {
+            return cadenaSinGrupo;
+        }
+        return cadenas.computeIfAbsent(grupo, g -> {
+            String[] niveles = g.split("/", -1);
+            for (String nivel : niveles) {
+                if (nivel.isEmpty()) {
+                    throw new IllegalArgumentException("Grupo invalido: '" + g + "'");
+                }
+            }
+            SaldoAgregado[] cadena = new SaldoAgregado[niveles.length + 1];
+            cadena[0] = total;
+            StringBuilder ruta = new StringBuilder();
+            for (int i = 0; i < niveles.length; i++) {
+                ruta.append(i == 0 ? "" : "/").append(niveles[i]);
+                cadena[i + 1] = grupos.computeIfAbsent(ruta.toString(), SaldoAgregado::new);
+            }
+            return cadena;
+        });
+    }
+
+    //con el candado de la cuenta, asi ningun movimiento queda fuera o contado dos veces
+    private void agregarAAgregados(Cuenta cuenta, String grupo, SaldoAgregado[] cadena) {
+        cuenta.bloquear();
+        try {
+            cuenta.setBanco(this);
+            cuenta.setAgregados(grupo, cadena);
+            SaldoAgregado.sumar(cadena, cuenta.getSaldo());
+            for (SaldoAgregado agregado : cadena) {
+                agregado.sumarCuenta(1);
+            }
+        } finally {
+            cuenta.desbloquear();
+        }
+    }
+
+    private void quitarDeAgregados(Cuenta cuenta) {
+        cuenta.bloquear();
+        try {
+            SaldoAgregado[] cadena = cuenta.getAgregados();
+            if (cadena != null) {
+                SaldoAgregado.sumar(cadena, cuenta.getSaldo().negate());
+                for (SaldoAgregado agregado : cadena) {
+                    agregado.sumarCuenta(-1);
+                }
+            }
+            cuenta.setAgregados(null, null);
+            cuenta.setBanco(null);
+        } finally {
+            cuenta.desbloquear();
+        }
+    }
+
+    //la espera a que el registro sea persistente se hace sin candados, asi varias operaciones comparten un solo force
+    void esperarRegistro(long registro) {
+        DiarioTransacciones actual = diario;
+        if (actual != null && registro != SIN_REGISTRO) {
+            actual.esperarPersistido(registro);
+        }
+    }
+
+    private void indexar(Cuenta cuenta, Map<Long, Cuenta> porId, Map<String, List<Cuenta>> porPersona) {
+        porId.put(cuenta.getId(), cuenta);
+        if (cuenta.getPersona() != null) {
+            agregarAPersona(cuenta, porPersona);
+        }
+    }
+
+    //las listas por persona son inmutables y se reemplazan con compute, asi los lectores nunca ven una lista a medias
+    private void agregarAPersona(Cuenta cuenta, Map<String, List<Cuenta>> porPersona) {
+        porPersona.compute(cuenta.getPersona(), (persona, actuales) -> {
+            if (actuales == null) {
+                return List.of(cuenta);
+            }
+            List<Cuenta> nuevas = new ArrayList<>(actuales);
+            nuevas.add(cuenta);
+            return Collections.unmodifiableList(nuevas);
+        });
+    }
+
+    private void quitarDePersona(Cuenta cuenta, String persona) {
+        cuentasPorPersona.computeIfPresent(persona, (p, actuales) -> {
+            List<Cuenta> nuevas = new ArrayList<>(actuales);
+            nuevas.removeIf(c -> c == cuenta);
+            return nuevas.isEmpty() ? null : Collections.unmodifiableList(nuevas);
+        });
     }
 
     public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto){
-        origen.debito(monto);
-        destino.credito(monto);
+        ResultadoOperacion resultado = tryTransferir(origen, destino, monto);
+        if (!resultado.isAplicada()) {
+            throw resultado.excepcion();
+        }
+    }
+
+    /*
+    igual que transferir pero sin saldo regresa DINERO_INSUFICIENTE en lugar de lanzar excepcion, sin mover nada.
+    con LimitesVelocidad el debito del origen se revisa primero y si los pasaria regresa LIMITE_EXCEDIDO
+     */
+    public ResultadoOperacion tryTransferir(Cuenta origen, Cuenta destino, BigDecimal monto){
+        //se bloquean las dos cuentas siempre en el mismo orden (por id) para evitar interbloqueos,
+        //asi transferencias entre cuentas distintas corren en paralelo y sobre la misma cuenta son atomicas
+        Cuenta primera = origen.getId() < destino.getId() ? origen : destino;
+        Cuenta segunda = primera == origen ? destino : origen;
+        MetricasBanco metricas = MetricasBanco.getInstancia();
+        long inicio = metricas.iniciar();
+        DiarioTransacciones actual = diario;
+        long registro = SIN_REGISTRO;
+        LimitesVelocidad limitesActuales = limites;
+        FlujoCambios flujo = flujoCambios;
+        BigDecimal saldoOrigen = null;
+        BigDecimal saldoDestino = null;
+        long versionOrigen = 0;
+        long versionDestino = 0;
+        primera.bloquear();
+        try {
+            segunda.bloquear();
+            try {
+                //las dos cuentas quedan en escritura juntas, asi getSaldoTotal nunca ve el debito sin el credito
+                primera.abrirEscritura();
+                segunda.abrirEscritura();
+                try {
+                    long unidadesLimite = limitesActuales == null ? 0 : limitesActuales.revisar(origen, monto);
+                    if (unidadesLimite == LimitesVelocidad.RECHAZADO) {
+                        metricas.rechazoPorLimite(Operacion.TRANSFERENCIA, inicio);
+                        return ResultadoOperacion.LIMITE_EXCEDIDO;
+                    }
+                    registro = actual == null ? moverSaldo(origen, destino, monto) : moverAnotando(actual, origen, destino, monto);
+                    if (registro == Cuenta.SIN_SALDO) { //sin saldo no se acredita nada
+                        metricas.rechazo(Operacion.TRANSFERENCIA, inicio);
+                        return ResultadoOperacion.DINERO_INSUFICIENTE;
+                    }
+                    if (limitesActuales != null) {
+                        limitesActuales.registrar(origen, unidadesLimite);
+                    }
+                    SaldoAgregado.mover(origen.getAgregados(), destino.getAgregados(), monto);
+                } finally {
+                    segunda.cerrarEscritura();
+                    primera.cerrarEscritura();
+                }
+                if (flujo != null) { //ya fuera de la seccion de escritura: versiones pares y definitivas
+                    saldoOrigen = origen.getSaldo();
+                    versionOrigen = origen.leerVersion();
+                    saldoDestino = destino.getSaldo();
+                    versionDestino = destino.leerVersion();
+                }
+            } finally {
+                segunda.desbloquear();
+            }
+        } finally {
+            primera.desbloquear();
+        }
+        if (actual != null) {
+            actual.esperarPersistido(registro);
+        }
+        if (flujo != null) {
+            flujo.publicarTransferencia(origen.getId(), saldoOrigen, versionOrigen, destino.getId(), saldoDestino, versionDestino, monto);
+        }
+        metricas.registrar(Operacion.TRANSFERENCIA, inicio);
+        return ResultadoOperacion.APLICADA;
+    }
+
+    //sin diario, con las dos cuentas bloqueadas y en escritura
+    private static long moverSaldo(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        if (!origen.intentarDebito(monto)) {
+            return Cuenta.SIN_SALDO;
+        }
+        try {
+            destino.aplicarCredito(monto);
+        } catch (RuntimeException e) {
+            //p.ej. el monto no cabe en la escala del destino: se regresa el debito, nadie lo vio por el seqlock
+            origen.aplicarCredito(monto);
+            throw e;
+        }
+        return SIN_REGISTRO;
+    }
+
+    /*
+    con diario se calculan los dos saldos resultantes, se anota la transferencia y solo entonces se modifican las cuentas:
+    un diario lleno o un valor que no cabe en el registro lanzan la excepcion sin haber movido el dinero
+     */
+    private static long moverAnotando(DiarioTransacciones actual, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        BigDecimal saldoOrigen = origen.saldoCon(monto.negate());
+        if (saldoOrigen.signum() < 0) {
+            return Cuenta.SIN_SALDO;
+        }
+        //hacia la misma cuenta el credito se calcula sobre el saldo ya debitado
+        BigDecimal saldoDestino = destino == origen ? saldoOrigen.add(monto) : destino.saldoCon(monto);
+        long registro = actual.registrarTransferencia(origen, saldoOrigen, destino, saldoDestino, monto);
+        origen.fijarSaldo(saldoOrigen);
+        destino.fijarSaldo(saldoDestino);
+        return registro;
+    }
+
+    //transferencia con clave de idempotencia: un reintento con la misma clave no vuelve a mover el dinero
+    public void transferir(String clave, Cuenta origen, Cuenta destino, BigDecimal monto){
+        ResultadoOperacion resultado = tryTransferir(clave, origen, destino, monto);
+        if (!resultado.isAplicada()) {
+            throw resultado.excepcion();
+        }
+    }
+
+    /*
+    la primera llamada con una clave hace la transferencia; las siguientes dentro de la ventana del registro
+    regresan el mismo resultado, tambien un rechazo aunque la cuenta ya tenga saldo (para eso se usa otra clave).
+    lanza IllegalStateException si el banco no tiene registro de idempotencia
+     */
+    public ResultadoOperacion tryTransferir(String clave, Cuenta origen, Cuenta destino, BigDecimal monto){
+        RegistroIdempotencia registro = idempotencia;
+        if (registro == null) {
+            throw new IllegalStateException("El banco no tiene registro de idempotencia");
+        }
+        return registro.ejecutar(clave, origen, destino, monto, () -> tryTransferir(origen, destino, monto));
+    }
+
+    /*
+    aplica un lote de transferencias todo o nada: primero se calcula el neto por cuenta,
+    asi cada cuenta afectada recibe un solo debito o credito aunque aparezca en muchas transferencias.
+    si alguna cuenta quedaria en negativo se lanza DineroInsuficienteException sin modificar ningun saldo.
+    con limites de velocidad el neto de cada cuenta que paga cuenta como un debito; si alguna pasaria su limite
+    se lanza LimiteExcedidoException sin aplicar nada
+     */
+    public void transferirLote(List<Transferencia> transferencias){
+        //TreeMap por id: las cuentas quedan en el mismo orden global de bloqueo que usa transferir
+        Map<Long, Cuenta> afectadas = new TreeMap<>();
+        Map<Long, BigDecimal> netos = new TreeMap<>();
+        for (Transferencia t : transferencias) {
+            afectadas.put(t.getOrigen().getId(), t.getOrigen());
+            afectadas.put(t.getDestino().getId(), t.getDestino());
+            netos.merge(t.getOrigen().getId(), t.getMonto().negate(), BigDecimal::add);
+            netos.merge(t.getDestino().getId(), t.getMonto(), BigDecimal::add);
+        }
+
+        DiarioTransacciones actual = diario;
+        long registro = SIN_REGISTRO;
+        FlujoCambios flujo = flujoCambios;
+        LimitesVelocidad limitesActuales = limites;
+        long[] unidadesLimite = null;
+        BigDecimal[] saldosNuevos = null;
+        long[] versiones = null;
+        List<Cuenta> bloqueadas = new ArrayList<>(afectadas.size());
+        try {
+            for (Cuenta cuenta : afectadas.values()) {
+                cuenta.bloquear();
+                bloqueadas.add(cuenta);
+            }
+            //validacion de todo el lote antes de tocar los saldos
+            if (limitesActuales != null) {
+                unidadesLimite = new long[bloqueadas.size()];
+                for (int i = 0; i < unidadesLimite.length; i++) {
+                    BigDecimal neto = netos.get(bloqueadas.get(i).getId());
+                    if (neto.signum() < 0) {
+                        unidadesLimite[i] = limitesActuales.revisar(bloqueadas.get(i), neto.negate());
+                        if (unidadesLimite[i] == LimitesVelocidad.RECHAZADO) {
+                            throw ResultadoOperacion.LIMITE_EXCEDIDO.excepcion();
+                        }
+                    }
+                }
+            }
+            for (Cuenta cuenta : bloqueadas) {
+                if (cuenta.getSaldo().add(netos.get(cuenta.getId())).compareTo(BigDecimal.ZERO) < 0) {
+                    throw new DineroInsuficienteException("Dinero insuficiente");
+                }
+            }
+            if (actual == null) {
+                aplicarNetos(bloqueadas, netos);
+            } else {
+                //con diario se calculan los saldos resultantes y se anotan antes de tocar las cuentas,
+                //si el diario los rechaza el lote no se aplica
+                BigDecimal[] saldos = new BigDecimal[bloqueadas.size()];
+                for (int i = 0; i < saldos.length; i++) {
+                    saldos[i] = bloqueadas.get(i).saldoCon(netos.get(bloqueadas.get(i).getId()));
+                }
+                registro = actual.registrarNetos(bloqueadas, netos, saldos);
+                fijarSaldos(bloqueadas, netos, saldos);
+            }
+            for (Cuenta cuenta : bloqueadas) {
+                SaldoAgregado.sumar(cuenta.getAgregados(), netos.get(cuenta.getId()));
+            }
+            if (limitesActuales != null) {
+                for (int i = 0; i < unidadesLimite.length; i++) {
+                    if (netos.get(bloqueadas.get(i).getId()).signum() < 0) {
+                        limitesActuales.registrar(bloqueadas.get(i), unidadesLimite[i]);
+                    }
+                }
+            }
+            if (flujo != null) { //ya fuera de la seccion de escritura: versiones pares y definitivas
+                saldosNuevos = new BigDecimal[bloqueadas.size()];
+                versiones = new long[bloqueadas.size()];
+                for (int i = 0; i < saldosNuevos.length; i++) {
+                    saldosNuevos[i] = bloqueadas.get(i).getSaldo();
+                    versiones[i] = bloqueadas.get(i).leerVersion();
+                }
+            }
+        } finally {
+            for (int i = bloqueadas.size() - 1; i >= 0; i--) {
+                bloqueadas.get(i).desbloquear();
+            }
+        }
+        if (actual != null) {
+            actual.esperarPersistido(registro);
+        }
+        if (flujo != null) {
+            for (int i = 0; i < saldosNuevos.length; i++) {
+                Cuenta cuenta = bloqueadas.get(i);
+                BigDecimal neto = netos.get(cuenta.getId());
+                if (neto.signum() != 0) { //neto cero no cambio la cuenta
+                    flujo.publicar(neto.signum() > 0 ? Operacion.CREDITO : Operacion.DEBITO, cuenta.getId(),
+                            saldosNuevos[i], versiones[i], neto.abs());
+                }
+            }
+        }
+    }
+
+    private void aplicarNetos(List<Cuenta> cuentas, Map<Long, BigDecimal> netos) {
+        for (Cuenta cuenta : cuentas) {
+            cuenta.abrirEscritura();
+        }
+        try {
+            aplicarNetosEnEscritura(cuentas, netos);
+        } finally {
+            for (Cuenta cuenta : cuentas) {
+                cuenta.cerrarEscritura();
+            }
+        }
+    }
+
+    private static void fijarSaldos(List<Cuenta> cuentas, Map<Long, BigDecimal> netos, BigDecimal[] saldos) {
+        for (Cuenta cuenta : cuentas) {
+            cuenta.abrirEscritura();
+        }
+        try {
+            for (int i = 0; i < saldos.length; i++) {
+                if (netos.get(cuentas.get(i).getId()).signum() != 0) { //neto cero no cambia la cuenta, ni su escala
+                    cuentas.get(i).fijarSaldo(saldos[i]);
+                }
+            }
+        } finally {
+            for (Cuenta cuenta : cuentas) {
+                cuenta.cerrarEscritura();
+            }
+        }
+    }
+
+    private void aplicarNetosEnEscritura(List<Cuenta> cuentas, Map<Long, BigDecimal> netos) {
+        int aplicadas = 0;
+        try {
+            for (Cuenta cuenta : cuentas) {
+                aplicarNeto(cuenta, netos.get(cuenta.getId()));
+                aplicadas++;
+            }
+        } catch (RuntimeException e) {
+            //p.ej. ArithmeticException en una cuenta escalada: se revierten las cuentas ya aplicadas
+            for (int i = 0; i < aplicadas; i++) {
+                Cuenta cuenta = cuentas.get(i);
+                aplicarNeto(cuenta, netos.get(cuenta.getId()).negate());
+            }
+            throw e;
+        }
+    }
+
+    private void aplicarNeto(Cuenta cuenta, BigDecimal neto) {
+        int signo = neto.signum();
+        if (signo > 0) {
+            cuenta.aplicarCredito(neto);
+        } else if (signo < 0) {
+            cuenta.aplicarDebito(neto.negate());
+        }
+    }
+
+    /*
+    suma de todos los saldos como si se tomara en un solo instante, sin bloquear: lee cada cuenta con su version
+    y al final revisa que ninguna version cambio; si en INTENTOS_OPTIMISTAS intentos siempre hubo escrituras
+    (muchas cuentas o muchos escritores) bloquea todas las cuentas en orden de id y suma
+     */
+    public BigDecimal getSaldoTotal(){
+        List<Cuenta> cuentas = getCuentas();
+        long[] versiones = new long[cuentas.size()];
+        for (int intento = 0; intento < INTENTOS_OPTIMISTAS; intento++) {
+            BigDecimal total = sumarOptimista(cuentas, versiones);
+            if (total != null) {
+                return total;
+            }
+            Thread.yield(); //deja terminar al escritor que invalido la suma
+        }
+        return sumarBloqueando(cuentas);
+    }
+
+    //null si alguna cuenta se estaba escribiendo o cambio durante la suma
+    private static BigDecimal sumarOptimista(List<Cuenta> cuentas, long[] versiones) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < versiones.length; i++) {
+            Cuenta cuenta = cuentas.get(i);
+            long version = cuenta.leerVersion();
+            if ((version & 1) != 0) {
+                return null;
+            }
+            versiones[i] = version;
+            total = total.add(cuenta.getSaldo());
+        }
+        for (int i = 0; i < versiones.length; i++) {
+            if (cuentas.get(i).leerVersion() != versiones[i]) {
+                return null;
+            }
+        }
+        return total;
+    }
+
+    private static BigDecimal sumarBloqueando(List<Cuenta> cuentas) {
+        List<Cuenta> ordenadas = new ArrayList<>(cuentas);
+        ordenadas.sort(Comparator.comparingLong(Cuenta::getId));
+        int bloqueadas = 0;
+        try {
+            BigDecimal total = BigDecimal.ZERO;
+            for (Cuenta cuenta : ordenadas) {
+                cuenta.bloquear();
+                bloqueadas++;
+            }
+            for (Cuenta cuenta : ordenadas) {
+                total = total.add(cuenta.getSaldo());
+            }
+            return total;
+        } finally {
+            for (int i = bloqueadas - 1; i >= 0; i--) {
+                ordenadas.get(i).desbloquear();
+            }
+        }
+    }
+
+    /*
+    fase 1 de una transferencia hacia otro banco: debita el monto de la cuenta y lo deja apartado con el id que da
+    BancoFragmentado hasta confirmarReserva o cancelarReserva. se anota como RESERVA y regresa ya persistente.
+    revisa los limites de velocidad igual que transferir; sin saldo o pasando un limite lanza la excepcion sin apartar
+    nada. la reserva entra al mapa con el candado de la cuenta, asi una instantanea que ya leyo el saldo debitado
+    tambien la ve
+     */
+    void reservar(Cuenta origen, BigDecimal monto, long id){
+        DiarioTransacciones actual = diario;
+        LimitesVelocidad limitesActuales = limites;
+        FlujoCambios flujo = flujoCambios;
+        long registro;
+        BigDecimal saldo = null;
+        long version = 0;
+        origen.bloquear();
+        try {
+            long unidadesLimite = limitesActuales == null ? 0 : limitesActuales.revisar(origen, monto);
+            if (unidadesLimite == LimitesVelocidad.RECHAZADO) {
+                throw ResultadoOperacion.LIMITE_EXCEDIDO.excepcion();
+            }
+            BigDecimal nuevo = origen.saldoCon(monto.negate());
+            if (nuevo.signum() < 0) {
+                throw ResultadoOperacion.DINERO_INSUFICIENTE.excepcion();
+            }
+            registro = actual == null ? SIN_REGISTRO : actual.registrarReserva(origen, monto, nuevo, id);
+            origen.fijarSaldo(nuevo);
+            if (limitesActuales != null) {
+                limitesActuales.registrar(origen, unidadesLimite);
+            }
+            SaldoAgregado.sumar(origen.getAgregados(), monto.negate());
+            reservas.put(id, new Reserva(id, origen, monto));
+            if (flujo != null) {
+                saldo = origen.getSaldo();
+                version = origen.leerVersion();
+            }
+        } finally {
+            origen.desbloquear();
+        }
+        if (actual != null) {
+            actual.esperarPersistido(registro);
+        }
+        if (flujo != null) {
+            flujo.publicar(Operacion.DEBITO, origen.getId(), saldo, version, monto);
+        }
+    }
+
+    //fase 2 en el banco destino: acredita con el id de la reserva (CREDITO con ese id) y regresa ya persistente
+    void abonar(Cuenta destino, BigDecimal monto, long id){
+        DiarioTransacciones actual = diario;
+        FlujoCambios flujo = flujoCambios;
+        long registro;
+        BigDecimal saldo = null;
+        long version = 0;
+        destino.bloquear();
+        try {
+            BigDecimal nuevo = destino.saldoCon(monto);
+            registro = actual == null ? SIN_REGISTRO : actual.registrarCredito(destino, monto, nuevo, id);
+            destino.fijarSaldo(nuevo);
+            SaldoAgregado.sumar(destino.getAgregados(), monto);
+            abonos.add(id);
+            if (flujo != null) {
+                saldo = destino.getSaldo();
+                version = destino.leerVersion();
+            }
+        } finally {
+            destino.desbloquear();
+        }
+        if (actual != null) {
+            actual.esperarPersistido(registro);
+        }
+        if (flujo != null) {
+            flujo.publicar(Operacion.CREDITO, destino.getId(), saldo, version, monto);
+        }
+    }
+
+    /*
+    fase 3 cuando el destino ya acredito: el monto apartado sale del banco. la reserva se quita del mapa antes de
+    anotar la CONFIRMACION, asi una instantanea que todavia la ve tiene una secuencia anterior a la confirmacion y
+    la recuperacion la reproduce. regresa ya persistente, despues el destino puede olvidar el abono
+     */
+    void confirmarReserva(long id){
+        Reserva reserva = reservas.remove(id);
+        DiarioTransacciones actual = diario;
+        if (reserva == null || actual == null) {
+            return;
+        }
+        long registro;
+        try {
+            registro = actual.registrarConfirmacion(reserva.cuenta, id);
+        } catch (RuntimeException e) {
+            reservas.put(id, reserva); //sigue en duda, la resuelve la recuperacion
+            throw e;
+        }
+        actual.esperarPersistido(registro);
+    }
+
+    //fase 3 cuando el destino no pudo acreditar: el monto apartado regresa a la cuenta (CANCELACION)
+    void cancelarReserva(long id){
+        DiarioTransacciones actual = diario;
+        FlujoCambios flujo = flujoCambios;
+        Reserva reserva = reservas.get(id);
+        if (reserva == null) {
+            return;
+        }
+        Cuenta cuenta = reserva.cuenta;
+        long registro;
+        BigDecimal saldo = null;
+        long version = 0;
+        cuenta.bloquear();
+        try {
+            BigDecimal nuevo = cuenta.saldoCon(reserva.monto);
+            registro = actual == null ? SIN_REGISTRO : actual.registrarCancelacion(cuenta, reserva.monto, nuevo, id);
+            reservas.remove(id);
+            cuenta.fijarSaldo(nuevo);
+            SaldoAgregado.sumar(cuenta.getAgregados(), reserva.monto);
+            if (flujo != null) {
+                saldo = cuenta.getSaldo();
+                version = cuenta.leerVersion();
+            }
+        } finally {
+            cuenta.desbloquear();
+        }
+        if (actual != null) {
+            actual.esperarPersistido(registro);
+        }
+        if (flujo != null) {
+            flujo.publicar(Operacion.CREDITO, cuenta.getId(), saldo, version, reserva.monto);
+        }
+    }
+
+    //el origen ya confirmo de forma persistente, el abono deja de estar en duda
+    void olvidarAbono(long id){
+        abonos.remove(id);
+    }
+
+    //dinero debitado por transferencias hacia otros bancos que todavia no se confirman
+    public BigDecimal getTotalReservado(){
+        return reservas.values().stream().map(r -> r.monto).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    public List<Reserva> getReservas(){
+        return List.copyOf(reservas.values());
+    }
+
+    //ids de reservas de otros bancos acreditadas aqui sin confirmar todavia; despues de una caida deciden la recuperacion
+    public Set<Long> getAbonos(){
+        return Set.copyOf(abonos);
+    }
+
+    //al reproducir el diario o leer una instantanea; no anotan nada ni mueven saldos
+    public void restaurarReserva(long id, Cuenta origen, BigDecimal monto){
+        reservas.put(id, new Reserva(id, origen, monto));
+    }
+
+    public void restaurarFinDeReserva(long id){
+        reservas.remove(id);
+    }
+
+    public void restaurarAbono(long id){
+        abonos.add(id);
+    }
+
+    //acredita saldo * tasa a cada cuenta, p.ej. tasa 0.0001 con escala 2 y HALF_EVEN (redondeo bancario)
+    public ResultadoMasivo aplicarInteres(BigDecimal tasa, int escala, RoundingMode redondeo){
+        return aplicarATodas(saldo -> saldo.multiply(tasa), escala, redondeo);
+    }
+
+    //debita la misma comision a cada cuenta, las que no alcanzan a pagarla quedan en los fallos
+    public ResultadoMasivo cobrarComision(BigDecimal comision){
+        BigDecimal debito = comision.negate();
+        return aplicarATodas(saldo -> debito, comision.scale(), RoundingMode.UNNECESSARY);
+    }
+
+    public ResultadoMasivo aplicarATodas(UnaryOperator<BigDecimal> movimiento, int escala, RoundingMode redondeo){
+        return aplicarATodas(movimiento, escala, redondeo, ForkJoinPool.commonPool());
+    }
+
+    /*
+    aplica a todas las cuentas en paralelo un movimiento calculado del saldo actual: positivo es credito,
+    negativo es debito y cero no cambia la cuenta. el monto se redondea a la escala con el modo indicado
+    (UNNECESSARY lanza ArithmeticException si el monto no es exacto). cada cuenta se calcula y aplica con su
+    candado tomado, las que fallan por sobregiro, por no caber en su escala o en el diario (o con el diario lleno)
+    se juntan en el resultado sin detener las demas y sin que su saldo cambie.
+    no es todo o nada: una cuenta que falla no revierte a las otras.
+    con diario se espera una sola vez, al final, a que todos los movimientos sean persistentes
+     */
+    public ResultadoMasivo aplicarATodas(UnaryOperator<BigDecimal> movimiento, int escala, RoundingMode redondeo, ForkJoinPool pool){
+        List<Cuenta> todas = getCuentas();
+        DiarioTransacciones actual = diario;
+        FlujoCambios flujo = flujoCambios;
+        ResultadoMasivo resultado = pool.submit(() -> todas.parallelStream().collect(ResultadoMasivo::new,
+                (parcial, cuenta) -> aplicarMovimiento(cuenta, movimiento, escala, redondeo, actual, flujo != null, parcial),
+                ResultadoMasivo::combinar)).join();
+        if (actual != null && resultado.registro != SIN_REGISTRO) {
+            actual.esperarPersistido(resultado.registro);
+        }
+        if (flujo != null) {
+            for (ResultadoMasivo.Cambio cambio : resultado.cambios) {
+                flujo.publicar(cambio.monto.signum() > 0 ? Operacion.CREDITO : Operacion.DEBITO, cambio.cuenta,
+                        cambio.saldo, cambio.version, cambio.monto.abs());
+            }
+            resultado.cambios.clear();
+        }
+        return resultado;
+    }
+
+    //conFlujo: guarda en el resultado el saldo y la version que quedaron, para publicarlos despues de soltar el candado
+    private void aplicarMovimiento(Cuenta cuenta, UnaryOperator<BigDecimal> movimiento, int escala, RoundingMode redondeo,
+                                   DiarioTransacciones actual, boolean conFlujo, ResultadoMasivo parcial) {
+        cuenta.bloquear();
+        try {
+            BigDecimal monto = movimiento.apply(cuenta.getSaldo()).setScale(escala, redondeo);
+            int signo = monto.signum();
+            if (signo == 0) {
+                return;
+            }
+            long registro = SIN_REGISTRO;
+            if (actual == null) {
+                if (signo > 0) {
+                    cuenta.aplicarCredito(monto);
+                } else {
+                    cuenta.aplicarDebito(monto.negate());
+                }
+            } else {
+                //primero se anota el saldo que va a quedar; si el diario no lo acepta la cuenta no cambia
+                BigDecimal nuevo = cuenta.saldoCon(monto);
+                if (nuevo.signum() < 0) {
+                    throw new DineroInsuficienteException("Dinero insuficiente");
+                }
+                registro = signo > 0 ? actual.registrarCredito(cuenta, monto, nuevo)
+                        : actual.registrarDebito(cuenta, monto.negate(), nuevo);
+                cuenta.fijarSaldo(nuevo);
+            }
+            SaldoAgregado.sumar(cuenta.getAgregados(), monto);
+            parcial.aplicada(monto, registro);
+            if (conFlujo) {
+                parcial.cambios.add(new ResultadoMasivo.Cambio(cuenta.getId(), cuenta.getSaldo(), cuenta.leerVersion(), monto));
+            }
+        } catch (DineroInsuficienteException | ArithmeticException | DiarioLlenoException e) {
+            //con el diario lleno esa cuenta queda en los fallos y las demas siguen
+            parcial.fallo(cuenta, e);
+        } finally {
+            cuenta.desbloquear();
+        }
+    }
+
+    //monto apartado de una cuenta por una transferencia hacia otro banco
+    public static final class Reserva {
+        private final long id;
+        private final Cuenta cuenta;
+        private final BigDecimal monto;
+
+        Reserva(long id, Cuenta cuenta, BigDecimal monto) {
+            this.id = id;
+            this.cuenta = cuenta;
+            this.monto = monto;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Cuenta getCuenta() {
+            return cuenta;
+        }
+
+        public BigDecimal getMonto() {
+            return monto;
+        }
     }
 }
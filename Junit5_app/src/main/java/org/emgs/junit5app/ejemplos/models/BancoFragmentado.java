@@ -0,0 +1,180 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+libro de cuentas repartido en varios bancos (fragmentos) por hash de la persona, cada fragmento con sus propios
+candados, indices y diario. las transferencias dentro de un fragmento las resuelve ese banco sin coordinarse con
+los demas; entre fragmentos se usa una reserva con id unico: el banco origen debita y aparta el monto (RESERVA en su
+diario), el banco destino acredita con ese id y al final el origen confirma la reserva, o la cancela y devuelve el
+monto si el credito fallo. cada paso queda persistente antes del siguiente y el destino recuerda el abono hasta que
+la confirmacion del origen es persistente.
+una cuenta se queda en el fragmento donde se dio de alta aunque despues cambie su persona.
+
+despues de una caida cada fragmento se restaura de su instantanea y su diario y se crea el BancoFragmentado con
+ellos: las reservas que quedaron apartadas se confirman si algun destino tiene su abono y si no se cancelan, asi
+el monto termina en uno solo de los dos lados.
+una transferencia entre fragmentos toma el candado de lectura de su fragmento origen y getTotal los de escritura de
+todos: el total nunca ve un monto que ya se acredito en el destino y sigue apartado en el origen
+ */
+public class BancoFragmentado {
+    private final List<Banco> fragmentos;
+    //uno por fragmento origen, ver getTotal
+    private final ReentrantReadWriteLock[] enCurso;
+    private final AtomicLong siguienteReserva = new AtomicLong();
+
+    public BancoFragmentado(int fragmentos) {
+        this(crearFragmentos(fragmentos));
+    }
+
+    //p.ej. fragmentos que ya tienen su propio diario
+    public BancoFragmentado(List<Banco> fragmentos) {
+        if (fragmentos.isEmpty()) {
+            throw new IllegalArgumentException("Se necesita al menos un fragmento");
+        }
+        this.fragmentos = List.copyOf(fragmentos);
+        this.enCurso = new ReentrantReadWriteLock[fragmentos.size()];
+        for (int i = 0; i < enCurso.length; i++) {
+            enCurso[i] = new ReentrantReadWriteLock();
+        }
+        resolverReservas();
+    }
+
+    public List<Banco> getFragmentos() {
+        return fragmentos;
+    }
+
+    //fragmento que le toca a la persona; sin persona se reparte por id
+    public Banco fragmentoDe(Cuenta cuenta) {
+        return cuenta.getPersona() == null ? fragmentos.get(indice(Long.hashCode(cuenta.getId()))) : fragmentoDe(cuenta.getPersona());
+    }
+
+    public Banco fragmentoDe(String persona) {
+        return fragmentos.get(indice(persona.hashCode()));
+    }
+
+    public void addCuenta(Cuenta cuenta) {
+        fragmentoDe(cuenta).addCuenta(cuenta);
+    }
+
+    public Optional<Cuenta> findCuenta(String persona) {
+        return persona == null ? Optional.empty() : fragmentoDe(persona).findCuenta(persona);
+    }
+
+    //copia de solo lectura como Banco.getCuentas, fragmento por fragmento
+    public List<Cuenta> getCuentas() {
+        List<Cuenta> todas = new ArrayList<>();
+        for (Banco fragmento : fragmentos) {
+            todas.addAll(fragmento.getCuentas());
+        }
+        return Collections.unmodifiableList(todas);
+    }
+
+    public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        int indiceOrigen = fragmentoActual(origen);
+        Banco bancoOrigen = fragmentos.get(indiceOrigen);
+        Banco bancoDestino = fragmentos.get(fragmentoActual(destino));
+        if (bancoOrigen == bancoDestino) {
+            bancoOrigen.transferir(origen, destino, monto);
+            return;
+        }
+        ReentrantReadWriteLock.ReadLock candado = enCurso[indiceOrigen].readLock();
+        candado.lock();
+        try {
+            long reserva = siguienteReserva.incrementAndGet();
+            bancoOrigen.reservar(origen, monto, reserva); //sin saldo o pasando un limite no cambia ningun banco
+            try {
+                bancoDestino.abonar(destino, monto, reserva);
+            } catch (RuntimeException e) {
+                bancoOrigen.cancelarReserva(reserva);
+                throw e;
+            }
+            bancoOrigen.confirmarReserva(reserva);
+            bancoDestino.olvidarAbono(reserva);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    //saldos de todos los fragmentos mas lo apartado; espera a que terminen las transferencias entre fragmentos en curso
+    public BigDecimal getTotal() {
+        for (ReentrantReadWriteLock candado : enCurso) {
+            candado.writeLock().lock();
+        }
+        try {
+            BigDecimal total = BigDecimal.ZERO;
+            for (Banco fragmento : fragmentos) {
+                total = total.add(fragmento.getSaldoTotal()).add(fragmento.getTotalReservado());
+            }
+            return total;
+        } finally {
+            for (int i = enCurso.length - 1; i >= 0; i--) {
+                enCurso[i].writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+    reservas que quedaron apartadas al restaurar los fragmentos (la caida fue entre la reserva y su confirmacion):
+    si algun destino anoto el abono se confirma, si no se devuelve el monto. los ids nuevos empiezan despues del mayor
+    que aparece en cualquier fragmento, asi un abono viejo que sigue en un diario nunca coincide con una reserva nueva
+     */
+    private void resolverReservas() {
+        long mayor = 0;
+        Set<Long> abonados = new HashSet<>();
+        for (Banco fragmento : fragmentos) {
+            for (long abono : fragmento.getAbonos()) {
+                abonados.add(abono);
+                mayor = Math.max(mayor, abono);
+            }
+            for (Banco.Reserva reserva : fragmento.getReservas()) {
+                mayor = Math.max(mayor, reserva.getId());
+            }
+        }
+        siguienteReserva.set(mayor);
+        for (Banco fragmento : fragmentos) {
+            for (Banco.Reserva reserva : fragmento.getReservas()) {
+                if (abonados.contains(reserva.getId())) {
+                    fragmento.confirmarReserva(reserva.getId());
+                } else {
+                    fragmento.cancelarReserva(reserva.getId());
+                }
+            }
+        }
+        //las confirmaciones ya son persistentes, los abonos que quedan son de reservas que ya se habian confirmado
+        for (Banco fragmento : fragmentos) {
+            for (long abono : abonados) {
+                fragmento.olvidarAbono(abono);
+            }
+        }
+    }
+
+    private int fragmentoActual(Cuenta cuenta) {
+        Banco banco = cuenta.getBanco();
+        int indice = banco == null ? -1 : fragmentos.indexOf(banco);
+        if (indice < 0) {
+            throw new IllegalArgumentException("La cuenta " + cuenta.getId() + " no pertenece a este banco");
+        }
+        return indice;
+    }
+
+    private int indice(int hash) {
+        return Math.floorMod(hash ^ (hash >>> 16), fragmentos.size());
+    }
+
+    private static List<Banco> crearFragmentos(int cantidad) {
+        List<Banco> creados = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            creados.add(new Banco());
+        }
+        return creados;
+    }
+}
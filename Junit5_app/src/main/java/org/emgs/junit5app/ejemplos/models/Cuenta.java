@@ -1,17 +1,112 @@
 package org.emgs.junit5app.ejemplos.models;
 
+import org.emgs.junit5app.ejemplos.eventos.FlujoCambios;
 import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.metricas.MetricasBanco;
+import org.emgs.junit5app.ejemplos.metricas.Operacion;
+import org.emgs.junit5app.ejemplos.persistencia.DiarioTransacciones;
 
 import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Cuenta {
+    //genera un id unico por cuenta, sirve para ordenar los bloqueos entre cuentas
+    private static final AtomicLong SECUENCIA = new AtomicLong();
+    private static final int SIN_ESCALA = -1;
+    //lo regresan debitarAnotando y Banco cuando el debito no alcanza; las posiciones del diario nunca son negativas
+    static final long SIN_SALDO = -2;
+    //reintentos de una lectura optimista antes de ceder el procesador al escritor
+    private static final int ESPERAS_ANTES_DE_CEDER = 16;
+    //potencias de 10 que caben en un long, para validar la escala sin crear objetos
+    private static final long[] POTENCIAS_10 = new long[19];
+    static {
+        POTENCIAS_10[0] = 1;
+        for (int i = 1; i < POTENCIAS_10.length; i++) {
+            POTENCIAS_10[i] = POTENCIAS_10[i - 1] * 10;
+        }
+    }
+
+    private final long id;
     private String persona;
-    private BigDecimal saldo;
+    //volatile para que la lectura del saldo sea visible entre hilos sin bloquear
+    private volatile BigDecimal saldo;
     private Banco banco;
+    //candado explicito para poder bloquear varias cuentas en orden desde Banco
+    private final ReentrantLock candado = new ReentrantLock();
+
+    /*
+    modo escalado: el saldo se guarda como long en unidades minimas (saldo * 10^escala),
+    asi debito, credito y la validacion de sobregiro no crean objetos.
+    escalaVisible es la escala que tendria el mismo saldo calculado con BigDecimal
+     */
+    private final int escala;
+    private volatile long unidades;
+    private volatile int escalaVisible;
+
+    /*
+    seqlock sobre el saldo: version es impar mientras un hilo con el candado esta modificando la cuenta y par cuando no.
+    las lecturas son optimistas (sin candado): leen version, el saldo y otra vez version; si cambio o era impar, repiten.
+    escrituras cuenta cuantas secciones de escritura hay abiertas, asi Banco puede dejar impares varias cuentas
+    durante toda una transferencia; las dos solo las modifica quien tiene el candado
+     */
+    private volatile long version;
+    private int escrituras;
+
+    //grupo dentro del banco ("norte/monterrey") y agregados que actualiza cada movimiento: el total del banco,
+    //"norte" y "norte/monterrey"; los asigna Banco al dar de alta y solo cambian con el candado de la cuenta
+    private String grupo;
+    private SaldoAgregado[] agregados;
+    //debitos recientes para los limites de velocidad del banco, se crea con el primer debito; solo con el candado
+    private LimitesVelocidad.Ventana ventanaDebitos;
 
     public Cuenta(String persona, BigDecimal saldo) {
-        this.saldo = saldo;
-        this.persona= persona;
+        this(SECUENCIA.incrementAndGet(), persona, saldo, SIN_ESCALA);
+    }
+
+    //crea la cuenta en modo escalado, lanza ArithmeticException si el saldo no cabe exacto en la escala
+    public Cuenta(String persona, BigDecimal saldo, int escala) {
+        this(SECUENCIA.incrementAndGet(), persona, saldo, validarEscala(escala));
+    }
+
+    //restaura una cuenta con su id original (p.ej. desde el diario); escala negativa = saldo en BigDecimal
+    public Cuenta(long id, String persona, BigDecimal saldo, int escala) {
+        SECUENCIA.accumulateAndGet(id, Math::max); //las cuentas nuevas nunca repiten un id restaurado
+        this.id = id;
+        this.persona = persona;
+        this.escala = escala < 0 ? SIN_ESCALA : validarEscala(escala);
+        if (isEscalada()) {
+            this.escalaVisible = saldo.scale();
+            this.unidades = aUnidades(saldo);
+        } else {
+            this.saldo = saldo;
+        }
+    }
+
+    private static int validarEscala(int escala) {
+        if (escala < 0 || escala >= POTENCIAS_10.length) {
+            throw new IllegalArgumentException("Escala no soportada: " + escala);
+        }
+        return escala;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isEscalada() {
+        return escala != SIN_ESCALA;
+    }
+
+    public int getEscala() {
+        return escala;
+    }
+
+    public long getUnidades() {
+        if (!isEscalada()) {
+            throw new IllegalStateException("La cuenta no esta en modo escalado");
+        }
+        return unidades;
     }
 
     public String getPersona() {
@@ -19,38 +114,477 @@ public class Cuenta {
     }
 
     public void setPersona(String persona) {
+        String anterior = this.persona;
         this.persona = persona;
+        Banco actual = banco;
+        if (actual != null) {
+            actual.cambiarPersona(this, anterior); //mantiene el indice por persona del banco
+        }
     }
 
+    //nunca toma el candado: sin escala es una sola lectura volatile, escalada es una lectura optimista de unidades y escala
     public BigDecimal getSaldo() {
-        return saldo;
+        return isEscalada() ? saldoEscalado() : saldo;
     }
 
+    /*
+    saldo leido con el candado de la cuenta. con diario un movimiento se anota antes de aplicarse y los dos pasos
+    van dentro del candado, asi este saldo ya incluye todo lo anotado; lo usan las instantaneas
+     */
+    public BigDecimal getSaldoAnotado() {
+        candado.lock();
+        try {
+            return getSaldo();
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    //con flujo de cambios se publica como credito o debito por la diferencia con el saldo anterior
     public void setSaldo(BigDecimal saldo) {
-        this.saldo = saldo;
+        Banco actual;
+        long registro;
+        FlujoCambios flujo;
+        BigDecimal diferencia = null;
+        BigDecimal saldoNuevo = null;
+        long versionNueva = 0;
+        candado.lock();
+        try {
+            actual = banco;
+            DiarioTransacciones diario = actual == null ? null : actual.getDiario();
+            flujo = actual == null ? null : actual.getFlujoCambios();
+            BigDecimal anterior = agregados == null && flujo == null ? null : getSaldo();
+            if (isEscalada()) {
+                aUnidades(saldo); //ArithmeticException antes de anotar si no cabe en la escala
+            }
+            registro = diario == null ? Banco.SIN_REGISTRO : diario.registrarSaldo(this, saldo);
+            fijarSaldo(saldo);
+            if (anterior != null) {
+                diferencia = saldo.subtract(anterior);
+                SaldoAgregado.sumar(agregados, diferencia);
+            }
+            if (flujo != null) {
+                saldoNuevo = getSaldo();
+                versionNueva = version;
+            }
+        } finally {
+            candado.unlock();
+        }
+        esperarRegistro(actual, registro);
+        if (flujo != null) {
+            flujo.publicar(diferencia.signum() < 0 ? Operacion.DEBITO : Operacion.CREDITO, id, saldoNuevo, versionNueva,
+                    diferencia.abs());
+        }
     }
 
     public Banco getBanco() {
         return banco;
     }
 
+    public String getGrupo() {
+        return grupo;
+    }
+
+    SaldoAgregado[] getAgregados() {
+        return agregados;
+    }
+
+    LimitesVelocidad.Ventana getVentanaDebitos() {
+        return ventanaDebitos;
+    }
+
+    void setVentanaDebitos(LimitesVelocidad.Ventana ventanaDebitos) {
+        this.ventanaDebitos = ventanaDebitos;
+    }
+
+    //con el candado de la cuenta tomado
+    void setAgregados(String grupo, SaldoAgregado[] agregados) {
+        this.grupo = grupo;
+        this.agregados = agregados;
+    }
+
     public void setBanco(Banco banco) {
         this.banco = banco;
     }
 
+    /*
+    debito y credito toman el candado de la cuenta para que leer-modificar-escribir el saldo sea atomico.
+    si el banco tiene diario, el movimiento se anota dentro del candado (asi queda en orden) antes de aplicarlo
+    y se espera a que sea persistente ya fuera del candado.
+    si tiene flujo de cambios, el saldo y la version se leen con el candado y el evento se publica al final,
+    sin candado: un flujo lleno (Contrapresion.BLOQUEAR) frena al que publica pero no a los demas movimientos de la cuenta
+     */
     public void debito(BigDecimal monto){
-//        this.saldo.subtract(monto); //error ya que Bigdecimal es inmutable
-        //this.saldo = this.saldo.subtract(monto);
-        BigDecimal nuevoSaldo = this.saldo.subtract(monto);
-        //validacion de que el monto a restar es menor que el total que tiene la cuenta
-        if(nuevoSaldo.compareTo(BigDecimal.ZERO)<0){
-            throw new DineroInsuficienteException("Dinero insuficiente");
+        ResultadoOperacion resultado = tryDebito(monto);
+        if (!resultado.isAplicada()) {
+            throw resultado.excepcion();
         }
-        this.saldo = nuevoSaldo;
+    }
+
+    /*
+    igual que debito pero sin saldo regresa DINERO_INSUFICIENTE en lugar de lanzar excepcion, sin modificar la cuenta.
+    si el banco tiene LimitesVelocidad y el debito los pasaria regresa LIMITE_EXCEDIDO, tambien sin modificar nada
+     */
+    public ResultadoOperacion tryDebito(BigDecimal monto){
+        MetricasBanco metricas = MetricasBanco.getInstancia();
+        long inicio = metricas.iniciar();
+        Banco actual;
+        long registro;
+        FlujoCambios flujo;
+        BigDecimal saldoNuevo = null;
+        long versionNueva = 0;
+        bloquear();
+        try {
+            actual = banco; //se lee con el candado, asi un alta o baja concurrente no se pierde el movimiento
+            DiarioTransacciones diario = actual == null ? null : actual.getDiario();
+            LimitesVelocidad limites = actual == null ? null : actual.getLimites();
+            long unidadesLimite = limites == null ? 0 : limites.revisar(this, monto);
+            if (unidadesLimite == LimitesVelocidad.RECHAZADO) {
+                metricas.rechazoPorLimite(Operacion.DEBITO, inicio);
+                return ResultadoOperacion.LIMITE_EXCEDIDO;
+            }
+            if (diario == null) {
+                registro = intentarDebito(monto) ? Banco.SIN_REGISTRO : SIN_SALDO;
+            } else {
+                registro = debitarAnotando(diario, monto);
+            }
+            if (registro == SIN_SALDO) {
+                metricas.rechazo(Operacion.DEBITO, inicio);
+                return ResultadoOperacion.DINERO_INSUFICIENTE;
+            }
+            if (limites != null) {
+                limites.registrar(this, unidadesLimite);
+            }
+            SaldoAgregado.sumar(agregados, monto.negate());
+            flujo = actual == null ? null : actual.getFlujoCambios();
+            if (flujo != null) {
+                saldoNuevo = getSaldo();
+                versionNueva = version;
+            }
+        } finally {
+            candado.unlock();
+        }
+        esperarRegistro(actual, registro);
+        if (flujo != null) {
+            flujo.publicar(Operacion.DEBITO, id, saldoNuevo, versionNueva, monto);
+        }
+        metricas.registrar(Operacion.DEBITO, inicio);
+        return ResultadoOperacion.APLICADA;
     }
 
     public void credito(BigDecimal monto){
-        this.saldo = this.saldo.add(monto);
+        MetricasBanco metricas = MetricasBanco.getInstancia();
+        long inicio = metricas.iniciar();
+        Banco actual;
+        long registro;
+        FlujoCambios flujo;
+        BigDecimal saldoNuevo = null;
+        long versionNueva = 0;
+        bloquear();
+        try {
+            actual = banco;
+            DiarioTransacciones diario = actual == null ? null : actual.getDiario();
+            if (diario == null) {
+                aplicarCredito(monto);
+                registro = Banco.SIN_REGISTRO;
+            } else {
+                registro = acreditarAnotando(diario, monto);
+            }
+            SaldoAgregado.sumar(agregados, monto);
+            flujo = actual == null ? null : actual.getFlujoCambios();
+            if (flujo != null) {
+                saldoNuevo = getSaldo();
+                versionNueva = version;
+            }
+        } finally {
+            candado.unlock();
+        }
+        esperarRegistro(actual, registro);
+        if (flujo != null) {
+            flujo.publicar(Operacion.CREDITO, id, saldoNuevo, versionNueva, monto);
+        }
+        metricas.registrar(Operacion.CREDITO, inicio);
+    }
+
+    //debito en unidades minimas (monto * 10^escala), solo modo escalado; no crea objetos salvo la excepcion
+    public void debitoUnidades(long monto){
+        ResultadoOperacion resultado = tryDebitoUnidades(monto);
+        if (!resultado.isAplicada()) {
+            throw resultado.excepcion();
+        }
+    }
+
+    //debito en unidades minimas sin excepcion; el rechazo no crea ningun objeto
+    public ResultadoOperacion tryDebitoUnidades(long monto){
+        getUnidades(); //valida el modo
+        MetricasBanco metricas = MetricasBanco.getInstancia();
+        long inicio = metricas.iniciar();
+        Banco actual;
+        long registro;
+        FlujoCambios flujo;
+        BigDecimal saldoNuevo = null;
+        long versionNueva = 0;
+        bloquear();
+        try {
+            actual = banco;
+            DiarioTransacciones diario = actual == null ? null : actual.getDiario();
+            LimitesVelocidad limites = actual == null ? null : actual.getLimites();
+            long unidadesLimite = limites == null ? 0 : limites.revisar(this, BigDecimal.valueOf(monto, escala));
+            if (unidadesLimite == LimitesVelocidad.RECHAZADO) {
+                metricas.rechazoPorLimite(Operacion.DEBITO, inicio);
+                return ResultadoOperacion.LIMITE_EXCEDIDO;
+            }
+            if (diario == null) {
+                registro = intentarRestarUnidades(monto, escala) ? Banco.SIN_REGISTRO : SIN_SALDO;
+            } else {
+                registro = debitarAnotando(diario, BigDecimal.valueOf(monto, escala));
+            }
+            if (registro == SIN_SALDO) {
+                metricas.rechazo(Operacion.DEBITO, inicio);
+                return ResultadoOperacion.DINERO_INSUFICIENTE;
+            }
+            if (limites != null) {
+                limites.registrar(this, unidadesLimite);
+            }
+            SaldoAgregado.sumarUnidades(agregados, -monto, escala);
+            flujo = actual == null ? null : actual.getFlujoCambios();
+            if (flujo != null) {
+                saldoNuevo = getSaldo();
+                versionNueva = version;
+            }
+        } finally {
+            candado.unlock();
+        }
+        esperarRegistro(actual, registro);
+        if (flujo != null) {
+            flujo.publicar(Operacion.DEBITO, id, saldoNuevo, versionNueva, BigDecimal.valueOf(monto, escala));
+        }
+        metricas.registrar(Operacion.DEBITO, inicio);
+        return ResultadoOperacion.APLICADA;
+    }
+
+    public void creditoUnidades(long monto){
+        getUnidades();
+        MetricasBanco metricas = MetricasBanco.getInstancia();
+        long inicio = metricas.iniciar();
+        Banco actual;
+        long registro;
+        FlujoCambios flujo;
+        BigDecimal saldoNuevo = null;
+        long versionNueva = 0;
+        bloquear();
+        try {
+            actual = banco;
+            DiarioTransacciones diario = actual == null ? null : actual.getDiario();
+            if (diario == null) {
+                sumarUnidades(monto, escala);
+                registro = Banco.SIN_REGISTRO;
+            } else {
+                registro = acreditarAnotando(diario, BigDecimal.valueOf(monto, escala));
+            }
+            SaldoAgregado.sumarUnidades(agregados, monto, escala);
+            flujo = actual == null ? null : actual.getFlujoCambios();
+            if (flujo != null) {
+                saldoNuevo = getSaldo();
+                versionNueva = version;
+            }
+        } finally {
+            candado.unlock();
+        }
+        esperarRegistro(actual, registro);
+        if (flujo != null) {
+            flujo.publicar(Operacion.CREDITO, id, saldoNuevo, versionNueva, BigDecimal.valueOf(monto, escala));
+        }
+        metricas.registrar(Operacion.CREDITO, inicio);
+    }
+
+    //solo modifica el saldo, sin anotar en el diario; Banco lo usa dentro de transferencias y lotes
+    void aplicarDebito(BigDecimal monto){
+        if (!intentarDebito(monto)) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    //como aplicarDebito pero sin saldo regresa false y no modifica nada
+    boolean intentarDebito(BigDecimal monto){
+        candado.lock();
+        abrirEscritura();
+        try {
+            if (isEscalada()) {
+                return intentarRestarUnidades(aUnidades(monto), monto.scale());
+            }
+//            this.saldo.subtract(monto); //error ya que Bigdecimal es inmutable
+            //this.saldo = this.saldo.subtract(monto);
+            //validacion de que el monto a restar es menor que el total que tiene la cuenta,
+            //se compara antes de restar para no crear el saldo nuevo cuando se rechaza
+            if(this.saldo.compareTo(monto)<0){
+                return false;
+            }
+            this.saldo = this.saldo.subtract(monto);
+            return true;
+        } finally {
+            cerrarEscritura();
+            candado.unlock();
+        }
+    }
+
+    void aplicarCredito(BigDecimal monto){
+        candado.lock();
+        abrirEscritura();
+        try {
+            if (isEscalada()) {
+                sumarUnidades(aUnidades(monto), monto.scale());
+                return;
+            }
+            this.saldo = this.saldo.add(monto);
+        } finally {
+            cerrarEscritura();
+            candado.unlock();
+        }
+    }
+
+    /*
+    movimientos con diario: primero se calcula el saldo que va a quedar y se anota, y solo si el diario lo acepta
+    se modifica la cuenta; un diario lleno o un valor que no cabe en el registro lanzan la excepcion sin mover nada.
+    con el candado tomado, regresan la posicion a esperar en el diario o SIN_SALDO si el debito no alcanza
+     */
+    private long debitarAnotando(DiarioTransacciones diario, BigDecimal monto) {
+        BigDecimal nuevo = saldoCon(monto.negate());
+        if (nuevo.signum() < 0) {
+            return SIN_SALDO;
+        }
+        long registro = diario.registrarDebito(this, monto, nuevo);
+        fijarSaldo(nuevo);
+        return registro;
+    }
+
+    private long acreditarAnotando(DiarioTransacciones diario, BigDecimal monto) {
+        BigDecimal nuevo = saldoCon(monto);
+        long registro = diario.registrarCredito(this, monto, nuevo);
+        fijarSaldo(nuevo);
+        return registro;
+    }
+
+    //saldo que quedaria despues de sumar delta, sin modificar la cuenta; ArithmeticException si no cabe en la escala
+    BigDecimal saldoCon(BigDecimal delta) {
+        if (!isEscalada()) {
+            return saldo.add(delta);
+        }
+        return formatear(Math.addExact(unidades, aUnidades(delta)), Math.max(escalaVisible, delta.scale()));
+    }
+
+    //con el candado tomado; nuevo viene de saldoCon o ya se valido con la escala, asi no falla a la mitad
+    void fijarSaldo(BigDecimal nuevo) {
+        long nuevas = isEscalada() ? aUnidades(nuevo) : 0;
+        abrirEscritura();
+        try {
+            if (isEscalada()) {
+                escalaVisible = nuevo.scale();
+                unidades = nuevas;
+            } else {
+                saldo = nuevo;
+            }
+        } finally {
+            cerrarEscritura();
+        }
+    }
+
+    private static void esperarRegistro(Banco banco, long registro) {
+        if (banco != null) {
+            banco.esperarRegistro(registro);
+        }
+    }
+
+    //usados por Banco para bloquear varias cuentas siempre en orden de id
+    void bloquear() {
+        if (!candado.tryLock()) {
+            MetricasBanco.getInstancia().contencion(); //otro hilo tiene la cuenta
+            candado.lock();
+        }
+    }
+
+    void desbloquear() {
+        candado.unlock();
+    }
+
+    //secciones de escritura del seqlock, solo con el candado tomado; se pueden anidar
+    void abrirEscritura() {
+        if (escrituras++ == 0) {
+            version++;
+        }
+    }
+
+    void cerrarEscritura() {
+        if (--escrituras == 0) {
+            version++;
+        }
+    }
+
+    //version par y sin cambios entre dos lecturas = el saldo leido en medio es consistente
+    long leerVersion() {
+        return version;
+    }
+
+    private boolean intentarRestarUnidades(long monto, int escalaMonto) {
+        long actual = unidades;
+        if (actual < monto) {
+            return false;
+        }
+        long nuevo = Math.subtractExact(actual, monto); //ArithmeticException si hay desbordamiento
+        abrirEscritura();
+        escalaVisible = Math.max(escalaVisible, escalaMonto);
+        unidades = nuevo;
+        cerrarEscritura();
+        return true;
+    }
+
+    private void sumarUnidades(long monto, int escalaMonto) {
+        long nuevo = Math.addExact(unidades, monto);
+        abrirEscritura();
+        escalaVisible = Math.max(escalaVisible, escalaMonto);
+        unidades = nuevo;
+        cerrarEscritura();
+    }
+
+    private long aUnidades(BigDecimal monto) {
+        //setScale sin redondeo y longValueExact lanzan ArithmeticException si se perderia precision
+        return monto.setScale(escala).unscaledValue().longValueExact();
+    }
+
+    private BigDecimal saldoEscalado() {
+        long valor;
+        int visible;
+        for (int intento = 1; ; intento++) {
+            long inicial = version;
+            valor = unidades;
+            visible = escalaVisible;
+            //quien tiene el candado (p.ej. el diario dentro de una transferencia) ya ve su propia escritura completa
+            if (((inicial & 1) == 0 && version == inicial) || candado.isHeldByCurrentThread()) {
+                break;
+            }
+            //un escritor esta a la mitad, su seccion es de unas cuantas instrucciones; si tarda es que perdio
+            //el procesador y se le cede para que termine
+            if (intento % ESPERAS_ANTES_DE_CEDER == 0) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return formatear(valor, visible);
+    }
+
+    //saldo con la escala que tendria calculado con BigDecimal
+    private BigDecimal formatear(long valor, int visible) {
+        BigDecimal resultado = BigDecimal.valueOf(valor, escala);
+        if (visible > escala) {
+            return resultado.setScale(visible);
+        }
+        //solo se reduce la escala si los digitos sobrantes son ceros, igual que el resultado con BigDecimal
+        int digitos = escala - visible;
+        if (digitos > 0 && (digitos < POTENCIAS_10.length ? valor % POTENCIAS_10[digitos] == 0 : valor == 0)) {
+            return resultado.setScale(visible);
+        }
+        return resultado;
     }
     /*
     sobreescritura de metodo equals para validar instancias por sus atributos, no por memoria
@@ -61,9 +595,9 @@ public class Cuenta {
             return false;
         }
         Cuenta c = (Cuenta) obj;
-        if(this.persona == null|| this.saldo == null){
+        if(this.persona == null|| this.getSaldo() == null){
             return false;
         }
-        return this.persona.equals(c.getPersona()) && this.saldo.equals(c.getSaldo());
+        return this.persona.equals(c.getPersona()) && this.getSaldo().equals(c.getSaldo());
     }
 }
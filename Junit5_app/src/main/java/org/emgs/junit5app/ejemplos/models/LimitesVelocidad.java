@@ -0,0 +1,150 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+limites de velocidad por cuenta para las reglas de fraude: cuantos debitos y cuanto monto puede salir de una cuenta
+dentro de una ventana deslizante (p.ej. 10 debitos y 5000 por minuto). se revisan antes de debito, tryDebito, sus
+variantes en unidades y transferir (en la cuenta origen), con el candado de la cuenta que esas operaciones ya toman, y
+un rechazo no modifica la cuenta: regresa LIMITE_EXCEDIDO o lanza LimiteExcedidoException. transferirLote revisa el
+debito neto de cada cuenta del lote y lo rechaza completo. comisiones e intereses no se limitan.
+
+cada cuenta lleva su Ventana: la ventana dividida en cubetas, un arreglo circular de primitivos con los debitos y el
+monto de cada cubeta y los totales de las vigentes. al avanzar el reloj se restan las cubetas que salieron, asi revisar
+cuesta lo mismo con cualquier cantidad de movimientos y la memoria por cuenta es fija (unos 12 bytes por cubeta).
+la ventana real mide entre ventana - ventana / cubetas y ventana; mas cubetas la acercan a una deslizante exacta.
+solo cuentan los debitos aplicados, uno rechazado por saldo o por limite no ocupa lugar
+ */
+public class LimitesVelocidad {
+    //lo que regresa revisar cuando el debito pasaria algun limite
+    static final long RECHAZADO = -1;
+    //los montos se llevan como long en diezmilesimas, redondeados hacia arriba (un monto nunca cuenta de menos)
+    private static final int ESCALA = 4;
+
+    private final int cubetas;
+    private final long anchoCubeta;
+    private final int maximoDebitos;
+    private final long maximoMonto;
+    private final LongSupplier reloj;
+
+    private final LongAdder rechazosPorDebitos = new LongAdder();
+    private final LongAdder rechazosPorMonto = new LongAdder();
+
+    public LimitesVelocidad(Duration ventana, int cubetas, int maximoDebitos, BigDecimal maximoMonto) {
+        this(ventana, cubetas, maximoDebitos, maximoMonto, System::nanoTime);
+    }
+
+    /*
+    reloj en nanosegundos, por omision System::nanoTime. en algunas maquinas virtuales nanoTime tarda decenas de ns y es
+    casi todo el costo de revisar; como las cubetas miden segundos basta un reloj grueso, p.ej. un volatile que un
+    ScheduledExecutorService actualiza cada milisegundo
+     */
+    public LimitesVelocidad(Duration ventana, int cubetas, int maximoDebitos, BigDecimal maximoMonto, LongSupplier reloj) {
+        if (cubetas <= 0 || ventana.toNanos() < cubetas) {
+            throw new IllegalArgumentException("La ventana debe tener al menos una cubeta");
+        }
+        if (maximoDebitos <= 0 || maximoMonto.signum() <= 0) {
+            throw new IllegalArgumentException("Los limites deben ser mayores a cero");
+        }
+        this.cubetas = cubetas;
+        this.anchoCubeta = ventana.toNanos() / cubetas;
+        this.maximoDebitos = maximoDebitos;
+        this.maximoMonto = aUnidades(maximoMonto, RoundingMode.DOWN);
+        this.reloj = reloj;
+    }
+
+    /*
+    con el candado de la cuenta tomado: regresa el monto en unidades para registrar si el debito cabe en los limites,
+    o RECHAZADO (y lo cuenta) si no; no registra nada
+     */
+    long revisar(Cuenta cuenta, BigDecimal monto) {
+        Ventana ventana = cuenta.getVentanaDebitos();
+        if (ventana == null || ventana.limites != this) { //primer debito o el banco cambio de limites
+            ventana = new Ventana(this);
+            cuenta.setVentanaDebitos(ventana);
+        }
+        ventana.avanzar(Math.floorDiv(reloj.getAsLong(), anchoCubeta));
+        if (ventana.totalDebitos >= maximoDebitos) {
+            rechazosPorDebitos.increment();
+            return RECHAZADO;
+        }
+        long unidades = aUnidades(monto, RoundingMode.UP);
+        if (unidades > maximoMonto - ventana.totalMonto) {
+            rechazosPorMonto.increment();
+            return RECHAZADO;
+        }
+        return unidades;
+    }
+
+    //con el candado de la cuenta tomado, despues de un revisar sin rechazo y del debito aplicado
+    void registrar(Cuenta cuenta, long unidades) {
+        Ventana ventana = cuenta.getVentanaDebitos();
+        int posicion = (int) Math.floorMod(ventana.ultimaCubeta, (long) cubetas);
+        ventana.debitos[posicion]++;
+        ventana.montos[posicion] += unidades;
+        ventana.totalDebitos++;
+        ventana.totalMonto += unidades;
+    }
+
+    public long getRechazosPorDebitos() {
+        return rechazosPorDebitos.sum();
+    }
+
+    public long getRechazosPorMonto() {
+        return rechazosPorMonto.sum();
+    }
+
+    private static long aUnidades(BigDecimal monto, RoundingMode redondeo) {
+        try {
+            return monto.setScale(ESCALA, redondeo).scaleByPowerOfTen(ESCALA).longValueExact();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE; //un monto que no cabe en long ya pasa cualquier limite
+        }
+    }
+
+    //estado de una cuenta, solo se usa con el candado de la cuenta
+    static class Ventana {
+        private static final long SIN_USO = Long.MIN_VALUE;
+
+        final LimitesVelocidad limites;
+        final int[] debitos;
+        final long[] montos;
+        long totalDebitos;
+        long totalMonto;
+        long ultimaCubeta = SIN_USO;
+
+        Ventana(LimitesVelocidad limites) {
+            this.limites = limites;
+            this.debitos = new int[limites.cubetas];
+            this.montos = new long[limites.cubetas];
+        }
+
+        //vacia las cubetas que salieron de la ventana entre la ultima revision y cubeta
+        void avanzar(long cubeta) {
+            if (cubeta <= ultimaCubeta) {
+                return;
+            }
+            int n = debitos.length;
+            if (ultimaCubeta == SIN_USO || cubeta - ultimaCubeta >= n) {
+                Arrays.fill(debitos, 0);
+                Arrays.fill(montos, 0);
+                totalDebitos = 0;
+                totalMonto = 0;
+            } else {
+                for (long c = ultimaCubeta + 1; c <= cubeta; c++) {
+                    int posicion = (int) Math.floorMod(c, (long) n);
+                    totalDebitos -= debitos[posicion];
+                    totalMonto -= montos[posicion];
+                    debitos[posicion] = 0;
+                    montos[posicion] = 0;
+                }
+            }
+            ultimaCubeta = cubeta;
+        }
+    }
+}
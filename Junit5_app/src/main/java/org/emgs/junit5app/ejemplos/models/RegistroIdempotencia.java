@@ -0,0 +1,356 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+claves de idempotencia de las transferencias de un banco: un cliente que reintenta Banco.transferir(clave, ...)
+despues de un timeout recibe el resultado original (APLICADA o el rechazo) sin volver a tocar las cuentas.
+cada clave se recuerda durante la ventana y hay un maximo de claves: si se llena antes de que expiren se desalojan
+las mas viejas (se cuentan en getDesalojadas, para dimensionar). nunca se desaloja una clave en curso ni una que
+tenga reintentos esperando su resultado: sin ella el reintento volveria a ejecutar la transferencia.
+si la mas vieja del fragmento esta en ese caso, la clave nueva espera a que se libere.
+
+con millones de claves por hora un objeto por clave hace que el GC copie y promueva todo el registro una y otra vez,
+por eso todo vive en arreglos de primitivos creados al inicio y la memoria no cambia con el trafico.
+las claves se reparten en fragmentos, cada uno protegido por su monitor, con:
+- un arreglo circular en orden de llegada; como la ventana es la misma para todas, es tambien el orden de expiracion
+  y purgar o desalojar siempre quita del inicio
+- un indice de direccionamiento abierto (sondeo lineal) de la clave a su posicion en el circular
+de la clave se guarda una huella de 128 bits, no el texto; las cuentas se guardan exactas y el monto como huella,
+solo sirven para detectar que una clave se reutilizo con otra transferencia.
+un reintento que llega mientras la primera transferencia sigue en curso espera su resultado.
+las claves solo viven en memoria, no se anotan en el diario
+ */
+public class RegistroIdempotencia {
+    private static final int FRAGMENTOS = 64;
+    //con menos claves por fragmento la mas vieja casi siempre seguiria en curso y las claves nuevas esperarian
+    private static final int MINIMO_POR_FRAGMENTO = 64;
+
+    private static final byte LIBRE = 0; //quitada porque la transferencia lanzo una excepcion
+    private static final byte EN_CURSO = 1;
+    //los estados terminados son TERMINADA + ordinal del ResultadoOperacion
+    private static final byte TERMINADA = 2;
+    private static final ResultadoOperacion[] RESULTADOS = ResultadoOperacion.values();
+
+    private final Fragmento[] fragmentos;
+    private final long ventanaNanos;
+    private final LongSupplier reloj;
+
+    private final LongAdder repetidas = new LongAdder();
+    private final LongAdder desalojadas = new LongAdder();
+
+    //con pocas claves se usan menos fragmentos, cada uno con al menos MINIMO_POR_FRAGMENTO claves
+    public RegistroIdempotencia(Duration ventana, int maximoClaves) {
+        this(ventana, maximoClaves, fragmentosPara(maximoClaves), System::nanoTime);
+    }
+
+    //fragmentos potencia de 2
+    RegistroIdempotencia(Duration ventana, int maximoClaves, int fragmentos, LongSupplier reloj) {
+        if (maximoClaves / fragmentos < 1) {
+            throw new IllegalArgumentException("El maximo de claves debe ser al menos " + fragmentos);
+        }
+        this.ventanaNanos = ventana.toNanos();
+        this.reloj = reloj;
+        this.fragmentos = new Fragmento[fragmentos];
+        for (int i = 0; i < fragmentos; i++) {
+            this.fragmentos[i] = new Fragmento(maximoClaves / fragmentos);
+        }
+    }
+
+    /*
+    ejecuta la transferencia si la clave es nueva y guarda su resultado; si ya existe regresa el resultado guardado.
+    lanza IllegalArgumentException si la clave ya se uso con otras cuentas u otro monto.
+    si la transferencia lanza una excepcion la clave se olvida, asi el reintento la ejecuta de nuevo.
+    con el fragmento lleno y su clave mas vieja en curso (o con reintentos esperando) una clave nueva espera
+     */
+    ResultadoOperacion ejecutar(String clave, Cuenta origen, Cuenta destino, BigDecimal monto,
+                                Supplier<ResultadoOperacion> transferencia) {
+        //tipo FNV-1a sobre los char de la clave, dos semillas en la misma pasada dan la huella de 128 bits
+        long huella1 = 0xCBF29CE484222325L ^ clave.length();
+        long huella2 = 0x84222325CBF29CE4L ^ clave.length();
+        for (int i = 0; i < clave.length(); i++) {
+            char c = clave.charAt(i);
+            huella1 = (huella1 ^ c) * 0x100000001B3L;
+            huella2 = (huella2 ^ c) * 0x9E3779B97F4A7C15L;
+        }
+        huella1 = mezclar(huella1);
+        huella2 = mezclar(huella2);
+        int huellaMonto = monto.stripTrailingZeros().hashCode(); //10 y 10.00 son el mismo monto
+        Fragmento fragmento = fragmentos[(int) huella2 & (fragmentos.length - 1)];
+        while (true) {
+            long secuencia;
+            synchronized (fragmento) {
+                long ahora = reloj.getAsLong();
+                fragmento.purgar(ahora);
+                int posicion = fragmento.buscar(huella1, huella2);
+                if (posicion < 0) {
+                    if (fragmento.llenoConInicioOcupado()) {
+                        fragmento.esperarLugar();
+                        continue; //mientras se esperaba otro hilo pudo agregar la misma clave
+                    }
+                    secuencia = fragmento.agregar(huella1, huella2, origen.getId(), destino.getId(), huellaMonto, ahora + ventanaNanos);
+                } else {
+                    if (!fragmento.esLaMisma(posicion, origen.getId(), destino.getId(), huellaMonto)) {
+                        throw new IllegalArgumentException("La clave " + clave + " ya se uso con otra transferencia");
+                    }
+                    byte estado = fragmento.esperar(posicion);
+                    if (estado == LIBRE) {
+                        continue; //la primera fallo con excepcion, se vuelve a intentar
+                    }
+                    repetidas.increment();
+                    return RESULTADOS[estado - TERMINADA];
+                }
+            }
+            ResultadoOperacion resultado;
+            try {
+                resultado = transferencia.get();
+            } catch (RuntimeException e) {
+                synchronized (fragmento) {
+                    fragmento.terminar(secuencia, LIBRE);
+                }
+                throw e;
+            }
+            synchronized (fragmento) {
+                fragmento.terminar(secuencia, (byte) (TERMINADA + resultado.ordinal()));
+            }
+            return resultado;
+        }
+    }
+
+    //reintentos que regresaron el resultado guardado sin ejecutar la transferencia
+    public long getRepetidas() {
+        return repetidas.sum();
+    }
+
+    //claves ya terminadas que salieron por falta de espacio antes de cumplir su ventana
+    public long getDesalojadas() {
+        return desalojadas.sum();
+    }
+
+    //claves guardadas, puede incluir expiradas que todavia no se purgan
+    public int size() {
+        int total = 0;
+        for (Fragmento fragmento : fragmentos) {
+            synchronized (fragmento) {
+                total += fragmento.vivas;
+            }
+        }
+        return total;
+    }
+
+    private static int fragmentosPara(int maximoClaves) {
+        if (maximoClaves < MINIMO_POR_FRAGMENTO) {
+            throw new IllegalArgumentException("El maximo de claves debe ser al menos " + MINIMO_POR_FRAGMENTO);
+        }
+        return Math.min(FRAGMENTOS, Integer.highestOneBit(maximoClaves / MINIMO_POR_FRAGMENTO));
+    }
+
+    //mezclador final de murmur3, reparte en todos los bits el efecto de cada char
+    private static long mezclar(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /*
+    las posiciones del circular se identifican por la secuencia de llegada: la clave con secuencia s esta en s % capacidad
+    mientras inicio <= s < fin. los campos de una clave van juntos en datos (una o dos lineas de cache por clave)
+    y el indice guarda junto a la posicion 32 bits de la huella, asi un sondeo que no coincide no lee datos.
+    todo se usa con el monitor del fragmento tomado
+     */
+    private class Fragmento {
+        //huella1, huella2, expira, origen, destino, reintentos esperando << 40 | huella del monto << 8 | estado
+        private static final int CAMPOS = 6;
+        private static final int HUELLA1 = 0;
+        private static final int HUELLA2 = 1;
+        private static final int EXPIRA = 2;
+        private static final int ORIGEN = 3;
+        private static final int DESTINO = 4;
+        private static final int MONTO_ESTADO = 5;
+        private static final long UN_REINTENTO = 1L << 40;
+
+        final int capacidad;
+        final long[] datos;
+        //(huella1 >>> 32) << 32 | posicion + 1, 0 = vacio
+        final long[] indice;
+        final int mascara;
+
+        long inicio;
+        long fin;
+        int vivas;
+        //hilos esperando una clave en curso o lugar en el fragmento; casi siempre 0 y asi terminar no llama a notifyAll, que cuesta
+        int esperando;
+
+        Fragmento(int capacidad) {
+            this.capacidad = capacidad;
+            this.datos = new long[capacidad * CAMPOS];
+            this.indice = new long[Integer.highestOneBit(capacidad * 2 - 1) << 1]; //ocupado a lo mas a la mitad
+            this.mascara = indice.length - 1;
+        }
+
+        //se detiene en una clave ocupada aunque ya haya expirado
+        void purgar(long ahora) {
+            while (inicio < fin && ahora - datos[posicionInicio() * CAMPOS + EXPIRA] >= 0 && !ocupada(posicionInicio())) {
+                quitarInicio();
+            }
+        }
+
+        //posicion en el circular o -1
+        int buscar(long huella1, long huella2) {
+            long etiqueta = huella1 & 0xFFFFFFFF00000000L;
+            for (int i = (int) huella1 & mascara; indice[i] != 0; i = (i + 1) & mascara) {
+                if ((indice[i] & 0xFFFFFFFF00000000L) == etiqueta) {
+                    int posicion = (int) indice[i] - 1;
+                    int base = posicion * CAMPOS;
+                    if (datos[base + HUELLA1] == huella1 && datos[base + HUELLA2] == huella2) {
+                        return posicion;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        //lleno y la mas vieja no se puede desalojar
+        boolean llenoConInicioOcupado() {
+            return fin - inicio == capacidad && ocupada(posicionInicio());
+        }
+
+        //en curso o con reintentos que todavia no leen su resultado
+        boolean ocupada(int posicion) {
+            return estado(posicion) == EN_CURSO || datos[posicion * CAMPOS + MONTO_ESTADO] >>> 40 != 0;
+        }
+
+        int posicionInicio() {
+            return (int) (inicio % capacidad);
+        }
+
+        //nunca con llenoConInicioOcupado()
+        long agregar(long huella1, long huella2, long origen, long destino, int monto, long expira) {
+            if (fin - inicio == capacidad) {
+                desalojadas.increment();
+                quitarInicio();
+            }
+            long secuencia = fin++;
+            int posicion = (int) (secuencia % capacidad);
+            int base = posicion * CAMPOS;
+            datos[base + HUELLA1] = huella1;
+            datos[base + HUELLA2] = huella2;
+            datos[base + EXPIRA] = expira;
+            datos[base + ORIGEN] = origen;
+            datos[base + DESTINO] = destino;
+            datos[base + MONTO_ESTADO] = (monto & 0xFFFFFFFFL) << 8 | EN_CURSO;
+            int i = (int) huella1 & mascara;
+            while (indice[i] != 0) {
+                i = (i + 1) & mascara;
+            }
+            indice[i] = (huella1 & 0xFFFFFFFF00000000L) | (posicion + 1);
+            vivas++;
+            return secuencia;
+        }
+
+        boolean esLaMisma(int posicion, long origen, long destino, int monto) {
+            int base = posicion * CAMPOS;
+            return datos[base + ORIGEN] == origen && datos[base + DESTINO] == destino
+                    && (int) (datos[base + MONTO_ESTADO] >> 8) == monto;
+        }
+
+        byte estado(int posicion) {
+            return (byte) datos[posicion * CAMPOS + MONTO_ESTADO];
+        }
+
+        private void cambiarEstado(int posicion, byte estado) {
+            int i = posicion * CAMPOS + MONTO_ESTADO;
+            datos[i] = (datos[i] & ~0xFFL) | estado;
+        }
+
+        /*
+        espera mientras la clave sigue en curso y regresa su estado, LIBRE si la transferencia lanzo una excepcion.
+        mientras espera la clave cuenta como ocupada, asi no se desaloja antes de que este reintento lea el resultado
+         */
+        byte esperar(int posicion) {
+            int i = posicion * CAMPOS + MONTO_ESTADO;
+            datos[i] += UN_REINTENTO;
+            boolean interrumpido = esperarMientras(() -> estado(posicion) == EN_CURSO);
+            byte estado = estado(posicion);
+            datos[i] -= UN_REINTENTO;
+            if (esperando > 0) {
+                notifyAll(); //una clave nueva puede estar esperando que esta se pueda desalojar
+            }
+            if (interrumpido) {
+                Thread.currentThread().interrupt();
+            }
+            return estado;
+        }
+
+        //espera a que la clave mas vieja se pueda desalojar
+        void esperarLugar() {
+            if (esperarMientras(this::llenoConInicioOcupado)) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        //regresa si hubo una interrupcion: el reintento no se puede abandonar a la mitad, se espera y se restaura la bandera
+        private boolean esperarMientras(BooleanSupplier condicion) {
+            boolean interrumpido = false;
+            esperando++;
+            while (condicion.getAsBoolean()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+            esperando--;
+            return interrumpido;
+        }
+
+        void terminar(long secuencia, byte estado) {
+            int posicion = (int) (secuencia % capacidad);
+            if (secuencia >= inicio && estado(posicion) == EN_CURSO) {
+                if (estado == LIBRE) {
+                    quitarDelIndice(posicion);
+                }
+                cambiarEstado(posicion, estado);
+            }
+            if (esperando > 0) {
+                notifyAll();
+            }
+        }
+
+        private void quitarInicio() {
+            int posicion = (int) (inicio % capacidad);
+            if (estado(posicion) != LIBRE) {
+                quitarDelIndice(posicion);
+                cambiarEstado(posicion, LIBRE);
+            }
+            inicio++;
+        }
+
+        //borrado con corrimiento hacia atras: las claves siguientes del mismo grupo se recorren para no dejar huecos
+        private void quitarDelIndice(int posicion) {
+            int i = (int) datos[posicion * CAMPOS + HUELLA1] & mascara;
+            while ((int) indice[i] != posicion + 1) {
+                i = (i + 1) & mascara;
+            }
+            indice[i] = 0;
+            vivas--;
+            for (int j = (i + 1) & mascara; indice[j] != 0; j = (j + 1) & mascara) {
+                int ideal = (int) datos[((int) indice[j] - 1) * CAMPOS + HUELLA1] & mascara;
+                //se mueve si su posicion ideal no queda entre el hueco (exclusivo) y j (inclusivo)
+                boolean entre = i <= j ? (i < ideal && ideal <= j) : (i < ideal || ideal <= j);
+                if (!entre) {
+                    indice[i] = indice[j];
+                    indice[j] = 0;
+                    i = j;
+                }
+            }
+        }
+    }
+}
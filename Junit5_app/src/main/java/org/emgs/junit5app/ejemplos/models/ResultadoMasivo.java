@@ -0,0 +1,70 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+resultado de un movimiento aplicado a todas las cuentas de un banco: cuantas cuentas cambiaron, el neto aplicado
+y las cuentas que fallaron (DineroInsuficienteException, ArithmeticException o DiarioLlenoException) con su excepcion, por id de cuenta
+ */
+public class ResultadoMasivo {
+    private long aplicadas;
+    private BigDecimal total = BigDecimal.ZERO;
+    private final Map<Long, RuntimeException> fallos = new HashMap<>();
+    //posicion del ultimo registro en el diario, solo la usa Banco para esperar una sola vez
+    long registro = Banco.SIN_REGISTRO;
+    //cambios aplicados para el flujo de cambios, solo se llena si el banco tiene flujo; Banco los publica al final
+    final List<Cambio> cambios = new ArrayList<>();
+
+    public long getAplicadas() {
+        return aplicadas;
+    }
+
+    //suma de los montos aplicados, creditos positivos y debitos negativos
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public Map<Long, RuntimeException> getFallos() {
+        return Collections.unmodifiableMap(fallos);
+    }
+
+    void aplicada(BigDecimal monto, long registro) {
+        aplicadas++;
+        total = total.add(monto);
+        this.registro = Math.max(this.registro, registro);
+    }
+
+    void fallo(Cuenta cuenta, RuntimeException e) {
+        fallos.put(cuenta.getId(), e);
+    }
+
+    //une los resultados parciales de cada hilo
+    ResultadoMasivo combinar(ResultadoMasivo otro) {
+        aplicadas += otro.aplicadas;
+        total = total.add(otro.total);
+        fallos.putAll(otro.fallos);
+        registro = Math.max(registro, otro.registro);
+        cambios.addAll(otro.cambios);
+        return this;
+    }
+
+    //saldo y version leidos con el candado de la cuenta, despues de aplicar el monto
+    static final class Cambio {
+        final long cuenta;
+        final BigDecimal saldo;
+        final long version;
+        final BigDecimal monto;
+
+        Cambio(long cuenta, BigDecimal saldo, long version, BigDecimal monto) {
+            this.cuenta = cuenta;
+            this.saldo = saldo;
+            this.version = version;
+            this.monto = monto;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.exceptions.LimiteExcedidoException;
+
+//resultado de tryDebito / tryTransferir, que rechazan sin lanzar excepcion
+public enum ResultadoOperacion {
+    APLICADA, DINERO_INSUFICIENTE, LIMITE_EXCEDIDO;
+
+    public boolean isAplicada() {
+        return this == APLICADA;
+    }
+
+    //la excepcion que lanzan debito y transferir con este rechazo
+    RuntimeException excepcion() {
+        return this == LIMITE_EXCEDIDO ? new LimiteExcedidoException("Limite de velocidad excedido")
+                : new DineroInsuficienteException("Dinero insuficiente");
+    }
+}
@@ -0,0 +1,114 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+saldo y cantidad de cuentas acumulados de un banco o de un grupo de cuentas, actualizados con cada movimiento.
+el saldo se reparte en celdas (como LongAdder pero con BigDecimal): cada hilo suma en su celda,
+asi movimientos de hilos distintos casi nunca compiten; leer el total suma todas las celdas.
+los movimientos en unidades minimas de las cuentas escaladas se suman aparte, en un LongAdder por escala, asi ese
+camino no crea ningun BigDecimal; el neto de una escala tiene que caber en un long (igual que el saldo de una cuenta)
+ */
+class SaldoAgregado {
+    private static final int CELDAS = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1);
+
+    private final String grupo;
+    private final AtomicReferenceArray<BigDecimal> celdas = new AtomicReferenceArray<>(CELDAS);
+    private final LongAdder cuentas = new LongAdder();
+    //por escala 0..18, se crea la primera vez que se usa esa escala
+    private final AtomicReferenceArray<LongAdder> unidades = new AtomicReferenceArray<>(19);
+
+    SaldoAgregado(String grupo) {
+        this.grupo = grupo;
+        for (int i = 0; i < CELDAS; i++) {
+            celdas.set(i, BigDecimal.ZERO);
+        }
+    }
+
+    String getGrupo() {
+        return grupo;
+    }
+
+    void sumar(BigDecimal delta) {
+        int celda = (int) Thread.currentThread().getId() & (CELDAS - 1);
+        BigDecimal actual;
+        do {
+            actual = celdas.get(celda);
+        } while (!celdas.compareAndSet(celda, actual, actual.add(delta)));
+    }
+
+    void sumarUnidades(long delta, int escala) {
+        LongAdder porEscala = unidades.get(escala);
+        if (porEscala == null) {
+            unidades.compareAndSet(escala, null, new LongAdder());
+            porEscala = unidades.get(escala);
+        }
+        porEscala.add(delta);
+    }
+
+    void sumarCuenta(int delta) {
+        cuentas.add(delta);
+    }
+
+    BigDecimal getSaldo() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < CELDAS; i++) {
+            total = total.add(celdas.get(i));
+        }
+        for (int escala = 0; escala < unidades.length(); escala++) {
+            LongAdder porEscala = unidades.get(escala);
+            if (porEscala != null) {
+                total = total.add(BigDecimal.valueOf(porEscala.sum(), escala));
+            }
+        }
+        return total;
+    }
+
+    long getCuentas() {
+        return cuentas.sum();
+    }
+
+    //cadena de agregados de una cuenta: del banco hasta su grupo; se suma el delta en todos
+    static void sumar(SaldoAgregado[] cadena, BigDecimal delta) {
+        if (cadena != null && delta.signum() != 0) {
+            for (SaldoAgregado agregado : cadena) {
+                agregado.sumar(delta);
+            }
+        }
+    }
+
+    static void sumarUnidades(SaldoAgregado[] cadena, long delta, int escala) {
+        if (cadena != null && delta != 0) {
+            for (SaldoAgregado agregado : cadena) {
+                agregado.sumarUnidades(delta, escala);
+            }
+        }
+    }
+
+    //una transferencia solo cambia los agregados que no comparten origen y destino (p.ej. no cambia el total del banco)
+    static void mover(SaldoAgregado[] origen, SaldoAgregado[] destino, BigDecimal monto) {
+        if (origen == destino || monto.signum() == 0) {
+            return;
+        }
+        int comunes = 0;
+        if (origen != null && destino != null) {
+            int limite = Math.min(origen.length, destino.length);
+            while (comunes < limite && origen[comunes] == destino[comunes]) {
+                comunes++;
+            }
+        }
+        if (origen != null && comunes < origen.length) {
+            BigDecimal negativo = monto.negate();
+            for (int i = comunes; i < origen.length; i++) {
+                origen[i].sumar(negativo);
+            }
+        }
+        if (destino != null) {
+            for (int i = comunes; i < destino.length; i++) {
+                destino[i].sumar(monto);
+            }
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package org.emgs.junit5app.ejemplos.persistencia;
+
+import org.emgs.junit5app.ejemplos.exceptions.DiarioLlenoException;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+diario de solo agregar con los movimientos de saldo de un banco, escrito en un archivo mapeado en memoria.
+cada registro mide TAMANO_REGISTRO bytes y guarda el saldo resultante de la cuenta, asi reproducir el diario
+solo tiene que quedarse con el ultimo saldo de cada cuenta.
+una operacion (p.ej. una transferencia) puede ocupar varios registros con la misma secuencia, el ultimo lleva
+la bandera FIN; al reproducir se ignora una operacion incompleta al final del archivo.
+Banco y Cuenta anotan cada movimiento antes de aplicarlo, con el saldo que va a quedar: si el diario esta lleno
+o un valor no cabe en el registro la excepcion sale antes de mover el dinero.
+las posiciones que regresan los registrar* son logicas (bytes anotados desde que se abrio el diario), no cambian
+cuando compactar quita del archivo las operaciones que ya guardo una instantanea.
+las transferencias entre bancos (BancoFragmentado) dejan su rastro con el id de reserva: RESERVA en el origen (debito
+apartado), CREDITO con ese id en el destino, y CONFIRMACION o CANCELACION (devolucion) otra vez en el origen
+ */
+public class DiarioTransacciones implements Closeable {
+    public static final int TAMANO_REGISTRO = 64;
+
+    static final byte ALTA = 1;
+    static final byte DEBITO = 2;
+    static final byte CREDITO = 3;
+    static final byte SALDO = 4;
+    static final byte BAJA = 5;
+    static final byte PERSONA = 6; //continuacion del nombre de la persona de un ALTA
+    static final byte GRUPO = 7; //continuacion con el grupo de un ALTA, despues de las de PERSONA
+    static final byte RESERVA = 8; //debito que queda apartado hasta CONFIRMACION o CANCELACION
+    static final byte CONFIRMACION = 9; //el otro banco ya acredito, no cambia el saldo
+    static final byte CANCELACION = 10; //el monto apartado regresa a la cuenta
+    //id de reserva de los registros que no son de una transferencia entre bancos
+    public static final long SIN_RESERVA = 0;
+    private static final byte FIN = 1;
+
+    //posiciones de los campos dentro de un registro
+    private static final int POS_SECUENCIA = 0;
+    private static final int POS_TIPO = 8; //se escribe al final, un registro con tipo 0 esta vacio
+    private static final int POS_BANDERAS = 9;
+    private static final int POS_LONGITUD = 10; //bytes de la persona (ALTA) o del fragmento (PERSONA, GRUPO)
+    private static final int POS_ESCALA_SALDO = 12;
+    private static final int POS_CUENTA = 16;
+    private static final int POS_SALDO = 24; //valor sin escala del saldo resultante
+    private static final int POS_MONTO = 32;
+    private static final int POS_LONGITUD_GRUPO = 32; //en ALTA, bytes del grupo (0 = sin grupo)
+    private static final int POS_ESCALA_MONTO = 40; //en ALTA guarda la escala de la cuenta (-1 = BigDecimal)
+    private static final int POS_DATOS_ALTA = 44;
+    private static final int POS_RESERVA = 48; //id de reserva, fuera de ALTA (que usa estos bytes para la persona)
+    private static final int POS_DATOS_PERSONA = 24;
+    private static final int DATOS_ALTA = TAMANO_REGISTRO - POS_DATOS_ALTA;
+    private static final int DATOS_PERSONA = TAMANO_REGISTRO - POS_DATOS_PERSONA;
+
+    private final Path archivo;
+    private final int capacidad;
+    //los reemplaza compactar con el monitor del diario y candadoForce tomados
+    private volatile FileChannel canal;
+    private volatile MappedByteBuffer buffer;
+    //bytes quitados por compactar: posicion logica = compactado + posicion en el archivo
+    private volatile long compactado;
+
+    //protegidos por el monitor del diario: las escrituras son secuenciales y no dejan huecos
+    private int siguiente;
+    private long secuencia;
+    private volatile long escritoHasta;
+
+    private final Object candadoForce = new Object();
+    private volatile long persistidoHasta;
+    private final LongAdder forces = new LongAdder();
+
+    //abre o crea el diario con espacio para capacidad registros; si ya existe continua despues de la ultima operacion completa
+    public DiarioTransacciones(Path archivo, int capacidad) throws IOException {
+        this.archivo = archivo;
+        this.capacidad = capacidad;
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacidad * TAMANO_REGISTRO);
+        recuperarFinal();
+    }
+
+    public synchronized long registrarAlta(Cuenta cuenta) {
+        return registrarAlta(cuenta, null);
+    }
+
+    //grupo de Banco.addCuenta(cuenta, grupo), null = sin grupo; va en registros GRUPO despues de la persona
+    public synchronized long registrarAlta(Cuenta cuenta, String grupo) {
+        BigDecimal saldo = cuenta.getSaldo();
+        long saldoSinEscala = sinEscala(saldo);
+        byte[] persona = cuenta.getPersona() == null ? null : cuenta.getPersona().getBytes(StandardCharsets.UTF_8);
+        int longitud = persona == null ? -1 : persona.length;
+        byte[] bytesGrupo = grupo == null ? new byte[0] : grupo.getBytes(StandardCharsets.UTF_8);
+        if (longitud > Short.MAX_VALUE || bytesGrupo.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Nombre de persona o grupo demasiado largo para el diario");
+        }
+        int continuaciones = longitud <= DATOS_ALTA ? 0 : (longitud - DATOS_ALTA + DATOS_PERSONA - 1) / DATOS_PERSONA;
+        int continuacionesGrupo = (bytesGrupo.length + DATOS_PERSONA - 1) / DATOS_PERSONA;
+        asegurarEspacio(1 + continuaciones + continuacionesGrupo);
+        long sec = ++secuencia;
+        int pendientes = continuaciones + continuacionesGrupo;
+
+        int base = reservar();
+        buffer.putLong(base + POS_SECUENCIA, sec);
+        buffer.put(base + POS_BANDERAS, pendientes == 0 ? FIN : 0);
+        buffer.putShort(base + POS_LONGITUD, (short) longitud);
+        buffer.putInt(base + POS_ESCALA_SALDO, saldo.scale());
+        buffer.putLong(base + POS_CUENTA, cuenta.getId());
+        buffer.putLong(base + POS_SALDO, saldoSinEscala);
+        buffer.putInt(base + POS_LONGITUD_GRUPO, bytesGrupo.length);
+        buffer.putInt(base + POS_ESCALA_MONTO, cuenta.isEscalada() ? cuenta.getEscala() : -1);
+        if (persona != null) {
+            buffer.put(base + POS_DATOS_ALTA, persona, 0, Math.min(longitud, DATOS_ALTA));
+        }
+        buffer.put(base + POS_TIPO, ALTA);
+
+        for (int desde = DATOS_ALTA; desde < longitud; desde += DATOS_PERSONA) {
+            escribirContinuacion(sec, --pendientes == 0, cuenta, PERSONA, persona, desde);
+        }
+        for (int desde = 0; desde < bytesGrupo.length; desde += DATOS_PERSONA) {
+            escribirContinuacion(sec, --pendientes == 0, cuenta, GRUPO, bytesGrupo, desde);
+        }
+        return publicar();
+    }
+
+    public synchronized long registrarBaja(Cuenta cuenta) {
+        return registrarUno(BAJA, cuenta, cuenta.getSaldo(), null, SIN_RESERVA);
+    }
+
+    //saldo = el que le va a quedar a la cuenta, se anota antes de aplicar el movimiento
+    public synchronized long registrarDebito(Cuenta cuenta, BigDecimal monto, BigDecimal saldo) {
+        return registrarUno(DEBITO, cuenta, saldo, monto, SIN_RESERVA);
+    }
+
+    public synchronized long registrarCredito(Cuenta cuenta, BigDecimal monto, BigDecimal saldo) {
+        return registrarUno(CREDITO, cuenta, saldo, monto, SIN_RESERVA);
+    }
+
+    //credito de una transferencia desde otro banco, con el id de la reserva del origen
+    public synchronized long registrarCredito(Cuenta cuenta, BigDecimal monto, BigDecimal saldo, long reserva) {
+        return registrarUno(CREDITO, cuenta, saldo, monto, reserva);
+    }
+
+    public synchronized long registrarSaldo(Cuenta cuenta, BigDecimal saldo) {
+        return registrarUno(SALDO, cuenta, saldo, null, SIN_RESERVA);
+    }
+
+    public synchronized long registrarReserva(Cuenta origen, BigDecimal monto, BigDecimal saldo, long reserva) {
+        return registrarUno(RESERVA, origen, saldo, monto, reserva);
+    }
+
+    public synchronized long registrarConfirmacion(Cuenta origen, long reserva) {
+        return registrarUno(CONFIRMACION, origen, BigDecimal.ZERO, null, reserva);
+    }
+
+    //saldo = el de la cuenta con el monto apartado ya devuelto
+    public synchronized long registrarCancelacion(Cuenta origen, BigDecimal monto, BigDecimal saldo, long reserva) {
+        return registrarUno(CANCELACION, origen, saldo, monto, reserva);
+    }
+
+    //debito y credito de una transferencia en una sola operacion: al reproducir se aplican los dos o ninguno
+    public synchronized long registrarTransferencia(Cuenta origen, BigDecimal saldoOrigen, Cuenta destino, BigDecimal saldoDestino,
+                                                    BigDecimal monto) {
+        long[] valoresOrigen = valores(saldoOrigen, monto);
+        long[] valoresDestino = valores(saldoDestino, monto);
+        asegurarEspacio(2);
+        long sec = ++secuencia;
+        escribir(sec, DEBITO, false, origen, valoresOrigen, monto, SIN_RESERVA);
+        escribir(sec, CREDITO, true, destino, valoresDestino, monto, SIN_RESERVA);
+        return publicar();
+    }
+
+    //netos de un lote de transferencias (Banco.transferirLote): un registro por cuenta con neto distinto de cero,
+    //saldos[i] es el que le va a quedar a cuentas.get(i)
+    public synchronized long registrarNetos(List<Cuenta> cuentas, Map<Long, BigDecimal> netos, BigDecimal[] saldos) {
+        int total = 0;
+        long[][] valores = new long[cuentas.size()][];
+        for (int i = 0; i < cuentas.size(); i++) {
+            BigDecimal neto = netos.get(cuentas.get(i).getId());
+            if (neto.signum() != 0) {
+                valores[i] = valores(saldos[i], neto.abs());
+                total++;
+            }
+        }
+        if (total == 0) {
+            return escritoHasta;
+        }
+        asegurarEspacio(total);
+        long sec = ++secuencia;
+        int escritos = 0;
+        for (int i = 0; i < cuentas.size(); i++) {
+            if (valores[i] != null) {
+                BigDecimal neto = netos.get(cuentas.get(i).getId());
+                escribir(sec, neto.signum() > 0 ? CREDITO : DEBITO, ++escritos == total, cuentas.get(i), valores[i], neto.abs(),
+                        SIN_RESERVA);
+            }
+        }
+        return publicar();
+    }
+
+    /*
+    group commit: el primer hilo que llega hace un solo force de todo lo escrito hasta ese momento,
+    los que esperaban el monitor mientras tanto ya quedan cubiertos y regresan sin volver a hacer force
+     */
+    public void esperarPersistido(long posicion) {
+        if (persistidoHasta >= posicion) {
+            return;
+        }
+        synchronized (candadoForce) {
+            if (persistidoHasta >= posicion) {
+                return;
+            }
+            long desde = persistidoHasta;
+            long hasta = escritoHasta;
+            buffer.force((int) (desde - compactado), (int) (hasta - desde));
+            forces.increment();
+            persistidoHasta = hasta;
+        }
+    }
+
+    public void sincronizar() {
+        esperarPersistido(escritoHasta);
+    }
+
+    /*
+    reconstruye las cuentas y saldos del diario en el banco, que todavia no debe tener este diario asignado.
+    regresa cuantas operaciones completas se aplicaron
+     */
+    public int reproducir(Banco banco) {
+        return reproducir(banco, 0);
+    }
+
+    /*
+    igual que reproducir(banco) pero salta las operaciones con secuencia menor o igual a despuesDeSecuencia,
+    se usa para aplicar solo la cola del diario encima de una instantanea
+     */
+    public int reproducir(Banco banco, long despuesDeSecuencia) {
+        if (banco.getDiario() == this) {
+            throw new IllegalStateException("El diario se reproduce antes de asignarlo al banco");
+        }
+        int fin = (int) ((escritoHasta - compactado) / TAMANO_REGISTRO);
+        int operaciones = 0;
+        int i = 0;
+        while (i < fin) {
+            int base = i * TAMANO_REGISTRO;
+            if (buffer.getLong(base + POS_SECUENCIA) <= despuesDeSecuencia) {
+                i++;
+                continue;
+            }
+            byte tipo = buffer.get(base + POS_TIPO);
+            long cuentaId = buffer.getLong(base + POS_CUENTA);
+            BigDecimal saldo = BigDecimal.valueOf(buffer.getLong(base + POS_SALDO), buffer.getInt(base + POS_ESCALA_SALDO));
+            if (tipo == ALTA) {
+                int longitud = buffer.getShort(base + POS_LONGITUD);
+                String persona = null;
+                if (longitud >= 0) {
+                    byte[] bytes = new byte[longitud];
+                    buffer.get(base + POS_DATOS_ALTA, bytes, 0, Math.min(longitud, DATOS_ALTA));
+                    for (int desde = DATOS_ALTA; desde < longitud; desde += DATOS_PERSONA) {
+                        int continuacion = ++i * TAMANO_REGISTRO;
+                        buffer.get(continuacion + POS_DATOS_PERSONA, bytes, desde, buffer.getShort(continuacion + POS_LONGITUD));
+                    }
+                    persona = new String(bytes, StandardCharsets.UTF_8);
+                }
+                //los diarios anteriores a los grupos tienen 0 en este campo
+                int longitudGrupo = buffer.getInt(base + POS_LONGITUD_GRUPO);
+                String grupo = null;
+                if (longitudGrupo > 0) {
+                    byte[] bytes = new byte[longitudGrupo];
+                    for (int desde = 0; desde < longitudGrupo; desde += DATOS_PERSONA) {
+                        int continuacion = ++i * TAMANO_REGISTRO;
+                        buffer.get(continuacion + POS_DATOS_PERSONA, bytes, desde, buffer.getShort(continuacion + POS_LONGITUD));
+                    }
+                    grupo = new String(bytes, StandardCharsets.UTF_8);
+                }
+                int escala = buffer.getInt(base + POS_ESCALA_MONTO);
+                Cuenta existente = banco.findCuenta(cuentaId).orElse(null);
+                if (existente == null) {
+                    banco.addCuenta(new Cuenta(cuentaId, persona, saldo, escala), grupo);
+                } else {
+                    existente.setSaldo(saldo);
+                }
+            } else if (tipo == BAJA) {
+                banco.findCuenta(cuentaId).ifPresent(banco::removeCuenta);
+            } else if (tipo == CONFIRMACION) {
+                banco.restaurarFinDeReserva(buffer.getLong(base + POS_RESERVA));
+            } else {
+                Cuenta cuenta = banco.findCuenta(cuentaId).orElse(null);
+                long reserva = buffer.getLong(base + POS_RESERVA);
+                if (cuenta != null) {
+                    cuenta.setSaldo(saldo);
+                    if (tipo == RESERVA) {
+                        BigDecimal monto = BigDecimal.valueOf(buffer.getLong(base + POS_MONTO), buffer.getInt(base + POS_ESCALA_MONTO));
+                        banco.restaurarReserva(reserva, cuenta, monto);
+                    } else if (tipo == CANCELACION) {
+                        banco.restaurarFinDeReserva(reserva);
+                    } else if (tipo == CREDITO && reserva != SIN_RESERVA) {
+                        banco.restaurarAbono(reserva);
+                    }
+                }
+            }
+            if ((buffer.get(i * TAMANO_REGISTRO + POS_BANDERAS) & FIN) != 0) {
+                operaciones++;
+            }
+            i++;
+        }
+        return operaciones;
+    }
+
+    /*
+    quita del archivo las operaciones con secuencia menor o igual a hastaSecuencia, que ya estan en una instantanea
+    persistente; despues de compactar el diario solo sirve junto con esa instantanea (InstantaneaBanco.restaurar).
+    la cola se copia a un archivo nuevo que se fuerza a disco y reemplaza al diario con un movimiento atomico:
+    una caida a la mitad deja el diario anterior o el compactado, nunca uno a medias. la ultima operacion se conserva
+    aunque sea anterior, asi al reabrir el diario la secuencia continua donde iba.
+    las anotaciones esperan mientras se copia la cola. regresa cuantos registros se quitaron
+     */
+    public synchronized int compactar(long hastaSecuencia) throws IOException {
+        synchronized (candadoForce) {
+            int ultimaOperacion = siguiente;
+            while (ultimaOperacion > 0
+                    && buffer.getLong((ultimaOperacion - 1) * TAMANO_REGISTRO + POS_SECUENCIA) == secuencia) {
+                ultimaOperacion--;
+            }
+            int quitar = 0;
+            while (quitar < ultimaOperacion && buffer.getLong(quitar * TAMANO_REGISTRO + POS_SECUENCIA) <= hastaSecuencia) {
+                quitar++;
+            }
+            if (quitar == 0) {
+                return 0;
+            }
+            Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+            FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer copia;
+            try {
+                copia = nuevo.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacidad * TAMANO_REGISTRO);
+                copia.put(0, buffer, quitar * TAMANO_REGISTRO, (siguiente - quitar) * TAMANO_REGISTRO);
+                copia.force();
+                Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                nuevo.close();
+                Files.deleteIfExists(temporal);
+                throw e;
+            }
+            canal.close();
+            canal = nuevo;
+            buffer = copia;
+            compactado += (long) quitar * TAMANO_REGISTRO;
+            siguiente -= quitar;
+            //la cola copiada ya esta en disco; la posicion logica de escritoHasta no cambia
+            persistidoHasta = escritoHasta;
+            //el archivo ya se reemplazo: el nombre nuevo se fuerza despues de cambiar al canal nuevo
+            forzarCarpeta(archivo);
+            return quitar;
+        }
+    }
+
+    /*
+    fuerza a disco la carpeta del archivo, asi un Files.move hacia el ya sobrevive a una caida.
+    en sistemas que no permiten abrir una carpeta (Windows) no hay nada que forzar y no falla
+     */
+    static void forzarCarpeta(Path archivo) throws IOException {
+        Path carpeta = archivo.toAbsolutePath().getParent();
+        FileChannel canalCarpeta;
+        try {
+            canalCarpeta = FileChannel.open(carpeta, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (canalCarpeta) {
+            canalCarpeta.force(true);
+        }
+    }
+
+    public synchronized int getRegistros() {
+        return siguiente;
+    }
+
+    public synchronized long getUltimaSecuencia() {
+        return secuencia;
+    }
+
+    //cantidad de force realizados, con group commit es menor que la cantidad de operaciones
+    public long getForces() {
+        return forces.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sincronizar();
+        canal.close();
+    }
+
+    private long registrarUno(byte tipo, Cuenta cuenta, BigDecimal saldo, BigDecimal monto, long reserva) {
+        long[] valores = valores(saldo, monto);
+        asegurarEspacio(1);
+        escribir(++secuencia, tipo, true, cuenta, valores, monto, reserva);
+        return publicar();
+    }
+
+    //los valores se calculan antes de reservar el registro, si fallan no queda un hueco en el diario
+    private long[] valores(BigDecimal saldo, BigDecimal monto) {
+        return new long[]{sinEscala(saldo), saldo.scale(), monto == null ? 0 : sinEscala(monto)};
+    }
+
+    private void escribir(long sec, byte tipo, boolean fin, Cuenta cuenta, long[] valores, BigDecimal monto, long reserva) {
+        int base = reservar();
+        buffer.putLong(base + POS_SECUENCIA, sec);
+        buffer.put(base + POS_BANDERAS, fin ? FIN : 0);
+        buffer.putInt(base + POS_ESCALA_SALDO, (int) valores[1]);
+        buffer.putLong(base + POS_CUENTA, cuenta.getId());
+        buffer.putLong(base + POS_SALDO, valores[0]);
+        buffer.putLong(base + POS_MONTO, valores[2]);
+        buffer.putInt(base + POS_ESCALA_MONTO, monto == null ? 0 : monto.scale());
+        buffer.putLong(base + POS_RESERVA, reserva);
+        buffer.put(base + POS_TIPO, tipo);
+    }
+
+    //registro PERSONA o GRUPO con el siguiente fragmento de datos a partir de desde
+    private void escribirContinuacion(long sec, boolean fin, Cuenta cuenta, byte tipo, byte[] datos, int desde) {
+        int fragmento = Math.min(DATOS_PERSONA, datos.length - desde);
+        int base = reservar();
+        buffer.putLong(base + POS_SECUENCIA, sec);
+        buffer.put(base + POS_BANDERAS, fin ? FIN : 0);
+        buffer.putShort(base + POS_LONGITUD, (short) fragmento);
+        buffer.putLong(base + POS_CUENTA, cuenta.getId());
+        buffer.put(base + POS_DATOS_PERSONA, datos, desde, fragmento);
+        buffer.put(base + POS_TIPO, tipo);
+    }
+
+    private static long sinEscala(BigDecimal valor) {
+        //ArithmeticException si el valor sin escala no cabe en un long
+        return valor.unscaledValue().longValueExact();
+    }
+
+    private void asegurarEspacio(int registros) {
+        if (siguiente + registros > capacidad) {
+            throw new DiarioLlenoException("Diario lleno: capacidad de " + capacidad + " registros");
+        }
+    }
+
+    private int reservar() {
+        return siguiente++ * TAMANO_REGISTRO;
+    }
+
+    private long publicar() {
+        escritoHasta = compactado + (long) siguiente * TAMANO_REGISTRO;
+        return escritoHasta;
+    }
+
+    //busca el final de la ultima operacion completa y limpia los registros de una operacion que quedo a medias
+    private void recuperarFinal() {
+        int ultimoCompleto = 0;
+        int i = 0;
+        while (i < capacidad && buffer.get(i * TAMANO_REGISTRO + POS_TIPO) != 0) {
+            int base = i * TAMANO_REGISTRO;
+            if ((buffer.get(base + POS_BANDERAS) & FIN) != 0) {
+                ultimoCompleto = i + 1;
+                secuencia = buffer.getLong(base + POS_SECUENCIA);
+            }
+            i++;
+        }
+        for (int j = ultimoCompleto * TAMANO_REGISTRO; j < i * TAMANO_REGISTRO; j++) {
+            buffer.put(j, (byte) 0);
+        }
+        siguiente = ultimoCompleto;
+        escritoHasta = (long) siguiente * TAMANO_REGISTRO;
+        persistidoHasta = escritoHasta;
+    }
+}
@@ -0,0 +1,237 @@
+package org.emgs.junit5app.ejemplos.persistencia;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/*
+instantanea binaria de un banco y sus cuentas para reiniciar sin reproducir todo el diario.
+se escribe sin detener las transferencias (checkpoint difuso): antes de copiar se anota la ultima secuencia
+del diario y cada saldo se lee de forma atomica por cuenta; al restaurar se aplican encima solo las operaciones
+del diario posteriores a esa secuencia, que guardan saldos absolutos, asi el resultado es un corte consistente.
+cada saldo se lee con el candado de su cuenta: un movimiento se anota en el diario antes de aplicarse y los dos pasos
+van dentro del candado, asi la instantanea ya incluye todo lo anotado hasta esa secuencia.
+sin diario la instantanea solo es consistente por cuenta.
+
+las reservas y abonos de transferencias entre bancos en curso se leen despues de todos los saldos: una reserva se
+aparta con el candado de su cuenta y se quita antes de anotar su fin, asi lo que se guarda cuadra con los saldos
+y con la cola del diario.
+
+formato: MAGICO, VERSION, secuencia del diario, cantidad de cuentas, nombre del banco y despues por cuenta:
+id, escala de la cuenta, escala del saldo, saldo sin escala (long o bytes de BigInteger), persona y grupo.
+al final las reservas (cantidad y por cada una id, cuenta y monto) y los abonos (cantidad e ids).
+la version 1 no tenia el grupo y la 2 no tenia reservas ni abonos; se siguen leyendo
+ */
+public class InstantaneaBanco {
+    static final int MAGICO = 0x42414E43; //"BANC"
+    static final int VERSION = 3;
+    private static final int VERSION_SIN_GRUPOS = 1;
+    private static final int VERSION_SIN_RESERVAS = 2;
+    private static final byte SALDO_LONG = 0;
+    private static final byte SALDO_BYTES = 1;
+    private static final int SIN_TEXTO = -1;
+    //una instantanea a la vez: dos escrituras encimadas se pisarian el temporal y una vieja podria quedar
+    //encima de una nueva despues de que esta ya compacto el diario
+    private static final Object ESCRIBIENDO = new Object();
+
+    private InstantaneaBanco() {
+    }
+
+    /*
+    escribe primero a un archivo temporal, lo fuerza a disco y lo mueve al final, asi la ultima instantanea siempre
+    esta completa aunque el sistema se caiga. con diario, ya persistente la instantanea se compacta el diario hasta
+    su secuencia: la recuperacion solo reproduce la cola y el diario no se llena con lo que ya esta aqui.
+    antes de compactar tambien se fuerza la carpeta, asi el cambio de nombre ya es persistente: sin eso una caida
+    podria dejar el diario compactado junto a la instantanea anterior. las escrituras concurrentes se hacen una por una
+     */
+    public static void escribir(Banco banco, Path archivo) throws IOException {
+        synchronized (ESCRIBIENDO) {
+            escribirSola(banco, archivo);
+        }
+    }
+
+    private static void escribirSola(Banco banco, Path archivo) throws IOException {
+        DiarioTransacciones diario = banco.getDiario();
+        long secuencia = diario == null ? 0 : diario.getUltimaSecuencia();
+        List<Cuenta> cuentas = banco.getCuentas();
+
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16))) {
+            salida.writeInt(MAGICO);
+            salida.writeInt(VERSION);
+            salida.writeLong(secuencia);
+            salida.writeInt(cuentas.size());
+            escribirTexto(salida, banco.getNombre());
+            for (Cuenta cuenta : cuentas) {
+                salida.writeLong(cuenta.getId());
+                salida.writeInt(cuenta.isEscalada() ? cuenta.getEscala() : -1);
+                escribirDecimal(salida, cuenta.getSaldoAnotado());
+                escribirTexto(salida, cuenta.getPersona());
+                escribirTexto(salida, cuenta.getGrupo());
+            }
+            List<Banco.Reserva> reservas = banco.getReservas();
+            salida.writeInt(reservas.size());
+            for (Banco.Reserva reserva : reservas) {
+                salida.writeLong(reserva.getId());
+                salida.writeLong(reserva.getCuenta().getId());
+                escribirDecimal(salida, reserva.getMonto());
+            }
+            Set<Long> abonos = banco.getAbonos();
+            salida.writeInt(abonos.size());
+            for (long abono : abonos) {
+                salida.writeLong(abono);
+            }
+            salida.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        DiarioTransacciones.forzarCarpeta(archivo);
+        if (diario != null) {
+            diario.compactar(secuencia);
+        }
+    }
+
+    public static CompletableFuture<Path> escribirEnSegundoPlano(Banco banco, Path archivo, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                escribir(banco, archivo);
+                return archivo;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    //lee la instantanea desde el archivo mapeado en memoria, sin copiarlo a un arreglo intermedio
+    public static Banco leer(Path archivo) throws IOException {
+        return leerConSecuencia(archivo).banco;
+    }
+
+    //instantanea mas la cola del diario: el banco queda con el estado de la ultima operacion completa y con el diario asignado
+    public static Banco restaurar(Path archivo, DiarioTransacciones diario) throws IOException {
+        Leida leida = leerConSecuencia(archivo);
+        diario.reproducir(leida.banco, leida.secuencia);
+        leida.banco.setDiario(diario);
+        return leida.banco;
+    }
+
+    private static Leida leerConSecuencia(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            int version = buffer.getInt() == MAGICO ? buffer.getInt() : -1;
+            if (version != VERSION && version != VERSION_SIN_RESERVAS && version != VERSION_SIN_GRUPOS) {
+                throw new IOException("El archivo no es una instantanea de banco: " + archivo);
+            }
+            long secuencia = buffer.getLong();
+            int total = buffer.getInt();
+            String nombre = leerTexto(buffer);
+
+            List<Cuenta> cuentas = new ArrayList<>(total);
+            Map<Long, String> grupos = new HashMap<>(); //solo las cuentas con grupo
+            for (int i = 0; i < total; i++) {
+                long id = buffer.getLong();
+                int escala = buffer.getInt();
+                BigDecimal saldo = leerDecimal(buffer);
+                cuentas.add(new Cuenta(id, leerTexto(buffer), saldo, escala));
+                String grupo = version == VERSION_SIN_GRUPOS ? null : leerTexto(buffer);
+                if (grupo != null) {
+                    grupos.put(id, grupo);
+                }
+            }
+            Banco banco = new Banco(total);
+            banco.setNombre(nombre);
+            banco.cargarCuentas(cuentas, cuenta -> grupos.get(cuenta.getId()));
+            if (version == VERSION) {
+                int reservas = buffer.getInt();
+                for (int i = 0; i < reservas; i++) {
+                    long id = buffer.getLong();
+                    Cuenta origen = banco.findCuenta(buffer.getLong()).orElseThrow();
+                    banco.restaurarReserva(id, origen, leerDecimal(buffer));
+                }
+                int abonos = buffer.getInt();
+                for (int i = 0; i < abonos; i++) {
+                    banco.restaurarAbono(buffer.getLong());
+                }
+            }
+            return new Leida(banco, secuencia);
+        }
+    }
+
+    //escala y valor sin escala: long si cabe, si no los bytes del BigInteger
+    private static void escribirDecimal(DataOutputStream salida, BigDecimal valor) throws IOException {
+        salida.writeInt(valor.scale());
+        BigInteger sinEscala = valor.unscaledValue();
+        if (sinEscala.bitLength() < 64) {
+            salida.writeByte(SALDO_LONG);
+            salida.writeLong(sinEscala.longValue());
+        } else {
+            byte[] bytes = sinEscala.toByteArray();
+            salida.writeByte(SALDO_BYTES);
+            salida.writeInt(bytes.length);
+            salida.write(bytes);
+        }
+    }
+
+    private static BigDecimal leerDecimal(MappedByteBuffer buffer) {
+        int escala = buffer.getInt();
+        if (buffer.get() == SALDO_LONG) {
+            return BigDecimal.valueOf(buffer.getLong(), escala);
+        }
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new BigDecimal(new BigInteger(bytes), escala);
+    }
+
+    private static void escribirTexto(DataOutputStream salida, String texto) throws IOException {
+        if (texto == null) {
+            salida.writeInt(SIN_TEXTO);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        salida.writeInt(bytes.length);
+        salida.write(bytes);
+    }
+
+    private static String leerTexto(MappedByteBuffer buffer) {
+        int longitud = buffer.getInt();
+        if (longitud == SIN_TEXTO) {
+            return null;
+        }
+        byte[] bytes = new byte[longitud];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Leida {
+        final Banco banco;
+        final long secuencia;
+
+        Leida(Banco banco, long secuencia) {
+            this.banco = banco;
+            this.secuencia = secuencia;
+        }
+    }
+}
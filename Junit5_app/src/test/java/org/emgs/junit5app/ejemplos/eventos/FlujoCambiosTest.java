@@ -0,0 +1,248 @@
+package org.emgs.junit5app.ejemplos.eventos;
+
+import org.emgs.junit5app.ejemplos.metricas.Operacion;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.Transferencia;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("eventos")
+class FlujoCambiosTest {
+    Banco banco;
+    Cuenta cuenta1;
+    Cuenta cuenta2;
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco();
+        cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        cuenta2 = new Cuenta("Eduardo", new BigDecimal("100.50"), 2);
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testEventosDeLosMovimientos() {
+        FlujoCambios flujo = new FlujoCambios(8, Contrapresion.BLOQUEAR);
+        banco.setFlujoCambios(flujo);
+        List<String> recibidos = new ArrayList<>();
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> recibidos.add(cambio.getSecuencia() + " "
+                + cambio.getOperacion() + " " + cambio.getCuenta() + " " + cambio.getSaldo() + " " + cambio.getMonto()
+                + " " + cambio.getContraparte() + " " + cambio.getSaldoContraparte() + (finDeLote ? " fin" : "")));
+
+        cuenta1.debito(new BigDecimal("500"));
+        cuenta2.creditoUnidades(50);
+        assertFalse(cuenta2.tryDebito(new BigDecimal("1000")).isAplicada()); //el rechazo no publica nada
+        banco.transferir(cuenta1, cuenta2, new BigDecimal("99.50"));
+        assertEquals(3, suscripcion.procesar());
+        assertEquals(0, suscripcion.procesar());
+
+        assertEquals(List.of(
+                "0 DEBITO " + cuenta1.getId() + " 2000 500 -1 null",
+                "1 CREDITO " + cuenta2.getId() + " 101.00 0.50 -1 null",
+                "2 TRANSFERENCIA " + cuenta1.getId() + " 1900.50 99.50 " + cuenta2.getId() + " 200.50 fin"), recibidos);
+        assertEquals(2, suscripcion.getSecuencia());
+    }
+
+    @Test
+    @DisplayName("lotes, setSaldo y aplicarATodas publican un evento neto por cuenta")
+    void testEventosDeLotesYMasivos() {
+        Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("10"));
+        banco.addCuenta(cuenta3);
+        FlujoCambios flujo = new FlujoCambios(16, Contrapresion.BLOQUEAR);
+        banco.setFlujoCambios(flujo);
+        List<String> recibidos = new ArrayList<>();
+        Map<Long, Long> ultimaVersion = new HashMap<>();
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> {
+            recibidos.add(cambio.getOperacion() + " " + cambio.getCuenta() + " " + cambio.getSaldo() + " " + cambio.getMonto());
+            assertEquals(0, cambio.getVersion() & 1);
+            assertTrue(cambio.getVersion() > ultimaVersion.getOrDefault(cambio.getCuenta(), -1L));
+            ultimaVersion.put(cambio.getCuenta(), cambio.getVersion());
+        });
+
+        //cuenta3 recibe 5 y paga 5: neto cero, no publica
+        banco.transferirLote(List.of(
+                new Transferencia(cuenta1, cuenta3, new BigDecimal("5")),
+                new Transferencia(cuenta3, cuenta2, new BigDecimal("5")),
+                new Transferencia(cuenta1, cuenta2, new BigDecimal("10"))));
+        cuenta3.setSaldo(new BigDecimal("4"));
+        banco.aplicarInteres(new BigDecimal("0.01"), 2, RoundingMode.HALF_EVEN);
+        suscripcion.procesar();
+
+        assertEquals(List.of(
+                "DEBITO " + cuenta1.getId() + " 2485 15",
+                "CREDITO " + cuenta2.getId() + " 115.50 15",
+                "DEBITO " + cuenta3.getId() + " 4 6"), recibidos.subList(0, 3));
+        assertEquals(6, recibidos.size());
+        assertTrue(recibidos.contains("CREDITO " + cuenta1.getId() + " 2509.85 24.85"));
+        assertTrue(recibidos.contains("CREDITO " + cuenta2.getId() + " 116.66 1.16"));
+        assertTrue(recibidos.contains("CREDITO " + cuenta3.getId() + " 4.04 0.04"));
+    }
+
+    @Test
+    void testVersionesOrdenanLosCambiosDeUnaCuenta() {
+        FlujoCambios flujo = new FlujoCambios(8, Contrapresion.BLOQUEAR);
+        banco.setFlujoCambios(flujo);
+        List<Long> versiones = new ArrayList<>();
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> versiones.add(cambio.getVersion()));
+        cuenta1.credito(BigDecimal.ONE);
+        cuenta1.credito(BigDecimal.ONE);
+        suscripcion.procesar();
+        assertEquals(2, versiones.size());
+        assertTrue(versiones.get(0) < versiones.get(1));
+        assertEquals(0, versiones.get(1) & 1); //version par: sin escritura a la mitad
+    }
+
+    @Test
+    void testContinuarDesdeSecuencia() {
+        FlujoCambios flujo = new FlujoCambios(4, Contrapresion.DESCARTAR);
+        banco.setFlujoCambios(flujo);
+        for (int i = 0; i < 6; i++) {
+            cuenta1.credito(BigDecimal.ONE); //sin suscripciones los eventos viejos se sobreescriben
+        }
+        List<Long> secuencias = new ArrayList<>();
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> secuencias.add(cambio.getSecuencia()), 3);
+        assertEquals(3, suscripcion.procesar());
+        assertEquals(List.of(3L, 4L, 5L), secuencias);
+        assertEquals(0, suscripcion.getPerdidos());
+
+        assertThrows(IllegalArgumentException.class, () -> flujo.suscribir((cambio, finDeLote) -> { }, 1));
+        assertThrows(IllegalArgumentException.class, () -> flujo.suscribir((cambio, finDeLote) -> { }, 7));
+        assertThrows(IllegalArgumentException.class, () -> new FlujoCambios(6, Contrapresion.BLOQUEAR));
+    }
+
+    @Test
+    void testDescartarCuandoEstaLleno() {
+        FlujoCambios flujo = new FlujoCambios(4, Contrapresion.DESCARTAR);
+        banco.setFlujoCambios(flujo);
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> { });
+        for (int i = 0; i < 10; i++) {
+            cuenta1.credito(BigDecimal.ONE); //el movimiento se aplica aunque el evento se descarte
+        }
+        assertEquals(0, new BigDecimal("2510").compareTo(cuenta1.getSaldo()));
+        assertEquals(3, flujo.getSecuencia());
+        assertEquals(6, flujo.getDescartados());
+
+        assertEquals(4, suscripcion.procesar());
+        cuenta1.credito(BigDecimal.ONE);
+        assertEquals(4, flujo.getSecuencia());
+    }
+
+    @Test
+    void testMuestrearConMasDeLaMitadOcupada() {
+        FlujoCambios flujo = new FlujoCambios(8, Contrapresion.MUESTREAR, 2);
+        banco.setFlujoCambios(flujo);
+        flujo.suscribir((cambio, finDeLote) -> { });
+        for (int i = 0; i < 20; i++) {
+            cuenta1.credito(BigDecimal.ONE);
+        }
+        //5 eventos hasta la mitad, luego uno de cada dos hasta llenar (3 de 6) y despues todos se descartan
+        assertEquals(7, flujo.getSecuencia());
+        assertEquals(12, flujo.getDescartados());
+    }
+
+    @Test
+    @DisplayName("bloquear no pierde eventos con varios publicadores")
+    void testBloquearConcurrente() throws InterruptedException {
+        FlujoCambios flujo = new FlujoCambios(16, Contrapresion.BLOQUEAR);
+        banco.setFlujoCambios(flujo);
+        long[] anterior = {-1};
+        Map<Long, CambioSaldo> ultimos = new HashMap<>();
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> {
+            assertEquals(anterior[0] + 1, cambio.getSecuencia());
+            anterior[0] = cambio.getSecuencia();
+            guardarUltimo(ultimos, cambio.getCuenta(), cambio.getSaldo(), cambio.getVersion());
+            if (cambio.getOperacion() == Operacion.TRANSFERENCIA) {
+                guardarUltimo(ultimos, cambio.getContraparte(), cambio.getSaldoContraparte(), cambio.getVersionContraparte());
+            }
+        });
+        suscripcion.iniciar(executor);
+
+        Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("300"));
+        banco.addCuenta(cuenta3);
+        List<Cuenta> cuentas = List.of(cuenta1, cuenta2, cuenta3);
+        ExecutorService publicadores = Executors.newFixedThreadPool(4);
+        for (int h = 0; h < 4; h++) {
+            long semilla = h;
+            publicadores.submit(() -> {
+                Random random = new Random(semilla);
+                for (int i = 0; i < 2000; i++) {
+                    Cuenta cuenta = cuentas.get(random.nextInt(cuentas.size()));
+                    if (random.nextBoolean()) {
+                        cuenta.credito(new BigDecimal("0.50"));
+                    } else {
+                        banco.tryTransferir(cuenta, cuentas.get(random.nextInt(cuentas.size())), new BigDecimal("1.50"));
+                    }
+                }
+            });
+        }
+        publicadores.shutdown();
+        assertTrue(publicadores.awaitTermination(60, TimeUnit.SECONDS));
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (suscripcion.getSecuencia() < flujo.getSecuencia() && System.nanoTime() < limite) {
+            Thread.sleep(1);
+        }
+        suscripcion.close();
+
+        assertNull(suscripcion.getError());
+        assertEquals(flujo.getSecuencia(), suscripcion.getSecuencia());
+        assertEquals(0, flujo.getDescartados());
+        synchronized (ultimos) {
+            for (Cuenta cuenta : cuentas) {
+                assertEquals(0, cuenta.getSaldo().compareTo(ultimos.get(cuenta.getId()).getSaldo()));
+            }
+        }
+    }
+
+    @Test
+    @Tag("error")
+    void testManejadorConErrorCierraLaSuscripcion() throws InterruptedException {
+        FlujoCambios flujo = new FlujoCambios(4, Contrapresion.BLOQUEAR);
+        banco.setFlujoCambios(flujo);
+        Suscripcion suscripcion = flujo.suscribir((cambio, finDeLote) -> {
+            throw new IllegalStateException("sistema de riesgo caido");
+        });
+        suscripcion.iniciar(executor);
+        cuenta1.credito(BigDecimal.ONE);
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!suscripcion.isCerrada() && System.nanoTime() < limite) {
+            Thread.sleep(1);
+        }
+        assertInstanceOf(IllegalStateException.class, suscripcion.getError());
+        for (int i = 0; i < 10; i++) {
+            cuenta1.credito(BigDecimal.ONE); //ya no hay quien frene, no se bloquea
+        }
+        assertEquals(10, flujo.getSecuencia());
+    }
+
+    //el consumidor corre en un solo hilo; el sincronizado es para leer el resultado desde el hilo del test
+    private static void guardarUltimo(Map<Long, CambioSaldo> ultimos, long cuenta, BigDecimal saldo, long version) {
+        synchronized (ultimos) {
+            CambioSaldo ultimo = ultimos.get(cuenta);
+            if (ultimo == null || ultimo.getVersion() < version) {
+                CambioSaldo copia = new CambioSaldo(); //los eventos del flujo se reutilizan, se guarda una copia
+                copia.llenar(0, null, cuenta, saldo, version, FlujoCambios.SIN_CONTRAPARTE, null, 0, null);
+                ultimos.put(cuenta, copia);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.emgs.junit5app.ejemplos.metricas;
+
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.LimitesVelocidad;
+import org.junit.jupiter.api.*;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("metricas")
+class MetricasBancoTest {
+    MetricasBanco metricas = MetricasBanco.getInstancia();
+    Banco banco;
+    Cuenta cuenta1;
+    Cuenta cuenta2;
+
+    @BeforeEach
+    void setUp() {
+        metricas.reiniciar();
+        banco = new Banco();
+        cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        metricas.setActivas(false);
+        metricas.reiniciar();
+    }
+
+    @Test
+    @DisplayName("apagadas no registran nada")
+    void testApagadas() {
+        metricas.setActivas(false);
+        cuenta1.debito(BigDecimal.TEN);
+        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+        assertThrows(DineroInsuficienteException.class, () -> cuenta2.debito(new BigDecimal("1000")));
+
+        assertEquals(MetricasBanco.SIN_MEDIR, metricas.iniciar());
+        assertEquals(0, metricas.getDebitos() + metricas.getTransferencias() + metricas.getRechazos());
+    }
+
+    @Test
+    void testOperacionesYRechazos() {
+        metricas.setActivas(true);
+        cuenta1.debito(BigDecimal.TEN);
+        cuenta1.credito(BigDecimal.TEN);
+        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+        banco.transferir(cuenta2, cuenta1, BigDecimal.ONE);
+        assertThrows(DineroInsuficienteException.class, () -> cuenta2.debito(new BigDecimal("1000")));
+        assertThrows(DineroInsuficienteException.class, () -> banco.transferir(cuenta2, cuenta1, new BigDecimal("1000")));
+
+        ResumenMetricas resumen = metricas.resumen();
+        assertEquals(1, resumen.getOperaciones(Operacion.DEBITO));
+        assertEquals(1, resumen.getOperaciones(Operacion.CREDITO));
+        assertEquals(2, resumen.getOperaciones(Operacion.TRANSFERENCIA));
+        assertEquals(1, resumen.getRechazos(Operacion.DEBITO));
+        assertEquals(1, resumen.getRechazos(Operacion.TRANSFERENCIA));
+        assertEquals(2, metricas.getRechazos());
+        assertTrue(resumen.getLatencias(Operacion.TRANSFERENCIA).getMaximo() > 0);
+    }
+
+    @Test
+    @DisplayName("los rechazos por limite se cuentan aparte de los de falta de saldo")
+    void testRechazosPorLimite() {
+        metricas.setActivas(true);
+        banco.setLimites(new LimitesVelocidad(Duration.ofMinutes(1), 6, 1, new BigDecimal("1000")));
+        cuenta1.debito(BigDecimal.ONE);
+        assertFalse(cuenta1.tryDebito(BigDecimal.ONE).isAplicada()); //segundo debito en la ventana
+        assertFalse(banco.tryTransferir(cuenta1, cuenta2, BigDecimal.ONE).isAplicada());
+        assertFalse(cuenta2.tryDebito(new BigDecimal("1001")).isAplicada()); //pasa el limite de monto
+
+        ResumenMetricas resumen = metricas.resumen();
+        assertEquals(2, resumen.getRechazosPorLimite(Operacion.DEBITO));
+        assertEquals(1, resumen.getRechazosPorLimite(Operacion.TRANSFERENCIA));
+        assertEquals(0, resumen.getRechazos(Operacion.DEBITO));
+        assertEquals(0, metricas.getRechazos());
+        assertEquals(3, metricas.getRechazosPorLimite());
+    }
+
+    @Test
+    @DisplayName("las variantes en unidades minimas cuentan igual que las de BigDecimal")
+    void testOperacionesEnUnidades() {
+        metricas.setActivas(true);
+        Cuenta escalada = new Cuenta("Ana", new BigDecimal("10.00"), 2);
+        banco.addCuenta(escalada);
+        escalada.debitoUnidades(100);
+        escalada.creditoUnidades(250);
+        assertFalse(escalada.tryDebitoUnidades(100_000).isAplicada());
+
+        ResumenMetricas resumen = metricas.resumen();
+        assertEquals(1, resumen.getOperaciones(Operacion.DEBITO));
+        assertEquals(1, resumen.getOperaciones(Operacion.CREDITO));
+        assertEquals(1, resumen.getRechazos(Operacion.DEBITO));
+        assertEquals("11.50", escalada.getSaldo().toPlainString());
+    }
+
+    @Test
+    void testHistogramaPercentiles() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        for (int i = 1; i <= 10_000; i++) {
+            histograma.registrar(i * 100L);
+        }
+        assertEquals(10_000, histograma.getCantidad());
+        assertEquals(1_000_000, histograma.getMaximo());
+        assertEquals(500_050, histograma.getMedia(), 0.001);
+        //error relativo menor a 1/16 por la resolucion de las cubetas
+        assertEquals(500_000, histograma.getPercentil(50), 500_000 / 16.0);
+        assertEquals(990_000, histograma.getPercentil(99), 990_000 / 16.0);
+        assertEquals(1_000_000, histograma.getPercentil(100));
+
+        HistogramaLatencia vacio = new HistogramaLatencia();
+        assertEquals(0, vacio.getPercentil(99));
+        vacio.registrar(7);
+        assertEquals(7, vacio.getPercentil(50));
+    }
+
+    @Test
+    void testCubetasContinuas() {
+        for (long valor = 0; valor < 100_000; valor++) {
+            int indice = HistogramaLatencia.indice(valor);
+            assertTrue(valor <= HistogramaLatencia.limiteSuperior(indice));
+            assertTrue(indice == 0 || valor > HistogramaLatencia.limiteSuperior(indice - 1));
+        }
+    }
+
+    @Test
+    void testReportePeriodico() throws InterruptedException {
+        metricas.setActivas(true);
+        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+        List<ResumenMetricas> recibidos = new CopyOnWriteArrayList<>();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledFuture<?> reporte = metricas.reportarCada(Duration.ofMillis(20), recibidos::add, executor);
+        TimeUnit.MILLISECONDS.sleep(200);
+        reporte.cancel(false);
+        executor.shutdown();
+
+        assertFalse(recibidos.isEmpty());
+        assertEquals(1, recibidos.get(0).getOperaciones(Operacion.TRANSFERENCIA));
+        assertTrue(recibidos.get(0).toString().contains("TRANSFERENCIA n=1"));
+    }
+
+    @Test
+    void testJmx() throws Exception {
+        ObjectName nombre = metricas.registrarJmx();
+        assertEquals(nombre, metricas.registrarJmx()); //registrar dos veces no falla
+        ManagementFactory.getPlatformMBeanServer().setAttribute(nombre, new javax.management.Attribute("Activas", true));
+        assertTrue(metricas.isActivas());
+        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(nombre, "Transferencias"));
+    }
+}
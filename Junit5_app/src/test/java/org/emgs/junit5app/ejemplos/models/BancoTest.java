@@ -0,0 +1,1017 @@
+package org.emgs.junit5app.ejemplos.models;
+
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.exceptions.LimiteExcedidoException;
+import org.emgs.junit5app.ejemplos.persistencia.DiarioTransacciones;
+import org.emgs.junit5app.ejemplos.persistencia.InstantaneaBanco;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BancoTest {
+    Banco banco;
+
+    @BeforeEach
+    void initBanco() {
+        banco = new Banco();
+        banco.setNombre("banamex");
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("transferencias concurrentes")
+    class TransferenciaConcurrenteTest {
+        static final int CUENTAS = 50;
+        static final int HILOS = 16;
+        static final int TRANSFERENCIAS_POR_HILO = 5000;
+
+        @Test
+        @DisplayName("el dinero total se conserva con muchos hilos transfiriendo")
+        void testDineroTotalSeConserva() throws Exception {
+            List<Cuenta> cuentas = new ArrayList<>();
+            for (int i = 0; i < CUENTAS; i++) {
+                Cuenta cuenta = new Cuenta("persona" + i, new BigDecimal("1000.50"));
+                banco.addCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+            BigDecimal totalInicial = total(cuentas);
+
+            ExecutorService executor = Executors.newFixedThreadPool(HILOS);
+            List<Future<?>> tareas = new ArrayList<>();
+            CountDownLatch inicio = new CountDownLatch(1); //todos los hilos arrancan al mismo tiempo
+            for (int h = 0; h < HILOS; h++) {
+                long semilla = h;
+                tareas.add(executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    inicio.await();
+                    for (int i = 0; i < TRANSFERENCIAS_POR_HILO; i++) {
+                        //origen y destino pueden coincidir, tambien debe ser atomico
+                        Cuenta origen = cuentas.get(random.nextInt(CUENTAS));
+                        Cuenta destino = cuentas.get(random.nextInt(CUENTAS));
+                        try {
+                            banco.transferir(origen, destino, new BigDecimal(random.nextInt(300) + ".25"));
+                        } catch (DineroInsuficienteException e) {
+                            //las transferencias rechazadas no deben mover dinero
+                        }
+                    }
+                    return null;
+                }));
+            }
+            inicio.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS), () -> "las transferencias no terminaron a tiempo");
+            for (Future<?> tarea : tareas) {
+                tarea.get(); //relanza la falla de cualquier hilo
+            }
+
+            assertEquals(0, totalInicial.compareTo(total(cuentas)), () -> "el dinero total del banco cambio");
+            assertTrue(cuentas.stream().allMatch(c -> c.getSaldo().compareTo(BigDecimal.ZERO) >= 0),
+                    () -> "ninguna cuenta puede quedar en negativo");
+        }
+
+        @Test
+        @DisplayName("getSaldoTotal nunca ve una transferencia a medias, aun con escritores concurrentes")
+        void testSaldoTotalConsistente() throws Exception {
+            List<Cuenta> cuentas = new ArrayList<>();
+            for (int i = 0; i < CUENTAS; i++) {
+                //mitad escaladas, mitad BigDecimal
+                Cuenta cuenta = i % 2 == 0 ? new Cuenta("persona" + i, new BigDecimal("1000.50"), 2) : new Cuenta("persona" + i, new BigDecimal("1000.50"));
+                banco.addCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+            BigDecimal totalInicial = banco.getSaldoTotal();
+            assertEquals(0, totalInicial.compareTo(new BigDecimal("50025")));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 3; h++) {
+                long semilla = h;
+                tareas.add(executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < TRANSFERENCIAS_POR_HILO; i++) {
+                        banco.tryTransferir(cuentas.get(random.nextInt(CUENTAS)), cuentas.get(random.nextInt(CUENTAS)), new BigDecimal(random.nextInt(300) + ".25"));
+                    }
+                }));
+            }
+            List<BigDecimal> leidos = new ArrayList<>();
+            tareas.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    leidos.add(banco.getSaldoTotal());
+                }
+            }));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            assertEquals(2000, leidos.size());
+            assertTrue(leidos.stream().allMatch(t -> t.compareTo(totalInicial) == 0), () -> "un total leido no cuadra");
+            assertEquals(0, totalInicial.compareTo(banco.getSaldoTotal()));
+        }
+
+        @Test
+        @Timeout(10)
+        @DisplayName("transferencias cruzadas en sentido contrario no se bloquean")
+        void testSinInterbloqueo() throws Exception {
+            //con saldo suficiente para que ninguna transferencia se rechace y los dos hilos compitan todo el tiempo
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100000"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100000"));
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> ida = executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+                });
+                Future<?> vuelta = executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) banco.transferir(cuenta2, cuenta1, BigDecimal.ONE);
+                });
+                //get relanza la excepcion de un hilo que termino antes de tiempo
+                ida.get();
+                vuelta.get();
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals("100000", cuenta1.getSaldo().toPlainString());
+            assertEquals("100000", cuenta2.getSaldo().toPlainString());
+        }
+
+        private BigDecimal total(List<Cuenta> cuentas) {
+            return cuentas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("lote de transferencias")
+    class TransferenciaLoteTest {
+        Cuenta cuenta1;
+        Cuenta cuenta2;
+        Cuenta cuenta3;
+
+        @BeforeEach
+        void initCuentas() {
+            cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+            cuenta2 = new Cuenta("Eduardo", new BigDecimal("1500.8989"));
+            cuenta3 = new Cuenta("Ana", new BigDecimal("0"));
+        }
+
+        @Test
+        void testLoteAplicaNetos() {
+            banco.transferirLote(Arrays.asList(
+                    new Transferencia(cuenta2, cuenta1, new BigDecimal("500")),
+                    new Transferencia(cuenta1, cuenta3, new BigDecimal("2800")), //solo alcanza por el neto del lote
+                    new Transferencia(cuenta3, cuenta2, new BigDecimal("100.5"))));
+            assertAll(
+                    () -> assertEquals("200", cuenta1.getSaldo().toPlainString()),
+                    () -> assertEquals("1101.3989", cuenta2.getSaldo().toPlainString()),
+                    () -> assertEquals("2699.5", cuenta3.getSaldo().toPlainString()));
+        }
+
+        @Test
+        @Tag("error")
+        void testLoteTodoONada() {
+            Exception exception = assertThrows(DineroInsuficienteException.class, () -> banco.transferirLote(Arrays.asList(
+                    new Transferencia(cuenta2, cuenta1, new BigDecimal("500")),
+                    new Transferencia(cuenta3, cuenta2, new BigDecimal("1")))));
+            assertEquals("Dinero insuficiente", exception.getMessage());
+            assertEquals("2500", cuenta1.getSaldo().toPlainString());
+            assertEquals("1500.8989", cuenta2.getSaldo().toPlainString());
+            assertEquals("0", cuenta3.getSaldo().toPlainString());
+        }
+
+        @Test
+        @Tag("error")
+        void testLoteRevierteSiFallaUnaCuentaEscalada() {
+            Cuenta escalada = new Cuenta("Luca", new BigDecimal("10"), 2);
+            //la cuenta escalada no puede representar 3 decimales, el credito ya aplicado se revierte
+            assertThrows(ArithmeticException.class, () -> banco.transferirLote(Arrays.asList(
+                    new Transferencia(cuenta2, cuenta1, new BigDecimal("500")),
+                    new Transferencia(cuenta1, escalada, new BigDecimal("0.001")))));
+            assertEquals(0, new BigDecimal("2500").compareTo(cuenta1.getSaldo()));
+            assertEquals(0, new BigDecimal("1500.8989").compareTo(cuenta2.getSaldo()));
+            assertEquals("10", escalada.getSaldo().toPlainString());
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("intereses y comisiones a todas las cuentas")
+    class MovimientoMasivoTest {
+        @Test
+        void testInteresConRedondeoBancario() {
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("1500.8989"));
+            Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("1000.00"), 2);
+            Cuenta cuenta4 = new Cuenta("Luca", new BigDecimal("0"));
+            banco.cargarCuentas(Arrays.asList(cuenta1, cuenta2, cuenta3, cuenta4));
+
+            //0.5% de interes: 12.5, 7.5044945 y 5.00 a 2 decimales con HALF_EVEN
+            ResultadoMasivo resultado = banco.aplicarInteres(new BigDecimal("0.005"), 2, RoundingMode.HALF_EVEN);
+            assertAll(
+                    () -> assertEquals("2512.50", cuenta1.getSaldo().toPlainString()),
+                    () -> assertEquals("1508.3989", cuenta2.getSaldo().toPlainString()),
+                    () -> assertEquals("1005.00", cuenta3.getSaldo().toPlainString()),
+                    () -> assertEquals("0", cuenta4.getSaldo().toPlainString()),
+                    () -> assertEquals(3, resultado.getAplicadas()), //sin interes la cuenta en cero no cambia
+                    () -> assertEquals("25.00", resultado.getTotal().toPlainString()),
+                    () -> assertTrue(resultado.getFallos().isEmpty()));
+        }
+
+        @Test
+        @Tag("error")
+        void testComisionJuntaLosSobregirosSinDetenerse() {
+            List<Cuenta> cuentas = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                cuentas.add(new Cuenta("persona" + i, new BigDecimal(i % 10 == 0 ? "5" : "100")));
+            }
+            Cuenta escalada = new Cuenta("Luca", new BigDecimal("100"), 0); //no puede representar centavos
+            cuentas.add(escalada);
+            banco.cargarCuentas(cuentas);
+
+            ResultadoMasivo resultado = banco.cobrarComision(new BigDecimal("12.50"));
+            assertEquals(9_000, resultado.getAplicadas());
+            assertEquals(1_001, resultado.getFallos().size());
+            assertTrue(resultado.getFallos().get(cuentas.get(0).getId()) instanceof DineroInsuficienteException);
+            assertTrue(resultado.getFallos().get(escalada.getId()) instanceof ArithmeticException);
+            assertEquals("5", cuentas.get(0).getSaldo().toPlainString());
+            assertEquals("87.50", cuentas.get(1).getSaldo().toPlainString());
+            assertEquals("-112500.00", resultado.getTotal().toPlainString());
+        }
+
+        @Test
+        void testMovimientoEnPoolPropioConTransferenciasEnCurso() throws Exception {
+            List<Cuenta> cuentas = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                Cuenta cuenta = new Cuenta("persona" + i, new BigDecimal("1000"));
+                cuentas.add(cuenta);
+            }
+            banco.cargarCuentas(cuentas);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                long semilla = h;
+                tareas.add(executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < 5_000; i++) {
+                        banco.transferir(cuentas.get(random.nextInt(1_000)), cuentas.get(random.nextInt(1_000)), BigDecimal.ONE);
+                    }
+                }));
+            }
+            ForkJoinPool pool = new ForkJoinPool(4);
+            ResultadoMasivo resultado = banco.aplicarATodas(saldo -> BigDecimal.TEN, 0, RoundingMode.UNNECESSARY, pool);
+            pool.shutdown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            //cada cuenta recibe sus 10 exactamente una vez, sin perder ninguna transferencia
+            assertEquals(1_000, resultado.getAplicadas());
+            BigDecimal total = cuentas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+            assertEquals("1010000", total.toPlainString());
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("busqueda de cuentas por indice")
+    class BusquedaCuentasTest {
+        @Test
+        void testFindCuentaPorPersonaYId() {
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("1500.8989"));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            assertAll(
+                    () -> assertSame(cuenta2, banco.findCuenta("Eduardo").orElseThrow()),
+                    () -> assertSame(cuenta1, banco.findCuenta(cuenta1.getId()).orElseThrow()),
+                    () -> assertFalse(banco.findCuenta("Ana").isPresent()),
+                    () -> assertEquals(2, banco.getCuentas().size()));
+
+            cuenta2.setPersona("Ana"); //el indice por persona se actualiza
+            assertFalse(banco.findCuenta("Eduardo").isPresent());
+            assertSame(cuenta2, banco.findCuenta("Ana").orElseThrow());
+
+            assertTrue(banco.removeCuenta(cuenta1));
+            assertFalse(banco.findCuenta(cuenta1.getId()).isPresent());
+            assertFalse(banco.findCuenta("John Doe").isPresent());
+            assertNull(cuenta1.getBanco());
+        }
+
+        @Test
+        void testCargaMasiva() {
+            List<Cuenta> nuevas = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                nuevas.add(new Cuenta("persona" + (i % 5000), new BigDecimal(i)));
+            }
+            Banco grande = new Banco(nuevas.size());
+            grande.cargarCuentas(nuevas);
+
+            assertEquals(10_000, grande.getCuentas().size());
+            assertEquals(2, grande.findCuentas("persona42").size());
+            assertSame(nuevas.get(42), grande.findCuenta("persona42").orElseThrow());
+            assertSame(grande, nuevas.get(9999).getBanco());
+        }
+
+        @Test
+        void testAltasYBajasConcurrentes() throws Exception {
+            List<Cuenta> nuevas = new ArrayList<>();
+            for (int i = 0; i < 4000; i++) {
+                nuevas.add(new Cuenta("persona" + i, BigDecimal.TEN));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (Cuenta cuenta : nuevas) {
+                tareas.add(executor.submit(() -> {
+                    banco.addCuenta(cuenta);
+                    //las cuentas pares se dan de baja, las impares se quedan
+                    if (cuenta.getPersona().hashCode() % 2 == 0) {
+                        banco.removeCuenta(cuenta);
+                    }
+                }));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            List<Cuenta> restantes = banco.getCuentas();
+            for (Cuenta cuenta : nuevas) {
+                boolean debeEstar = cuenta.getPersona().hashCode() % 2 != 0;
+                assertEquals(debeEstar, restantes.contains(cuenta));
+                assertEquals(debeEstar, banco.findCuenta(cuenta.getId()).isPresent());
+                assertEquals(debeEstar, banco.findCuenta(cuenta.getPersona()).isPresent());
+            }
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("saldos agregados por banco y por grupo")
+    class AgregadosTest {
+        Cuenta monterrey;
+        Cuenta saltillo;
+        Cuenta merida;
+        Cuenta sinGrupo;
+
+        @BeforeEach
+        void initGrupos() {
+            monterrey = new Cuenta("John Doe", new BigDecimal("1000"));
+            saltillo = new Cuenta("Eduardo", new BigDecimal("500.50"), 2);
+            merida = new Cuenta("Ana", new BigDecimal("300"));
+            sinGrupo = new Cuenta("Luis", new BigDecimal("200"));
+            banco.addCuenta(monterrey, "norte/monterrey");
+            banco.addCuenta(saltillo, "norte/saltillo");
+            banco.addCuenta(merida, "sur/merida");
+            banco.addCuenta(sinGrupo);
+        }
+
+        @Test
+        void testAgregadosConMovimientos() {
+            assertEquals("2000.50", banco.getSaldoAgregado().toPlainString());
+            assertEquals(0, banco.getSaldoGrupo("norte").compareTo(new BigDecimal("1500.50")));
+            assertEquals(2, banco.getCantidadCuentas("norte"));
+            assertEquals(4, banco.getCantidadCuentas());
+            assertEquals("norte/saltillo", saltillo.getGrupo());
+
+            monterrey.debito(new BigDecimal("100"));
+            saltillo.credito(new BigDecimal("0.50"));
+            saltillo.debitoUnidades(100);
+            banco.transferir(monterrey, saltillo, new BigDecimal("50")); //no cambia "norte"
+            banco.transferir(merida, sinGrupo, new BigDecimal("25"));
+            banco.transferirLote(Arrays.asList(new Transferencia(sinGrupo, merida, new BigDecimal("5")),
+                    new Transferencia(saltillo, merida, new BigDecimal("10"))));
+            banco.cobrarComision(BigDecimal.ONE);
+            sinGrupo.setSaldo(new BigDecimal("1000"));
+
+            assertEquals(0, banco.getSaldoAgregado().compareTo(banco.getSaldoTotal()));
+            assertEquals(0, banco.getSaldoGrupo("norte").compareTo(monterrey.getSaldo().add(saltillo.getSaldo())));
+            assertEquals(0, banco.getSaldoGrupo("norte/saltillo").compareTo(saltillo.getSaldo()));
+            assertEquals(0, banco.getSaldoGrupo("sur").compareTo(merida.getSaldo()));
+            assertEquals(0, banco.getSaldoGrupo("centro").signum());
+            assertTrue(banco.verificarAgregados().isEmpty());
+
+            banco.removeCuenta(merida);
+            assertEquals(0, banco.getSaldoGrupo("sur").signum());
+            assertEquals(0, banco.getCantidadCuentas("sur/merida"));
+            assertEquals(3, banco.getCantidadCuentas());
+            assertNull(merida.getGrupo());
+            assertTrue(banco.verificarAgregados().isEmpty());
+        }
+
+        @Test
+        @Tag("error")
+        void testGrupoInvalido() {
+            assertThrows(IllegalArgumentException.class, () -> banco.addCuenta(new Cuenta("X", BigDecimal.ONE), "norte//x"));
+            assertThrows(IllegalArgumentException.class, () -> banco.addCuenta(new Cuenta("X", BigDecimal.ONE), "este/"));
+            assertEquals(4, banco.getCantidadCuentas());
+            assertFalse(banco.getGrupos().contains("este")); //no deja grupos vacios a medias
+            //una cuenta repetida no crea su grupo
+            banco.addCuenta(monterrey, "oeste");
+            assertFalse(banco.getGrupos().contains("oeste"));
+            assertEquals("norte/monterrey", monterrey.getGrupo());
+        }
+
+        @Test
+        void testAgregadosEnUnidades() {
+            Cuenta centavos = new Cuenta("Rosa", new BigDecimal("10.00"), 2);
+            Cuenta milesimas = new Cuenta("Pedro", new BigDecimal("1.000"), 3);
+            banco.addCuenta(centavos, "norte/saltillo");
+            banco.addCuenta(milesimas, "norte/saltillo");
+            centavos.creditoUnidades(125);
+            assertTrue(centavos.tryDebitoUnidades(5).isAplicada());
+            milesimas.creditoUnidades(1);
+            assertFalse(milesimas.tryDebitoUnidades(5000).isAplicada());
+            saltillo.debitoUnidades(50);
+
+            assertEquals(0, banco.getSaldoGrupo("norte/saltillo")
+                    .compareTo(saltillo.getSaldo().add(centavos.getSaldo()).add(milesimas.getSaldo())));
+            assertEquals(0, banco.getSaldoAgregado().compareTo(banco.getSaldoTotal()));
+            assertTrue(banco.verificarAgregados().isEmpty());
+            banco.removeCuenta(centavos);
+            assertEquals(0, banco.getSaldoGrupo("norte/saltillo").compareTo(saltillo.getSaldo().add(milesimas.getSaldo())));
+        }
+
+        @Test
+        @Tag("error")
+        @DisplayName("el modo verificacion detecta agregados que no cuadran")
+        void testModoVerificacion() {
+            banco.setModoVerificacion(true);
+            assertEquals("2000.50", banco.getSaldoAgregado().toPlainString());
+            saltillo.getAgregados()[1].sumar(BigDecimal.ONE); //simula un movimiento que no paso por los agregados
+            assertEquals(1, banco.verificarAgregados().size());
+            assertTrue(banco.verificarAgregados().get(0).startsWith("grupo norte:"));
+            assertThrows(IllegalStateException.class, () -> banco.getSaldoGrupo("norte"));
+        }
+
+        @Test
+        void testAgregadosConcurrentes() throws Exception {
+            List<Cuenta> cuentas = banco.getCuentas();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                long semilla = h;
+                tareas.add(executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < 5000; i++) {
+                        Cuenta cuenta = cuentas.get(random.nextInt(cuentas.size()));
+                        switch (random.nextInt(3)) {
+                            case 0:
+                                cuenta.credito(new BigDecimal("1.25"));
+                                break;
+                            case 1:
+                                cuenta.tryDebito(new BigDecimal("1.25"));
+                                break;
+                            default:
+                                banco.tryTransferir(cuenta, cuentas.get(random.nextInt(cuentas.size())), new BigDecimal("3.50"));
+                        }
+                    }
+                }));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            assertEquals(Collections.emptyList(), banco.verificarAgregados());
+            assertEquals(0, banco.getSaldoAgregado().compareTo(banco.getSaldoTotal()));
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("transferencias con clave de idempotencia")
+    class IdempotenciaTest {
+        AtomicLong reloj = new AtomicLong();
+        RegistroIdempotencia registro = new RegistroIdempotencia(Duration.ofMinutes(10), 4, 1, reloj::get);
+        Cuenta origen;
+        Cuenta destino;
+
+        @BeforeEach
+        void initRegistro() {
+            banco.setIdempotencia(registro);
+            origen = new Cuenta("John Doe", new BigDecimal("100"));
+            destino = new Cuenta("Eduardo", new BigDecimal("0"));
+            banco.addCuenta(origen);
+            banco.addCuenta(destino);
+        }
+
+        @Test
+        void testReintentoNoRepiteLaTransferencia() {
+            banco.transferir("pago-1", origen, destino, new BigDecimal("30"));
+            banco.transferir("pago-1", origen, destino, new BigDecimal("30.00")); //mismo monto con otra escala
+            assertEquals("70", origen.getSaldo().toPlainString());
+            assertEquals("30", destino.getSaldo().toPlainString());
+            assertEquals(1, registro.getRepetidas());
+
+            banco.transferir("pago-2", origen, destino, new BigDecimal("30"));
+            assertEquals("40", origen.getSaldo().toPlainString());
+        }
+
+        @Test
+        @Tag("error")
+        void testRechazoTambienSeRecuerda() {
+            assertFalse(banco.tryTransferir("pago-1", origen, destino, new BigDecimal("500")).isAplicada());
+            origen.credito(new BigDecimal("1000"));
+            assertThrows(DineroInsuficienteException.class, () -> banco.transferir("pago-1", origen, destino, new BigDecimal("500")));
+            assertTrue(banco.tryTransferir("pago-2", origen, destino, new BigDecimal("500")).isAplicada());
+            assertEquals("500", destino.getSaldo().toPlainString());
+        }
+
+        @Test
+        @Tag("error")
+        void testClaveConOtraTransferencia() {
+            banco.transferir("pago-1", origen, destino, BigDecimal.TEN);
+            assertThrows(IllegalArgumentException.class, () -> banco.transferir("pago-1", origen, destino, BigDecimal.ONE));
+            assertThrows(IllegalArgumentException.class, () -> banco.transferir("pago-1", destino, origen, BigDecimal.TEN));
+            assertEquals("90", origen.getSaldo().toPlainString());
+
+            banco.setIdempotencia(null);
+            assertThrows(IllegalStateException.class, () -> banco.transferir("pago-3", origen, destino, BigDecimal.ONE));
+        }
+
+        @Test
+        @DisplayName("las claves expiran con la ventana y el registro no pasa del maximo")
+        void testExpiracionYMaximo() {
+            banco.transferir("pago-1", origen, destino, BigDecimal.ONE);
+            reloj.addAndGet(Duration.ofMinutes(11).toNanos());
+            banco.transferir("pago-1", origen, destino, BigDecimal.ONE); //ya expiro, se vuelve a ejecutar
+            assertEquals("98", origen.getSaldo().toPlainString());
+            assertEquals(1, registro.size());
+
+            for (int i = 2; i <= 6; i++) {
+                banco.transferir("pago-" + i, origen, destino, BigDecimal.ONE);
+            }
+            assertEquals(4, registro.size());
+            assertEquals(2, registro.getDesalojadas());
+            assertEquals(0, registro.getRepetidas());
+        }
+
+        @Test
+        @Tag("error")
+        @DisplayName("si la transferencia lanza una excepcion la clave se olvida")
+        void testExcepcionOlvidaLaClave() {
+            Cuenta escalada = new Cuenta("Ana", new BigDecimal("5.00"), 2);
+            banco.addCuenta(escalada);
+            //el monto no cabe en la escala del origen: el debito lanza la excepcion sin mover nada
+            assertThrows(ArithmeticException.class, () -> banco.transferir("pago-1", escalada, destino, new BigDecimal("0.001")));
+            assertThrows(ArithmeticException.class, () -> banco.transferir("pago-1", escalada, destino, new BigDecimal("0.001")));
+            assertEquals(0, registro.size());
+            assertEquals("5.00", escalada.getSaldo().toPlainString());
+            banco.transferir("pago-1", escalada, destino, new BigDecimal("0.01"));
+            assertEquals("4.99", escalada.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("con muchas claves y desalojos el indice sigue encontrando las ultimas")
+        void testMuchasClaves() {
+            RegistroIdempotencia chico = new RegistroIdempotencia(Duration.ofMinutes(10), 64, 1, reloj::get);
+            banco.setIdempotencia(chico);
+            origen.credito(new BigDecimal("10000"));
+            for (int i = 0; i < 1000; i++) {
+                banco.transferir("pago-" + i, origen, destino, BigDecimal.ONE);
+            }
+            for (int i = 1000 - 64; i < 1000; i++) {
+                banco.transferir("pago-" + i, origen, destino, BigDecimal.ONE);
+            }
+            assertEquals(64, chico.getRepetidas());
+            assertEquals(1000 - 64, chico.getDesalojadas());
+            assertEquals("1000", destino.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("con el fragmento lleno una clave en curso no se desaloja y su reintento recibe el resultado")
+        void testClaveEnCursoNoSeDesaloja() throws Exception {
+            RegistroIdempotencia lleno = new RegistroIdempotencia(Duration.ofMinutes(10), 1, 1, reloj::get);
+            CountDownLatch enCurso = new CountDownLatch(1);
+            CountDownLatch terminar = new CountDownLatch(1);
+            AtomicInteger ejecuciones = new AtomicInteger();
+            FutureTask<ResultadoOperacion> primera = new FutureTask<>(() -> lleno.ejecutar("pago-1", origen, destino, BigDecimal.TEN, () -> {
+                ejecuciones.incrementAndGet();
+                enCurso.countDown();
+                try {
+                    terminar.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return ResultadoOperacion.APLICADA;
+            }));
+            FutureTask<ResultadoOperacion> otra = new FutureTask<>(() -> lleno.ejecutar("pago-2", origen, destino, BigDecimal.ONE, () -> {
+                ejecuciones.incrementAndGet();
+                return ResultadoOperacion.DINERO_INSUFICIENTE;
+            }));
+            FutureTask<ResultadoOperacion> reintento = new FutureTask<>(() -> lleno.ejecutar("pago-1", origen, destino, BigDecimal.TEN, () -> {
+                ejecuciones.incrementAndGet();
+                return ResultadoOperacion.DINERO_INSUFICIENTE;
+            }));
+            new Thread(primera).start();
+            assertTrue(enCurso.await(10, TimeUnit.SECONDS));
+            Thread hiloOtra = new Thread(otra);
+            Thread hiloReintento = new Thread(reintento);
+            hiloOtra.start();
+            hiloReintento.start();
+            //los dos quedan esperando en el monitor del fragmento: la clave nueva no desaloja a la que sigue en curso
+            while (hiloOtra.getState() != Thread.State.WAITING || hiloReintento.getState() != Thread.State.WAITING) {
+                assertTrue(hiloOtra.isAlive() && hiloReintento.isAlive());
+                Thread.sleep(1);
+            }
+            assertEquals(0, lleno.getDesalojadas());
+            terminar.countDown();
+
+            assertEquals(ResultadoOperacion.APLICADA, primera.get(10, TimeUnit.SECONDS));
+            assertEquals(ResultadoOperacion.APLICADA, reintento.get(10, TimeUnit.SECONDS));
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, otra.get(10, TimeUnit.SECONDS));
+            assertEquals(2, ejecuciones.get(), () -> "pago-1 se ejecuto una sola vez");
+            assertEquals(1, lleno.getRepetidas());
+            assertEquals(1, lleno.getDesalojadas());
+        }
+
+        @Test
+        @Tag("error")
+        void testMaximoPorFragmento() {
+            assertThrows(IllegalArgumentException.class, () -> new RegistroIdempotencia(Duration.ofMinutes(10), 63));
+            RegistroIdempotencia chico = new RegistroIdempotencia(Duration.ofMinutes(10), 64); //un solo fragmento de 64
+            banco.setIdempotencia(chico);
+            origen.credito(new BigDecimal("1000"));
+            for (int i = 0; i < 64; i++) {
+                banco.transferir("pago-" + i, origen, destino, BigDecimal.ONE);
+            }
+            assertEquals(64, chico.size());
+            assertEquals(0, chico.getDesalojadas());
+        }
+
+        @Test
+        @DisplayName("reintentos concurrentes con la misma clave mueven el dinero una sola vez")
+        void testReintentosConcurrentes() throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> tareas = new ArrayList<>();
+            CountDownLatch salida = new CountDownLatch(1);
+            for (int i = 0; i < 8; i++) {
+                tareas.add(executor.submit(() -> {
+                    salida.await();
+                    return banco.tryTransferir("pago-1", origen, destino, new BigDecimal("60"));
+                }));
+            }
+            salida.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            assertEquals("40", origen.getSaldo().toPlainString());
+            assertEquals(7, registro.getRepetidas());
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("limites de velocidad por cuenta")
+    class LimitesVelocidadTest {
+        AtomicLong reloj = new AtomicLong();
+        //3 debitos y 100 por minuto, en 6 cubetas de 10 segundos
+        LimitesVelocidad limites = new LimitesVelocidad(Duration.ofMinutes(1), 6, 3, new BigDecimal("100"), reloj::get);
+        Cuenta origen;
+        Cuenta destino;
+
+        @BeforeEach
+        void initLimites() {
+            banco.setLimites(limites);
+            origen = new Cuenta("John Doe", new BigDecimal("1000"));
+            destino = new Cuenta("Eduardo", new BigDecimal("0"));
+            banco.addCuenta(origen);
+            banco.addCuenta(destino);
+        }
+
+        void avanzar(int segundos) {
+            reloj.addAndGet(TimeUnit.SECONDS.toNanos(segundos));
+        }
+
+        @Test
+        @Tag("error")
+        void testMaximoDeDebitos() {
+            origen.debito(BigDecimal.ONE);
+            origen.debito(BigDecimal.ONE);
+            banco.transferir(origen, destino, BigDecimal.ONE);
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, origen.tryDebito(BigDecimal.ONE));
+            assertThrows(LimiteExcedidoException.class, () -> origen.debito(BigDecimal.ONE));
+            assertThrows(LimiteExcedidoException.class, () -> banco.transferir(origen, destino, BigDecimal.ONE));
+            assertEquals("997", origen.getSaldo().toPlainString());
+            assertEquals("1", destino.getSaldo().toPlainString());
+            assertEquals(3, limites.getRechazosPorDebitos());
+
+            destino.debito(BigDecimal.ONE); //cada cuenta tiene su propia ventana
+            origen.credito(BigDecimal.TEN); //los creditos no se limitan
+            avanzar(60);
+            origen.debito(BigDecimal.ONE);
+        }
+
+        @Test
+        @Tag("error")
+        void testMaximoDeMonto() {
+            origen.debito(new BigDecimal("60"));
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, banco.tryTransferir(origen, destino, new BigDecimal("40.0001")));
+            banco.transferir(origen, destino, new BigDecimal("40"));
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, origen.tryDebito(new BigDecimal("0.01")));
+            assertEquals("900", origen.getSaldo().toPlainString());
+            assertEquals(2, limites.getRechazosPorMonto());
+        }
+
+        @Test
+        @Tag("error")
+        @DisplayName("un lote revisa y registra el neto de cada cuenta que paga")
+        void testLoteRespetaLimites() {
+            Cuenta tercera = new Cuenta("Ana", new BigDecimal("0"));
+            banco.addCuenta(tercera);
+            //neto de origen: -110, pasa el limite de 100; nada se aplica
+            assertThrows(LimiteExcedidoException.class, () -> banco.transferirLote(Arrays.asList(
+                    new Transferencia(origen, destino, new BigDecimal("60")),
+                    new Transferencia(origen, tercera, new BigDecimal("50")))));
+            assertEquals("1000", origen.getSaldo().toPlainString());
+            assertEquals("0", destino.getSaldo().toPlainString());
+            assertEquals(1, limites.getRechazosPorMonto());
+
+            //destino recibe 80 y paga 30: su neto es credito y no ocupa su ventana
+            banco.transferirLote(Arrays.asList(
+                    new Transferencia(origen, destino, new BigDecimal("40")),
+                    new Transferencia(origen, destino, new BigDecimal("40")),
+                    new Transferencia(destino, tercera, new BigDecimal("30"))));
+            assertEquals("920", origen.getSaldo().toPlainString());
+            assertEquals("50", destino.getSaldo().toPlainString());
+            //el lote quedo registrado como un debito de 80 del origen
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, origen.tryDebito(new BigDecimal("21")));
+            origen.debito(new BigDecimal("20"));
+            destino.debito(new BigDecimal("50"));
+        }
+
+        @Test
+        @DisplayName("la ventana se desliza por cubetas")
+        void testVentanaDeslizante() {
+            origen.debito(BigDecimal.ONE);   //t=0
+            avanzar(30);
+            origen.debito(BigDecimal.ONE);   //t=30
+            origen.debito(BigDecimal.ONE);   //t=30
+            avanzar(29);
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, origen.tryDebito(BigDecimal.ONE)); //t=59
+            avanzar(1);
+            origen.debito(BigDecimal.ONE);   //t=60, ya salio la cubeta de t=0
+            avanzar(20);
+            assertEquals(ResultadoOperacion.LIMITE_EXCEDIDO, origen.tryDebito(BigDecimal.ONE)); //t=80, siguen las de t=30
+            avanzar(10);
+            origen.debito(BigDecimal.ONE);   //t=90
+            origen.debito(BigDecimal.ONE);
+            assertEquals("994", origen.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("los rechazos por saldo no ocupan lugar en la ventana")
+        void testRechazoPorSaldoNoCuenta() {
+            Cuenta escalada = new Cuenta("Ana", new BigDecimal("5.00"), 2);
+            banco.addCuenta(escalada);
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, escalada.tryDebito(new BigDecimal("50")));
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, escalada.tryDebitoUnidades(1000));
+            escalada.debitoUnidades(100);
+            escalada.debitoUnidades(100);
+            escalada.debito(BigDecimal.ONE);
+            assertThrows(LimiteExcedidoException.class, () -> escalada.debitoUnidades(1));
+            assertEquals("2.00", escalada.getSaldo().toPlainString());
+
+            banco.setLimites(null);
+            escalada.debitoUnidades(1);
+        }
+
+        @Test
+        @DisplayName("con muchos hilos sobre la misma cuenta no se pasa del limite")
+        void testLimiteConcurrente() throws Exception {
+            banco.setLimites(new LimitesVelocidad(Duration.ofMinutes(1), 6, 100, new BigDecimal("1000"), reloj::get));
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 8; h++) {
+                tareas.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        if (i % 2 == 0) {
+                            origen.tryDebito(BigDecimal.ONE);
+                        } else {
+                            banco.tryTransferir(origen, destino, BigDecimal.ONE);
+                        }
+                    }
+                }));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+            assertEquals("900", origen.getSaldo().toPlainString());
+            assertEquals(300, banco.getLimites().getRechazosPorDebitos());
+        }
+    }
+
+    @Tag("banco")
+    @Nested
+    @DisplayName("banco repartido en fragmentos")
+    class BancoFragmentadoTest {
+        BancoFragmentado fragmentado;
+        Cuenta john;
+        Cuenta eduardo;
+
+        @BeforeEach
+        void initFragmentos() {
+            fragmentado = new BancoFragmentado(4);
+            for (int i = 0; i < 40; i++) {
+                fragmentado.addCuenta(new Cuenta("persona" + i, new BigDecimal("1000")));
+            }
+            john = fragmentado.findCuenta("persona1").orElseThrow();
+            //primera cuenta que quedo en otro fragmento que persona1
+            eduardo = fragmentado.getCuentas().stream().filter(c -> c.getBanco() != john.getBanco()).findFirst().orElseThrow();
+        }
+
+        @Test
+        void testCuentasRepartidasPorPersona() {
+            assertEquals(40, fragmentado.getCuentas().size());
+            for (Cuenta cuenta : fragmentado.getCuentas()) {
+                assertSame(fragmentado.fragmentoDe(cuenta.getPersona()), cuenta.getBanco());
+            }
+            assertTrue(fragmentado.getFragmentos().stream().allMatch(f -> !f.getCuentas().isEmpty()));
+        }
+
+        @Test
+        void testTransferenciaEntreFragmentos() {
+            fragmentado.transferir(john, eduardo, new BigDecimal("300"));
+            assertEquals("700", john.getSaldo().toPlainString());
+            assertEquals("1300", eduardo.getSaldo().toPlainString());
+            assertEquals(0, john.getBanco().getTotalReservado().signum());
+            assertEquals("40000", fragmentado.getTotal().toPlainString());
+        }
+
+        @Test
+        @Tag("error")
+        void testTransferenciaEntreFragmentosSinSaldo() {
+            assertThrows(DineroInsuficienteException.class, () -> fragmentado.transferir(john, eduardo, new BigDecimal("1500")));
+            assertEquals("1000", john.getSaldo().toPlainString());
+            assertEquals("1000", eduardo.getSaldo().toPlainString());
+            assertEquals(0, john.getBanco().getTotalReservado().signum());
+        }
+
+        @Test
+        @Tag("error")
+        @DisplayName("si el destino no puede acreditar se cancela la reserva y el origen recupera el dinero")
+        void testCreditoFallidoCancelaReserva() {
+            Banco otroFragmento = fragmentado.getFragmentos().stream().filter(f -> f != john.getBanco()).findFirst().orElseThrow();
+            //persona cuyo hash la manda a otro fragmento
+            String persona = java.util.stream.IntStream.range(0, 1000).mapToObj(i -> "escalada" + i)
+                    .filter(p -> fragmentado.fragmentoDe(p) == otroFragmento).findFirst().orElseThrow();
+            Cuenta escalada = new Cuenta(persona, new BigDecimal("10"), 2);
+            fragmentado.addCuenta(escalada);
+
+            assertThrows(ArithmeticException.class, () -> fragmentado.transferir(john, escalada, new BigDecimal("0.001")));
+            assertEquals(0, john.getSaldo().compareTo(new BigDecimal("1000")));
+            assertEquals(0, escalada.getSaldo().compareTo(BigDecimal.TEN));
+            assertEquals(0, john.getBanco().getTotalReservado().signum());
+        }
+
+        @Test
+        @DisplayName("despues de una caida cada reserva apartada se confirma o se devuelve segun su destino")
+        void testRecuperacionDeReservas(@TempDir Path carpeta) throws IOException {
+            Path fotoA = carpeta.resolve("a.foto");
+            Path fotoB = carpeta.resolve("b.foto");
+            Cuenta ana = new Cuenta("Ana", new BigDecimal("1000"));
+            Cuenta luis = new Cuenta("Luis", new BigDecimal("1000"));
+            try (DiarioTransacciones diarioA = new DiarioTransacciones(carpeta.resolve("a.diario"), 64);
+                 DiarioTransacciones diarioB = new DiarioTransacciones(carpeta.resolve("b.diario"), 64)) {
+                Banco a = new Banco();
+                Banco b = new Banco();
+                a.setDiario(diarioA);
+                b.setDiario(diarioB);
+                a.addCuenta(ana);
+                b.addCuenta(luis);
+                //la 1 cae entre el abono y la confirmacion, la 2 entre la reserva y el abono
+                a.reservar(ana, new BigDecimal("300"), 1);
+                b.abonar(luis, new BigDecimal("300"), 1);
+                a.reservar(ana, new BigDecimal("200"), 2);
+                //las instantaneas compactan los diarios: las reservas y el abono solo quedan en ellas
+                InstantaneaBanco.escribir(a, fotoA);
+                InstantaneaBanco.escribir(b, fotoB);
+                assertEquals(1, diarioA.getRegistros()); //compactar solo conserva la ultima operacion
+            }
+
+            try (DiarioTransacciones diarioA = new DiarioTransacciones(carpeta.resolve("a.diario"), 64);
+                 DiarioTransacciones diarioB = new DiarioTransacciones(carpeta.resolve("b.diario"), 64)) {
+                Banco a = InstantaneaBanco.restaurar(fotoA, diarioA);
+                Banco b = InstantaneaBanco.restaurar(fotoB, diarioB);
+                assertEquals("500", a.getTotalReservado().toPlainString());
+                assertEquals(Set.of(1L), b.getAbonos());
+
+                BancoFragmentado recuperado = new BancoFragmentado(List.of(a, b));
+                assertEquals("700", a.findCuenta("Ana").orElseThrow().getSaldo().toPlainString());
+                assertEquals("1300", b.findCuenta("Luis").orElseThrow().getSaldo().toPlainString());
+                assertEquals(0, a.getTotalReservado().signum());
+                assertTrue(b.getAbonos().isEmpty());
+                assertEquals("2000", recuperado.getTotal().toPlainString());
+            }
+
+            //la resolucion quedo anotada: otra recuperacion ya no encuentra nada en duda
+            try (DiarioTransacciones diarioA = new DiarioTransacciones(carpeta.resolve("a.diario"), 64)) {
+                Banco a = InstantaneaBanco.restaurar(fotoA, diarioA);
+                assertEquals(0, a.getTotalReservado().signum());
+                assertEquals("700", a.findCuenta("Ana").orElseThrow().getSaldo().toPlainString());
+            }
+        }
+
+        @Test
+        void testFindCuentaSinPersona() {
+            assertFalse(fragmentado.findCuenta(null).isPresent());
+        }
+
+        @Test
+        @Tag("error")
+        void testCuentaDeOtroBanco() {
+            Cuenta ajena = new Cuenta("Ana", BigDecimal.TEN);
+            banco.addCuenta(ajena);
+            assertThrows(IllegalArgumentException.class, () -> fragmentado.transferir(john, ajena, BigDecimal.ONE));
+        }
+
+        @Test
+        @DisplayName("el dinero total se conserva con transferencias concurrentes locales y entre fragmentos")
+        void testDineroTotalSeConserva() throws Exception {
+            List<Cuenta> cuentas = fragmentado.getCuentas();
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 8; h++) {
+                long semilla = h;
+                tareas.add(executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < 5000; i++) {
+                        try {
+                            fragmentado.transferir(cuentas.get(random.nextInt(cuentas.size())),
+                                    cuentas.get(random.nextInt(cuentas.size())), new BigDecimal(random.nextInt(300)));
+                        } catch (DineroInsuficienteException e) {
+                            //sin saldo no se mueve nada
+                        }
+                    }
+                }));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+            for (Future<?> tarea : tareas) {
+                tarea.get();
+            }
+
+            assertEquals("40000", fragmentado.getTotal().toPlainString());
+            for (Banco fragmento : fragmentado.getFragmentos()) {
+                assertEquals(0, fragmento.getTotalReservado().signum());
+            }
+            assertTrue(cuentas.stream().allMatch(c -> c.getSaldo().signum() >= 0));
+        }
+    }
+
+    @Test
+    @Tag("banco")
+    @Tag("error")
+    void testTransferenciaSinSaldoNoAcredita() {
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"));
+        assertThrows(DineroInsuficienteException.class, () -> banco.transferir(cuenta2, cuenta1, new BigDecimal("500")));
+        assertEquals("100", cuenta2.getSaldo().toPlainString());
+        assertEquals("2500", cuenta1.getSaldo().toPlainString());
+    }
+
+    @Test
+    @Tag("banco")
+    @Tag("error")
+    void testTryTransferirSinSaldo() {
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"));
+        assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, banco.tryTransferir(cuenta2, cuenta1, new BigDecimal("500")));
+        assertEquals("100", cuenta2.getSaldo().toPlainString());
+        assertEquals("2500", cuenta1.getSaldo().toPlainString());
+        assertEquals(ResultadoOperacion.APLICADA, banco.tryTransferir(cuenta1, cuenta2, new BigDecimal("500")));
+        assertEquals("600", cuenta2.getSaldo().toPlainString());
+    }
+}
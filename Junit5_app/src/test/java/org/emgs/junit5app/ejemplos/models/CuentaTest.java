@@ -125,6 +125,70 @@ class CuentaTest {
         }
     }
 
+    @Tag("cuenta")
+    @Nested
+    @DisplayName("cuenta con saldo escalado en long")
+    class CuentaEscaladaTest{
+        Cuenta escalada;
+
+        @BeforeEach
+        void initCuentaEscalada() {
+            escalada = new Cuenta("Eduardo", new BigDecimal("1000.12345"), 5);
+        }
+
+        @Test
+        void testDebitoCuentaEscalada() {
+            escalada.debito(new BigDecimal("100"));
+            assertEquals(90012345L, escalada.getUnidades());
+            assertEquals("900.12345", escalada.getSaldo().toPlainString());
+        }
+
+        @Test
+        void testCreditoCuentaEscalada() {
+            escalada.credito(new BigDecimal("100"));
+            assertEquals("1100.12345", escalada.getSaldo().toPlainString());
+        }
+
+        @Test
+        void testDebitoUnidades() {
+            escalada.debitoUnidades(12345L);
+            assertEquals("1000.00000", escalada.getSaldo().toPlainString());
+            assertThrows(DineroInsuficienteException.class, () -> escalada.debitoUnidades(100000001L));
+            assertEquals(100000000L, escalada.getUnidades());
+        }
+
+        @Test
+        void testTryDebitoUnidades() {
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, escalada.tryDebitoUnidades(100012346L));
+            assertEquals(100012345L, escalada.getUnidades());
+            assertEquals(ResultadoOperacion.APLICADA, escalada.tryDebitoUnidades(100012345L));
+            assertEquals(0L, escalada.getUnidades());
+        }
+
+        //el resultado debe ser identico (valor y escala) al calculado con BigDecimal
+        @ParameterizedTest(name="num {index} saldo {0} menos {1}")
+        @CsvSource({"2500,500","1500.8989,500","1000.12345,1000","250,0.5","1E+3,1"})
+        void testMismoResultadoQueBigDecimal(String saldo, String monto) {
+            Cuenta normal = new Cuenta("Ana", new BigDecimal(saldo));
+            Cuenta conEscala = new Cuenta("Ana", new BigDecimal(saldo), 5);
+            normal.debito(new BigDecimal(monto));
+            conEscala.debito(new BigDecimal(monto));
+            assertEquals(normal.getSaldo(), conEscala.getSaldo());
+            assertEquals(normal, conEscala);
+        }
+
+        @Test
+        @Tag("error")
+        void testErroresCuentaEscalada() {
+            assertThrows(DineroInsuficienteException.class, () -> escalada.debito(new BigDecimal("1500")));
+            assertEquals("1000.12345", escalada.getSaldo().toPlainString());
+            //mas decimales que la escala o desbordamiento del long no se redondean
+            assertThrows(ArithmeticException.class, () -> escalada.credito(new BigDecimal("0.000001")));
+            assertThrows(ArithmeticException.class, () -> escalada.creditoUnidades(Long.MAX_VALUE));
+            assertThrows(IllegalStateException.class, () -> cuenta.debitoUnidades(1L));
+        }
+    }
+
     @Test
     @Tag("cuenta")
     @Tag("error")
@@ -138,6 +202,35 @@ class CuentaTest {
         assertEquals(esperado,actual);
     }
 
+    @Test
+    @Tag("cuenta")
+    @Tag("error")
+    @DisplayName("tryDebito rechaza sin excepcion y sin modificar el saldo")
+    void testTryDebito() {
+        assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, cuenta.tryDebito(new BigDecimal("1500")));
+        assertEquals("1000.12345", cuenta.getSaldo().toPlainString());
+        assertEquals(ResultadoOperacion.APLICADA, cuenta.tryDebito(new BigDecimal("1000.12345")));
+        assertEquals(0, cuenta.getSaldo().signum());
+    }
+
+    @Test
+    @Tag("cuenta")
+    @Tag("error")
+    void testDineroInsuficienteExceptionSinTraza() {
+        assertTrue(DineroInsuficienteException.isConTraza());
+        DineroInsuficienteException.setConTraza(false);
+        try {
+            Exception exception = assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal("1500")));
+            assertEquals("Dinero insuficiente", exception.getMessage());
+            assertEquals(0, exception.getStackTrace().length);
+            exception.addSuppressed(new IllegalStateException("al cerrar"));
+            assertEquals(1, exception.getSuppressed().length); //sin traza pero con supresion
+        } finally {
+            DineroInsuficienteException.setConTraza(true);
+        }
+        assertTrue(assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal("1500"))).getStackTrace().length > 0);
+    }
+
     @Test
     //@Disabled
     @DisplayName("probando relaciones entre cuentas y banco con assertAll")
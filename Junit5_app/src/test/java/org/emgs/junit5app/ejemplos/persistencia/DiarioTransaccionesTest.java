@@ -0,0 +1,231 @@
+package org.emgs.junit5app.ejemplos.persistencia;
+
+import org.emgs.junit5app.ejemplos.exceptions.DiarioLlenoException;
+import org.emgs.junit5app.ejemplos.exceptions.DineroInsuficienteException;
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.emgs.junit5app.ejemplos.models.ResultadoMasivo;
+import org.emgs.junit5app.ejemplos.models.Transferencia;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("diario")
+class DiarioTransaccionesTest {
+    @TempDir
+    Path carpeta;
+    Path archivo;
+
+    @BeforeEach
+    void initArchivo() {
+        archivo = carpeta.resolve("banco.diario");
+    }
+
+    @Test
+    @DisplayName("reproducir el diario reconstruye cuentas y saldos")
+    void testReproducirDiario() throws IOException {
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        Cuenta cuenta2 = new Cuenta("Eduardo con un nombre bastante mas largo que veinte bytes y que cuarenta", new BigDecimal("1500.8989"));
+        Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("1000.12345"), 5);
+        Cuenta cuenta4 = new Cuenta("Luca", new BigDecimal("10"));
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 1024)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2, "norte");
+            banco.cargarCuentas(Arrays.asList(cuenta3, cuenta4), cuenta -> cuenta == cuenta3 ? "sur/merida" : null);
+
+            banco.transferir(cuenta2, cuenta1, new BigDecimal("500"));
+            cuenta3.debito(new BigDecimal("100"));
+            cuenta4.credito(new BigDecimal("0.5"));
+            banco.transferirLote(Arrays.asList(
+                    new Transferencia(cuenta1, cuenta4, new BigDecimal("1000")),
+                    new Transferencia(cuenta4, cuenta2, new BigDecimal("10.5"))));
+            assertThrows(DineroInsuficienteException.class, () -> banco.transferir(cuenta4, cuenta1, new BigDecimal("5000")));
+            banco.removeCuenta(cuenta1);
+        }
+
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 1024)) {
+            Banco restaurado = new Banco();
+            assertEquals(9, diario.reproducir(restaurado)); //4 altas, transferencia, debito, credito, lote y baja
+            assertEquals(3, restaurado.getCuentas().size());
+            assertFalse(restaurado.findCuenta(cuenta1.getId()).isPresent());
+            Cuenta restaurada2 = restaurado.findCuenta(cuenta2.getId()).orElseThrow();
+            Cuenta restaurada3 = restaurado.findCuenta("Ana").orElseThrow();
+            assertAll(
+                    () -> assertEquals(cuenta2.getPersona(), restaurada2.getPersona()),
+                    () -> assertEquals("1011.3989", restaurada2.getSaldo().toPlainString()),
+                    () -> assertEquals("900.12345", restaurada3.getSaldo().toPlainString()),
+                    () -> assertTrue(restaurada3.isEscalada()),
+                    () -> assertEquals("1000.0", restaurado.findCuenta("Luca").orElseThrow().getSaldo().toPlainString()),
+                    () -> assertEquals("norte", restaurada2.getGrupo()),
+                    () -> assertEquals("sur/merida", restaurada3.getGrupo()),
+                    () -> assertNull(restaurado.findCuenta("Luca").orElseThrow().getGrupo()),
+                    () -> assertEquals(0, restaurado.getSaldoGrupo("sur").compareTo(restaurada3.getSaldo())));
+            //las cuentas nuevas no repiten ids restaurados
+            assertTrue(new Cuenta("Nueva", BigDecimal.ONE).getId() > cuenta4.getId());
+        }
+    }
+
+    @Test
+    @DisplayName("una operacion incompleta al final del diario se descarta")
+    void testOperacionIncompletaSeDescarta() throws IOException {
+        Cuenta cuenta = new Cuenta("John Doe", new BigDecimal("2500"));
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 16)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            banco.addCuenta(cuenta);
+            cuenta.debito(new BigDecimal("100"));
+        }
+        //simula una caida a mitad de escribir una transferencia: un registro con tipo pero sin bandera FIN
+        try (RandomAccessFile raw = new RandomAccessFile(archivo.toFile(), "rw")) {
+            raw.seek(2L * DiarioTransacciones.TAMANO_REGISTRO + 8);
+            raw.write(DiarioTransacciones.DEBITO);
+        }
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 16)) {
+            assertEquals(2, diario.getRegistros());
+            Banco restaurado = new Banco();
+            assertEquals(2, diario.reproducir(restaurado));
+            assertEquals("2400", restaurado.findCuenta("John Doe").orElseThrow().getSaldo().toPlainString());
+        }
+    }
+
+    @Test
+    @DisplayName("varios hilos comparten el force del group commit")
+    void testGroupCommit() throws IOException, InterruptedException {
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 50_000)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100000"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100000"));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 2000; i++) {
+                boolean ida = i % 2 == 0;
+                executor.submit(() -> banco.transferir(ida ? cuenta1 : cuenta2, ida ? cuenta2 : cuenta1, BigDecimal.ONE));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+            assertEquals(2 + 2 * 2000, diario.getRegistros());
+            assertTrue(diario.getForces() <= 2002, () -> "cada operacion hace a lo mas un force");
+
+            Banco restaurado = new Banco();
+            diario.reproducir(restaurado);
+            assertEquals("100000", restaurado.findCuenta("John Doe").orElseThrow().getSaldo().toPlainString());
+            assertEquals("100000", restaurado.findCuenta("Eduardo").orElseThrow().getSaldo().toPlainString());
+        }
+    }
+
+    @Test
+    @Tag("error")
+    void testDiarioLleno() throws IOException {
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 1)) {
+            Cuenta cuenta = new Cuenta("John Doe", new BigDecimal("2500"));
+            diario.registrarAlta(cuenta);
+            assertThrows(DiarioLlenoException.class, () -> diario.registrarDebito(cuenta, BigDecimal.ONE, new BigDecimal("2499")));
+        }
+    }
+
+    @Test
+    @Tag("error")
+    @DisplayName("con el diario lleno los movimientos del banco fallan sin mover el dinero")
+    void testBancoConDiarioLleno() throws IOException {
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 2)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"), 2);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            assertThrows(IllegalStateException.class, () -> banco.transferir(cuenta1, cuenta2, BigDecimal.TEN));
+            assertThrows(IllegalStateException.class, () -> cuenta1.debito(BigDecimal.TEN));
+            assertThrows(IllegalStateException.class, () -> cuenta2.credito(BigDecimal.TEN));
+            assertThrows(IllegalStateException.class, () -> cuenta2.debitoUnidades(1000));
+            assertThrows(IllegalStateException.class, () -> cuenta1.setSaldo(BigDecimal.ONE));
+            assertThrows(IllegalStateException.class, () -> banco.transferirLote(Arrays.asList(
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.TEN))));
+            assertThrows(IllegalStateException.class, () -> banco.addCuenta(new Cuenta("Ana", BigDecimal.ONE)));
+            assertAll(
+                    () -> assertEquals("100", cuenta1.getSaldo().toPlainString()),
+                    () -> assertEquals("100", cuenta2.getSaldo().toPlainString()),
+                    () -> assertEquals(0, banco.getSaldoAgregado().compareTo(new BigDecimal("200"))),
+                    () -> assertEquals(2, banco.getCuentas().size()),
+                    () -> assertFalse(banco.findCuenta("Ana").isPresent()),
+                    () -> assertEquals(2, diario.getRegistros()));
+        }
+    }
+
+    @Test
+    @Tag("error")
+    @DisplayName("con el diario lleno a la mitad de un movimiento masivo las cuentas sin anotar quedan en los fallos")
+    void testMasivoConDiarioLleno() throws IOException {
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 3)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"), 2);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            ResultadoMasivo resultado = banco.aplicarInteres(new BigDecimal("0.1"), 2, RoundingMode.HALF_EVEN);
+            assertEquals(1, resultado.getAplicadas());
+            assertEquals(1, resultado.getFallos().size());
+            RuntimeException fallo = resultado.getFallos().values().iterator().next();
+            assertInstanceOf(DiarioLlenoException.class, fallo);
+            BigDecimal total = cuenta1.getSaldo().add(cuenta2.getSaldo());
+            assertAll(
+                    () -> assertEquals(0, total.compareTo(new BigDecimal("210"))),
+                    () -> assertEquals(0, banco.getSaldoAgregado().compareTo(total)),
+                    () -> assertEquals(3, diario.getRegistros()));
+
+            //el diario reproduce exactamente lo que quedo en memoria
+            Banco restaurado = new Banco();
+            diario.reproducir(restaurado);
+            assertEquals(0, restaurado.findCuenta("John Doe").orElseThrow().getSaldo().compareTo(cuenta1.getSaldo()));
+            assertEquals(0, restaurado.findCuenta("Eduardo").orElseThrow().getSaldo().compareTo(cuenta2.getSaldo()));
+        }
+    }
+
+    @Test
+    @Tag("error")
+    @DisplayName("un saldo que no cabe en el registro del diario no modifica la cuenta")
+    void testSaldoNoCabeEnDiario() throws IOException {
+        try (DiarioTransacciones diario = new DiarioTransacciones(archivo, 16)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100"));
+            Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("100"));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+            BigDecimal enorme = new BigDecimal("99999999999999999999");
+
+            assertThrows(ArithmeticException.class, () -> cuenta1.credito(enorme));
+            assertThrows(ArithmeticException.class, () -> banco.transferir(cuenta1, cuenta2, new BigDecimal("0.00000000000000000001")));
+            assertEquals("100", cuenta1.getSaldo().toPlainString());
+            assertEquals("100", cuenta2.getSaldo().toPlainString());
+            assertEquals(0, banco.getSaldoAgregado().compareTo(new BigDecimal("200")));
+
+            //el diario y la memoria siguen de acuerdo
+            banco.transferir(cuenta1, cuenta2, BigDecimal.TEN);
+            Banco restaurado = new Banco();
+            diario.reproducir(restaurado);
+            assertEquals("90", restaurado.findCuenta("John Doe").orElseThrow().getSaldo().toPlainString());
+            assertEquals("110", restaurado.findCuenta("Eduardo").orElseThrow().getSaldo().toPlainString());
+        }
+    }
+}
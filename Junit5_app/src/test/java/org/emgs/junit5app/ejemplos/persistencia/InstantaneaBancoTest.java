@@ -0,0 +1,225 @@
+package org.emgs.junit5app.ejemplos.persistencia;
+
+import org.emgs.junit5app.ejemplos.models.Banco;
+import org.emgs.junit5app.ejemplos.models.Cuenta;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("diario")
+class InstantaneaBancoTest {
+    @TempDir
+    Path carpeta;
+
+    @Test
+    @DisplayName("escribir y leer una instantanea conserva banco, cuentas y saldos")
+    void testEscribirYLeer() throws IOException {
+        Banco banco = new Banco();
+        banco.setNombre("banamex");
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("2500"));
+        Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("1500.8989"));
+        Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("1000.12345"), 5);
+        Cuenta cuenta4 = new Cuenta(null, new BigDecimal("123456789012345678901234567890.5"));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        banco.addCuenta(cuenta3);
+        banco.addCuenta(cuenta4);
+
+        Path archivo = carpeta.resolve("banco.foto");
+        InstantaneaBanco.escribir(banco, archivo);
+        Banco leido = InstantaneaBanco.leer(archivo);
+
+        assertEquals("banamex", leido.getNombre());
+        assertEquals(4, leido.getCuentas().size());
+        for (Cuenta original : banco.getCuentas()) {
+            Cuenta copia = leido.findCuenta(original.getId()).orElseThrow();
+            assertEquals(original.getPersona(), copia.getPersona());
+            assertEquals(original.getSaldo(), copia.getSaldo());
+            assertEquals(original.isEscalada(), copia.isEscalada());
+            assertSame(leido, copia.getBanco());
+        }
+        assertFalse(Files.exists(carpeta.resolve("banco.foto.tmp")));
+    }
+
+    @Test
+    @DisplayName("los grupos de las cuentas sobreviven a la instantanea y a la cola del diario")
+    void testGruposIdaYVuelta() throws IOException {
+        Path diarioArchivo = carpeta.resolve("banco.diario");
+        Path foto = carpeta.resolve("banco.foto");
+        String grupoLargo = "norte/un grupo con un nombre bastante mas largo que un registro del diario";
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("100"));
+        Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("200"), 2);
+        Cuenta cuenta3 = new Cuenta("Ana", new BigDecimal("300"));
+        Cuenta cuenta4 = new Cuenta("Luca", new BigDecimal("400"));
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 64)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            banco.addCuenta(cuenta1, "norte/monterrey");
+            banco.addCuenta(cuenta2, "norte");
+            banco.addCuenta(cuenta3);
+            InstantaneaBanco.escribir(banco, foto);
+            //despues de la instantanea: alta con grupo largo y un movimiento, solo quedan en el diario
+            banco.addCuenta(cuenta4, grupoLargo);
+            banco.transferir(cuenta3, cuenta4, BigDecimal.TEN);
+        }
+
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 64)) {
+            Banco restaurado = InstantaneaBanco.restaurar(foto, diario);
+            assertAll(
+                    () -> assertEquals("norte/monterrey", restaurado.findCuenta(cuenta1.getId()).orElseThrow().getGrupo()),
+                    () -> assertNull(restaurado.findCuenta(cuenta3.getId()).orElseThrow().getGrupo()),
+                    () -> assertEquals(grupoLargo, restaurado.findCuenta(cuenta4.getId()).orElseThrow().getGrupo()),
+                    () -> assertEquals(3, restaurado.getCantidadCuentas("norte")),
+                    () -> assertEquals(1, restaurado.getCantidadCuentas("norte/monterrey")),
+                    () -> assertEquals(0, restaurado.getSaldoGrupo("norte").compareTo(new BigDecimal("710"))),
+                    () -> assertEquals(0, restaurado.getSaldoGrupo(grupoLargo).compareTo(new BigDecimal("410"))),
+                    () -> assertEquals(0, restaurado.getSaldoAgregado().compareTo(new BigDecimal("1000"))));
+        }
+    }
+
+    @Test
+    @Tag("error")
+    void testArchivoInvalido() throws IOException {
+        Path archivo = Files.write(carpeta.resolve("otro.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> InstantaneaBanco.leer(archivo));
+    }
+
+    @Test
+    @DisplayName("instantanea en segundo plano con transferencias en curso mas la cola del diario")
+    void testInstantaneaConTransferenciasEnCurso() throws Exception {
+        Path diarioArchivo = carpeta.resolve("banco.diario");
+        Path foto = carpeta.resolve("banco.foto");
+        List<Cuenta> cuentas = new ArrayList<>();
+        Banco banco = new Banco();
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 200_000)) {
+            banco.setDiario(diario);
+            for (int i = 0; i < 100; i++) {
+                Cuenta cuenta = new Cuenta("persona" + i, new BigDecimal("1000"));
+                banco.addCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int h = 0; h < 4; h++) {
+                long semilla = h;
+                executor.submit(() -> {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < 5000; i++) {
+                        banco.transferir(cuentas.get(random.nextInt(100)), cuentas.get(random.nextInt(100)), BigDecimal.ONE);
+                    }
+                });
+            }
+            //la instantanea se escribe mientras los hilos siguen transfiriendo
+            InstantaneaBanco.escribirEnSegundoPlano(banco, foto, Executors.newSingleThreadExecutor(r -> {
+                Thread hilo = new Thread(r);
+                hilo.setDaemon(true);
+                return hilo;
+            })).get(30, TimeUnit.SECONDS);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 200_000)) {
+            Banco restaurado = InstantaneaBanco.restaurar(foto, diario);
+            assertSame(diario, restaurado.getDiario());
+            BigDecimal total = BigDecimal.ZERO;
+            for (Cuenta original : cuentas) {
+                Cuenta copia = restaurado.findCuenta(original.getId()).orElseThrow();
+                assertEquals(original.getSaldo(), copia.getSaldo());
+                total = total.add(copia.getSaldo());
+            }
+            assertEquals("100000", total.toPlainString());
+        }
+    }
+
+    @Test
+    @DisplayName("instantaneas encimadas se escriben una por una y la ultima mas la cola recupera todo")
+    void testInstantaneasEncimadas() throws Exception {
+        Path diarioArchivo = carpeta.resolve("banco.diario");
+        Path foto = carpeta.resolve("banco.foto");
+        List<Cuenta> cuentas = new ArrayList<>();
+        Banco banco = new Banco();
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 50_000)) {
+            banco.setDiario(diario);
+            for (int i = 0; i < 20; i++) {
+                Cuenta cuenta = new Cuenta("persona" + i, new BigDecimal("1000"));
+                banco.addCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<Path>> fotos = new ArrayList<>();
+            Random random = new Random(7);
+            for (int vuelta = 0; vuelta < 8; vuelta++) {
+                fotos.add(InstantaneaBanco.escribirEnSegundoPlano(banco, foto, executor));
+                for (int i = 0; i < 200; i++) {
+                    banco.transferir(cuentas.get(random.nextInt(20)), cuentas.get(random.nextInt(20)), BigDecimal.ONE);
+                }
+            }
+            for (Future<Path> escrita : fotos) {
+                escrita.get(30, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 50_000)) {
+            Banco restaurado = InstantaneaBanco.restaurar(foto, diario);
+            for (Cuenta original : cuentas) {
+                assertEquals(original.getSaldo(), restaurado.findCuenta(original.getId()).orElseThrow().getSaldo());
+            }
+        }
+        assertFalse(Files.exists(carpeta.resolve("banco.foto.tmp")));
+    }
+
+    @Test
+    @DisplayName("cada instantanea compacta el diario y la recuperacion solo reproduce la cola")
+    void testInstantaneaCompactaDiario() throws IOException {
+        Path diarioArchivo = carpeta.resolve("banco.diario");
+        Path foto = carpeta.resolve("banco.foto");
+        Cuenta cuenta1 = new Cuenta("John Doe", new BigDecimal("1000"));
+        Cuenta cuenta2 = new Cuenta("Eduardo", new BigDecimal("1000"), 2);
+        //64 registros: sin compactar se llenaria en la segunda vuelta
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 64)) {
+            Banco banco = new Banco();
+            banco.setDiario(diario);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+            for (int vuelta = 0; vuelta < 10; vuelta++) {
+                for (int i = 0; i < 25; i++) {
+                    banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+                }
+                InstantaneaBanco.escribir(banco, foto);
+                assertEquals(2, diario.getRegistros(), () -> "solo queda la ultima transferencia");
+            }
+            cuenta2.debito(new BigDecimal("0.5")); //cola despues de la ultima instantanea
+        }
+        assertEquals("750", cuenta1.getSaldo().toPlainString());
+
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 64)) {
+            assertEquals(3, diario.getRegistros());
+            Banco restaurado = InstantaneaBanco.restaurar(foto, diario);
+            assertEquals("750", restaurado.findCuenta(cuenta1.getId()).orElseThrow().getSaldo().toPlainString());
+            assertEquals("1249.5", restaurado.findCuenta(cuenta2.getId()).orElseThrow().getSaldo().toPlainString());
+            //la secuencia continua despues de reabrir, los movimientos nuevos no quedan ocultos por la instantanea
+            restaurado.findCuenta(cuenta1.getId()).orElseThrow().credito(BigDecimal.TEN);
+        }
+        try (DiarioTransacciones diario = new DiarioTransacciones(diarioArchivo, 64)) {
+            Banco restaurado = InstantaneaBanco.restaurar(foto, diario);
+            assertEquals("760", restaurado.findCuenta(cuenta1.getId()).orElseThrow().getSaldo().toPlainString());
+        }
+        assertFalse(Files.exists(carpeta.resolve("banco.diario.tmp")));
+    }
+}
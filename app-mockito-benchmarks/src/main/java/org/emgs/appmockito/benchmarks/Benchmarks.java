@@ -0,0 +1,27 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+punto de entrada de benchmarks.jar: acepta las mismas opciones que org.openjdk.jmh.Main
+y siempre agrega el profiler gc para reportar la tasa de asignacion (gc.alloc.rate.norm).
+si no se pide otro formato con -rf, los resultados tambien se guardan en JSON (jmh-result.json o el archivo de -rff)
+para comparar corridas y detectar regresiones
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions lineaComandos = new CommandLineOptions(args);
+        OptionsBuilder opciones = new OptionsBuilder();
+        opciones.parent(lineaComandos).addProfiler(GCProfiler.class);
+        if (!lineaComandos.getResultFormat().hasValue()) {
+            opciones.resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(opciones.build()).run();
+    }
+}
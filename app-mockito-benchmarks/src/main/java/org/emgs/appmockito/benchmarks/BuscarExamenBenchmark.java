@@ -0,0 +1,95 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.CatalogoCompacto;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryArchivo;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryMemoria;
+import org.emgs.appmockito.ejemplos.services.ExamenService;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/*
+ExamenServiceImpl.findExamenPorNombre sobre catalogos de GeneradorCatalogo con cada repositorio:
+lista (solo findAll, recorre todo), memoria (ExamenRepositoryMemoria), compacto (CatalogoCompacto)
+y archivo (ExamenRepositoryArchivo mapeado en memoria). cada llamada busca la siguiente de CONSULTAS nombres.
+para 10^7 examenes: -p examenes=10000000 -p repositorio=memoria,compacto,archivo -jvmArgs -Xmx12g
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class BuscarExamenBenchmark {
+    static final int CONSULTAS = 4096;
+
+    @Param({"100000", "1000000"})
+    int examenes;
+
+    @Param({"lista", "memoria", "compacto", "archivo"})
+    String repositorio;
+
+    @Param({"UNICOS", "REPETIDOS"})
+    String nombres;
+
+    @Param({"90"})
+    int porcentajeAciertos;
+
+    @Param({"10"})
+    int maxPreguntas;
+
+    ExamenService service;
+    String[] consultas;
+    Path archivo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        GeneradorCatalogo generador = new GeneradorCatalogo(42, GeneradorCatalogo.Nombres.valueOf(nombres), 0, maxPreguntas);
+        List<Examen> catalogo = generador.generar(examenes);
+        consultas = generador.consultas(catalogo, CONSULTAS, porcentajeAciertos);
+        service = new ExamenServiceImpl(crearRepositorio(catalogo));
+    }
+
+    @TearDown(Level.Trial)
+    public void borrar() throws IOException {
+        if (archivo != null) {
+            Files.deleteIfExists(archivo);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int siguiente;
+    }
+
+    @Benchmark
+    public Optional<Examen> findExamenPorNombre(Cursor cursor) {
+        String nombre = consultas[cursor.siguiente++ & (CONSULTAS - 1)];
+        return service.findExamenPorNombre(nombre);
+    }
+
+    private ExamenRepository crearRepositorio(List<Examen> catalogo) throws IOException {
+        switch (repositorio) {
+            case "lista":
+                return () -> catalogo;
+            case "memoria":
+                return new ExamenRepositoryMemoria(catalogo);
+            case "compacto":
+                return new CatalogoCompacto(catalogo);
+            case "archivo":
+                archivo = Files.createTempFile("catalogo", ".examenes");
+                ExamenRepositoryArchivo.escribir(catalogo, archivo);
+                return new ExamenRepositoryArchivo(archivo);
+            default:
+                throw new IllegalArgumentException("Repositorio desconocido: " + repositorio);
+        }
+    }
+}
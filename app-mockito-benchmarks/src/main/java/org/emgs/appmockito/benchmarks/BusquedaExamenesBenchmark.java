@@ -0,0 +1,102 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceBusqueda;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+latencia de ExamenServiceBusqueda sobre un catalogo sintetico: nombres "<materia> <numero>" y preguntas con palabras
+de un vocabulario donde pocas palabras son muy frecuentes (como en texto real). PALABRAS[0] es la mas comun
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class BusquedaExamenesBenchmark {
+    static final String[] MATERIAS = {"algebra", "biologia", "calculo", "derecho", "economia", "fisica", "geografia",
+            "historia", "ingles", "java", "lenguaje", "literatura", "logica", "musica", "quimica", "redes"};
+    static final int VOCABULARIO = 5_000;
+    static final int PREGUNTAS_POR_EXAMEN = 3;
+    static final int PALABRAS_POR_PREGUNTA = 6;
+
+    @Param({"1000000"})
+    int examenes;
+
+    ExamenServiceBusqueda service;
+    String comun;
+    String comunYMedia;
+    String rara;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        String[] vocabulario = vocabulario();
+        Random random = new Random(42);
+        List<Examen> catalogo = new ArrayList<>(examenes);
+        for (int i = 0; i < examenes; i++) {
+            Examen examen = new Examen(i + 1, MATERIAS[i % MATERIAS.length] + " " + i);
+            List<String> preguntas = new ArrayList<>(PREGUNTAS_POR_EXAMEN);
+            for (int j = 0; j < PREGUNTAS_POR_EXAMEN; j++) {
+                StringBuilder pregunta = new StringBuilder();
+                for (int p = 0; p < PALABRAS_POR_PREGUNTA; p++) {
+                    double r = random.nextDouble();
+                    pregunta.append(vocabulario[(int) (VOCABULARIO * r * r * r)]).append(' ');
+                }
+                preguntas.add(pregunta.append('?').toString());
+            }
+            examen.setPreguntas(preguntas);
+            catalogo.add(examen);
+        }
+        service = new ExamenServiceBusqueda(() -> catalogo);
+        comun = vocabulario[0];
+        comunYMedia = vocabulario[0] + " " + vocabulario[200];
+        rara = vocabulario[VOCABULARIO - 1];
+    }
+
+    //palabras pronunciables distintas a partir de silabas
+    static String[] vocabulario() {
+        String[] silabas = {"ba", "ce", "di", "fo", "gu", "la", "me", "ni", "po", "ru", "sa", "te", "vi", "zo", "que", "tra"};
+        String[] palabras = new String[VOCABULARIO];
+        for (int i = 0; i < VOCABULARIO; i++) {
+            StringBuilder palabra = new StringBuilder();
+            int resto = i;
+            do {
+                palabra.append(silabas[resto % silabas.length]);
+                resto /= silabas.length;
+            } while (resto > 0);
+            palabras[i] = palabra.append("r").toString();
+        }
+        return palabras;
+    }
+
+    @Benchmark
+    public List<Examen> palabraComun() {
+        return service.buscar(comun, 10);
+    }
+
+    @Benchmark
+    public List<Examen> palabraComunYMedia() {
+        return service.buscar(comunYMedia, 10);
+    }
+
+    @Benchmark
+    public List<Examen> palabraRara() {
+        return service.buscar(rara, 10);
+    }
+
+    @Benchmark
+    public List<Examen> prefijoDeMateria() {
+        return service.buscarPorPrefijo("quim", 10);
+    }
+
+    @Benchmark
+    public List<Examen> prefijoDeMateriaYNumero() {
+        return service.buscarPorPrefijo("quim 4242", 10);
+    }
+}
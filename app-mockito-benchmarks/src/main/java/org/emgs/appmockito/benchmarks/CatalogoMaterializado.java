@@ -0,0 +1,99 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.CargadorPreguntas;
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+repositorio que simula una base de datos: guarda filas crudas y crea un Examen nuevo por cada fila leida,
+como lo haria un mapeador de resultados. asi findAll paga la materializacion de todo el catalogo en cada llamada.
+sin preguntas, cada consulta crea un CargadorPreguntas que las lee por lotes de TAMANO_LOTE
+ */
+class CatalogoMaterializado implements ExamenRepositoryStream {
+    static final int TAMANO_LOTE = 64;
+
+    private final long[] ids;
+    private final String[] nombres;
+    private final String[][] preguntas;
+
+    CatalogoMaterializado(int examenes, int preguntasPorExamen) {
+        ids = new long[examenes];
+        nombres = new String[examenes];
+        preguntas = new String[examenes][];
+        for (int i = 0; i < examenes; i++) {
+            ids[i] = i + 1;
+            nombres[i] = "examen" + i;
+            preguntas[i] = new String[preguntasPorExamen];
+            for (int j = 0; j < preguntasPorExamen; j++) {
+                preguntas[i][j] = "pregunta " + j + " del examen " + i;
+            }
+        }
+    }
+
+    @Override
+    public List<Examen> findAll() {
+        List<Examen> examenes = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            examenes.add(leer(i, null));
+        }
+        return examenes;
+    }
+
+    @Override
+    public Stream<Examen> findAllStream(boolean conPreguntas) {
+        CargadorPreguntas cargador = conPreguntas ? null : new CargadorPreguntas(this::buscarPreguntas, ids, TAMANO_LOTE);
+        return IntStream.range(0, ids.length).mapToObj(i -> leer(i, cargador));
+    }
+
+    @Override
+    public List<Examen> findPagina(long despuesDeId, int limite, boolean conPreguntas) {
+        int desde = Arrays.binarySearch(ids, despuesDeId);
+        desde = desde >= 0 ? desde + 1 : -desde - 1;
+        int hasta = (int) Math.min(ids.length, (long) desde + limite);
+        List<Examen> pagina = new ArrayList<>(Math.max(0, hasta - desde));
+        CargadorPreguntas cargador = conPreguntas ? null
+                : new CargadorPreguntas(this::buscarPreguntas, Arrays.copyOfRange(ids, desde, hasta), TAMANO_LOTE);
+        for (int i = desde; i < hasta; i++) {
+            pagina.add(leer(i, cargador));
+        }
+        return pagina;
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    //con cargador null las preguntas se leen de inmediato
+    private Examen leer(int fila, CargadorPreguntas cargador) {
+        if (cargador != null) {
+            return new Examen(ids[fila], nombres[fila], cargador);
+        }
+        Examen examen = new Examen(ids[fila], nombres[fila]);
+        examen.setPreguntas(leerPreguntas(fila));
+        return examen;
+    }
+
+    private Map<Long, List<String>> buscarPreguntas(Collection<Long> buscados) {
+        Map<Long, List<String>> encontradas = new HashMap<>(buscados.size() * 2);
+        for (Long id : buscados) {
+            int fila = Arrays.binarySearch(ids, id);
+            if (fila >= 0) {
+                encontradas.put(id, leerPreguntas(fila));
+            }
+        }
+        return encontradas;
+    }
+
+    private List<String> leerPreguntas(int fila) {
+        return new ArrayList<>(Arrays.asList(preguntas[fila]));
+    }
+}
@@ -0,0 +1,65 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.services.ExamenService;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceAsync;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+prueba de carga de ExamenServiceAsync: se piden todas las busquedas de una vez con findExamenesPorNombres
+contra un servicio que tarda LATENCIA en responder (simula E/S). el tiempo por operacion es lo que tarda en
+resolverse el lote completo, las busquedas por segundo son busquedas / tiempo y deben crecer con concurrentes
+ */
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ExamenServiceAsyncBenchmark {
+    static final long LATENCIA = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({"10000", "50000"})
+    int busquedas;
+
+    @Param({"64", "256", "1024"})
+    int concurrentes;
+
+    ExecutorService executor;
+    ExamenServiceAsync service;
+    List<String> nombres;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        ExamenService lento = nombre -> {
+            LockSupport.parkNanos(LATENCIA);
+            return Optional.of(new Examen(nombre.hashCode(), nombre));
+        };
+        executor = Executors.newFixedThreadPool(concurrentes);
+        service = new ExamenServiceAsync(lento, executor, concurrentes, Duration.ofMinutes(1));
+        nombres = new ArrayList<>(busquedas);
+        for (int i = 0; i < busquedas; i++) {
+            nombres.add("examen" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Map<String, Optional<Examen>> buscarLote() {
+        return service.findExamenesPorNombres(nombres).join();
+    }
+}
@@ -0,0 +1,100 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.CargadorPreguntas;
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/*
+catalogo sintetico de examenes, siempre igual para la misma semilla:
+- nombres "<materia> <numero>": UNICOS (uno por examen) o REPETIDOS (un nombre por cada REPETICION examenes,
+  con pocos nombres muy comunes y muchos raros)
+- cada examen tiene entre minPreguntas y maxPreguntas preguntas; se generan al pedirlas (carga perezosa por lotes),
+  asi un catalogo de 10^7 examenes no necesita tener todas las preguntas en memoria
+- consultas con un porcentaje dado de aciertos; los fallos son nombres que no existen en ningun catalogo
+ */
+class GeneradorCatalogo {
+    static final String[] MATERIAS = {"algebra", "biologia", "calculo", "derecho", "economia", "fisica", "geografia",
+            "historia", "ingles", "java", "lenguaje", "literatura", "logica", "musica", "quimica", "redes"};
+    static final int REPETICION = 10;
+    static final int TAMANO_LOTE = 64;
+
+    enum Nombres {UNICOS, REPETIDOS}
+
+    private final long semilla;
+    private final Nombres nombres;
+    private final int minPreguntas;
+    private final int maxPreguntas;
+
+    GeneradorCatalogo(long semilla, Nombres nombres, int minPreguntas, int maxPreguntas) {
+        if (minPreguntas < 0 || maxPreguntas < minPreguntas) {
+            throw new IllegalArgumentException("Rango de preguntas invalido: " + minPreguntas + ".." + maxPreguntas);
+        }
+        this.semilla = semilla;
+        this.nombres = nombres;
+        this.minPreguntas = minPreguntas;
+        this.maxPreguntas = maxPreguntas;
+    }
+
+    //examenes con ids 1..cantidad
+    List<Examen> generar(int cantidad) {
+        SplittableRandom random = new SplittableRandom(semilla);
+        long[] ids = new long[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            ids[i] = i + 1;
+        }
+        CargadorPreguntas cargador = new CargadorPreguntas(this::buscarPreguntas, ids, TAMANO_LOTE);
+        int distintos = Math.max(1, cantidad / REPETICION);
+        List<Examen> examenes = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            int numero = nombres == Nombres.UNICOS ? i : sesgado(random, distintos);
+            examenes.add(new Examen(ids[i], MATERIAS[numero % MATERIAS.length] + " " + numero, cargador));
+        }
+        return examenes;
+    }
+
+    //nombres a buscar: porcentajeAciertos de ellos existen en el catalogo (elegidos al azar), los demas no
+    String[] consultas(List<Examen> catalogo, int cantidad, int porcentajeAciertos) {
+        SplittableRandom random = new SplittableRandom(semilla + 1);
+        String[] consultas = new String[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            if (random.nextInt(100) < porcentajeAciertos) {
+                //copia del texto, la busqueda no puede ganar por comparar la misma referencia
+                consultas[i] = new String(catalogo.get(random.nextInt(catalogo.size())).getNombre());
+            } else {
+                consultas[i] = "sin examen " + random.nextInt(Integer.MAX_VALUE);
+            }
+        }
+        return consultas;
+    }
+
+    //preguntas de un examen, dependen solo de la semilla y del id
+    List<String> preguntas(long id) {
+        SplittableRandom random = new SplittableRandom(semilla ^ (id * 0x9E3779B97F4A7C15L));
+        int total = minPreguntas + random.nextInt(maxPreguntas - minPreguntas + 1);
+        List<String> preguntas = new ArrayList<>(total);
+        for (int j = 0; j < total; j++) {
+            preguntas.add("pregunta " + (j + 1) + " del examen " + id + ", tema " + MATERIAS[random.nextInt(MATERIAS.length)]);
+        }
+        return preguntas;
+    }
+
+    private Map<Long, List<String>> buscarPreguntas(Collection<Long> ids) {
+        Map<Long, List<String>> encontradas = new HashMap<>(ids.size() * 2);
+        for (Long id : ids) {
+            encontradas.put(id, preguntas(id));
+        }
+        return encontradas;
+    }
+
+    //r^3 concentra los valores cerca de 0: los primeros nombres se repiten mucho mas que los ultimos
+    private static int sesgado(SplittableRandom random, int distintos) {
+        double r = random.nextDouble();
+        return (int) (distintos * r * r * r);
+    }
+}
@@ -0,0 +1,74 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.CatalogoCompacto;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryMemoria;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+reporte de memoria de un catalogo sintetico grande: examenes normales (cada uno con sus propias copias de texto,
+como quedan al leerlos de una base de datos) contra CatalogoCompacto.
+java -Xmx4g -cp target/benchmarks.jar org.emgs.appmockito.benchmarks.MemoriaCatalogo [examenes] [preguntasPorExamen] [preguntasDistintas]
+ */
+public class MemoriaCatalogo {
+    public static void main(String[] args) {
+        int examenes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int preguntasPorExamen = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int preguntasDistintas = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+
+        long base = heapUsado();
+        long directoBase = memoriaDirecta();
+        ExamenRepositoryMemoria normales = new ExamenRepositoryMemoria(generar(examenes, preguntasPorExamen, preguntasDistintas));
+        long heapNormales = heapUsado() - base;
+
+        CatalogoCompacto compacto = new CatalogoCompacto(normales.findAll());
+        normales = null; //solo queda el catalogo compacto
+        long heapCompacto = heapUsado() - base;
+        long directo = memoriaDirecta() - directoBase;
+
+        System.out.printf("examenes: %,d, preguntas por examen: %d, preguntas distintas: %,d%n",
+                examenes, preguntasPorExamen, preguntasDistintas);
+        System.out.printf("ExamenRepositoryMemoria: heap %,d bytes%n", heapNormales);
+        System.out.printf("CatalogoCompacto: heap %,d bytes (arreglos %,d), fuera del heap %,d bytes, textos unicos %,d de %,d examenes%n",
+                heapCompacto, compacto.getBytesIndices(), directo, compacto.getTextosUnicos(), compacto.size());
+        System.out.printf("ahorro de heap: %.1f%%, ahorro total: %.1f%%%n",
+                100.0 * (heapNormales - heapCompacto) / heapNormales,
+                100.0 * (heapNormales - heapCompacto - directo) / heapNormales);
+    }
+
+    //mismo generador en cada corrida; cada examen recibe textos nuevos aunque se repitan
+    static List<Examen> generar(int examenes, int preguntasPorExamen, int preguntasDistintas) {
+        Random random = new Random(42);
+        List<Examen> generados = new ArrayList<>(examenes);
+        for (int i = 0; i < examenes; i++) {
+            Examen examen = new Examen(i + 1, "examen de la materia " + i);
+            List<String> preguntas = new ArrayList<>(preguntasPorExamen);
+            for (int j = 0; j < preguntasPorExamen; j++) {
+                preguntas.add("cual es la respuesta correcta a la pregunta numero " + random.nextInt(preguntasDistintas) + "?");
+            }
+            examen.setPreguntas(preguntas);
+            generados.add(examen);
+        }
+        return generados;
+    }
+
+    private static long heapUsado() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long memoriaDirecta() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+}
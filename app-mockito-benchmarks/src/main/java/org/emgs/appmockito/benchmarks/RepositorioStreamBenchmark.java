@@ -0,0 +1,103 @@
+package org.emgs.appmockito.benchmarks;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.emgs.appmockito.ejemplos.services.ExamenService;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+findAll con lista completa contra findAllStream y paginacion por llave sobre un catalogo que materializa examenes.
+buscar* busca un examen a la mitad del catalogo con ExamenServiceImpl; sumarIds* recorre todo el catalogo.
+contarPreguntasPorLotes lee las preguntas de todo el catalogo con carga perezosa por lotes
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RepositorioStreamBenchmark {
+    static final int TAMANO_PAGINA = 500;
+
+    @Param({"100000"})
+    int examenes;
+
+    @Param({"10"})
+    int preguntasPorExamen;
+
+    CatalogoMaterializado catalogo;
+    ExamenService servicioLista;
+    ExamenService servicioStream;
+    String buscado;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        catalogo = new CatalogoMaterializado(examenes, preguntasPorExamen);
+        ExamenRepository soloLista = catalogo::findAll; //oculta findAllStream para forzar el camino de findAll
+        servicioLista = new ExamenServiceImpl(soloLista);
+        servicioStream = new ExamenServiceImpl(catalogo);
+        buscado = "examen" + examenes / 2;
+    }
+
+    @Benchmark
+    public Optional<Examen> buscarConLista() {
+        return servicioLista.findExamenPorNombre(buscado);
+    }
+
+    @Benchmark
+    public Optional<Examen> buscarConStream() {
+        return servicioStream.findExamenPorNombre(buscado);
+    }
+
+    @Benchmark
+    public long sumarIdsConLista() {
+        long suma = 0;
+        for (Examen examen : catalogo.findAll()) {
+            suma += examen.getId();
+        }
+        return suma;
+    }
+
+    @Benchmark
+    public long sumarIdsConStreamSinPreguntas() {
+        try (Stream<Examen> examenes = catalogo.findAllStream(false)) {
+            return examenes.mapToLong(Examen::getId).sum();
+        }
+    }
+
+    @Benchmark
+    public long contarPreguntasConLista() {
+        long total = 0;
+        for (Examen examen : catalogo.findAll()) {
+            total += examen.getPreguntas().size();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long contarPreguntasPorLotes() {
+        try (Stream<Examen> examenes = catalogo.findAllStream(false)) {
+            return examenes.mapToLong(e -> e.getPreguntas().size()).sum();
+        }
+    }
+
+    @Benchmark
+    public long sumarIdsPaginadoSinPreguntas() {
+        long suma = 0;
+        long ultimo = 0;
+        List<Examen> pagina;
+        while (!(pagina = catalogo.findPagina(ultimo, TAMANO_PAGINA, false)).isEmpty()) {
+            for (Examen examen : pagina) {
+                suma += examen.getId();
+            }
+            ultimo = pagina.get(pagina.size() - 1).getId();
+        }
+        return suma;
+    }
+}
@@ -0,0 +1,60 @@
+package org.emgs.appmockito.ejemplos.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+carga perezosa de preguntas por lotes. el repositorio crea un cargador por consulta con los ids que regresa,
+en orden ascendente, y se lo pasa a cada examen que lee. cuando se piden las preguntas de un examen se leen
+tambien las de los siguientes tamanoLote - 1 ids de la consulta y se guardan hasta que sus examenes las pidan.
+el cargador no guarda referencias a los examenes y retiene a lo mucho un lote de preguntas
+ */
+public class CargadorPreguntas {
+    private final FuentePreguntas fuente;
+    private final long[] ids;
+    private final int tamanoLote;
+    //valor null: el examen no tiene preguntas
+    private final Map<Long, List<String>> precargadas = new HashMap<>();
+    private long consultas;
+
+    //ids no se copia, el repositorio no lo debe modificar despues
+    public CargadorPreguntas(FuentePreguntas fuente, long[] ids, int tamanoLote) {
+        if (tamanoLote <= 0) {
+            throw new IllegalArgumentException("El tamano del lote debe ser mayor a cero");
+        }
+        this.fuente = fuente;
+        this.ids = ids;
+        this.tamanoLote = tamanoLote;
+    }
+
+    synchronized List<String> cargar(long id) {
+        if (precargadas.containsKey(id)) {
+            return modificable(precargadas.remove(id));
+        }
+        precargadas.clear(); //el lote anterior ya no se esta recorriendo
+        List<Long> lote = new ArrayList<>(tamanoLote);
+        lote.add(id);
+        int posicion = Arrays.binarySearch(ids, id);
+        for (int i = posicion + 1; posicion >= 0 && i < ids.length && lote.size() < tamanoLote; i++) {
+            lote.add(ids[i]);
+        }
+        Map<Long, List<String>> leidas = fuente.buscarPreguntas(lote);
+        consultas++;
+        for (int i = 1; i < lote.size(); i++) {
+            precargadas.put(lote.get(i), leidas.get(lote.get(i)));
+        }
+        return modificable(leidas.get(id));
+    }
+
+    private static List<String> modificable(List<String> preguntas) {
+        return preguntas == null ? new ArrayList<>() : preguntas;
+    }
+
+    //cuantas veces se consulto la fuente
+    public synchronized long getConsultas() {
+        return consultas;
+    }
+}
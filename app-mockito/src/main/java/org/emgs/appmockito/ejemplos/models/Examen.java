@@ -7,12 +7,19 @@ public class Examen {
 
     private long id;
     private String nombre;
-    private List<String> preguntas;
+    //null hasta el primer acceso: un examen sin preguntas cargadas no reserva ninguna lista
+    private volatile List<String> preguntas;
+    private CargadorPreguntas cargador;
 
     public Examen(long id, String nombre) {
         this.id = id;
         this.nombre = nombre;
-        this.preguntas= new ArrayList<String>();
+    }
+
+    //las preguntas se leen con el cargador la primera vez que se piden, junto con las de los siguientes examenes de la consulta
+    public Examen(long id, String nombre, CargadorPreguntas cargador) {
+        this(id, nombre);
+        this.cargador = cargador;
     }
 
     public long getId() {
@@ -32,10 +39,24 @@ public class Examen {
     }
 
     public List<String> getPreguntas() {
-        return preguntas;
+        List<String> actuales = preguntas;
+        if (actuales != null) {
+            return actuales;
+        }
+        synchronized (this) {
+            if (preguntas == null) {
+                preguntas = cargador != null ? cargador.cargar(id) : new ArrayList<String>();
+            }
+            return preguntas;
+        }
     }
 
     public void setPreguntas(List<String> preguntas) {
+        this.cargador = null;
         this.preguntas = preguntas;
     }
+
+    public boolean isPreguntasCargadas() {
+        return preguntas != null;
+    }
 }
@@ -0,0 +1,12 @@
+package org.emgs.appmockito.ejemplos.models;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+//acceso del repositorio a las preguntas, se consulta por lotes de ids
+@FunctionalInterface
+public interface FuentePreguntas {
+    //los ids sin preguntas pueden faltar en el mapa
+    Map<Long, List<String>> buscarPreguntas(Collection<Long> ids);
+}
@@ -0,0 +1,282 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+catalogo de examenes de solo lectura con los textos internados: cada nombre o pregunta distinta se guarda una sola vez
+en UTF-8 dentro de un diccionario fuera del heap (ByteBuffer directo) y los examenes solo guardan numeros de texto
+en arreglos de int. los examenes que regresa son vistas (ExamenCompacto) que decodifican el texto al pedirlo.
+si varios examenes tienen el mismo nombre, findByNombre regresa el de menor id (igual que findFirst sobre findAll)
+ */
+public class CatalogoCompacto implements ExamenRepositoryIndexado, ExamenRepositoryStream {
+    private static final int SIN_TEXTO = -1;
+
+    private final ByteBuffer diccionario;
+    //el texto t ocupa los bytes [inicioTexto[t], inicioTexto[t + 1]) del diccionario
+    private final int[] inicioTexto;
+
+    //por examen, ordenados por id
+    private final long[] ids;
+    private final int[] nombres;
+    //las preguntas del examen i son preguntas[inicioPreguntas[i]] .. preguntas[inicioPreguntas[i + 1] - 1]
+    private final int[] inicioPreguntas;
+    private final int[] preguntas;
+
+    //direccionamiento abierto por hash del nombre, guarda indice de examen + 1 (0 es vacio)
+    private final int[] tablaNombres;
+
+    public CatalogoCompacto(Iterable<Examen> examenes) {
+        Map<String, Integer> internados = new HashMap<>();
+        Bytes textos = new Bytes();
+        Enteros inicios = new Enteros();
+        Enteros nombresLeidos = new Enteros();
+        Enteros iniciosLeidos = new Enteros();
+        Enteros preguntasLeidas = new Enteros();
+        List<Long> idsLeidos = new ArrayList<>();
+        for (Examen examen : examenes) {
+            idsLeidos.add(examen.getId());
+            nombresLeidos.agregar(internar(examen.getNombre(), internados, textos, inicios));
+            iniciosLeidos.agregar(preguntasLeidas.tamano);
+            for (String pregunta : examen.getPreguntas()) {
+                preguntasLeidas.agregar(internar(pregunta, internados, textos, inicios));
+            }
+        }
+        iniciosLeidos.agregar(preguntasLeidas.tamano);
+        inicios.agregar(textos.tamano);
+
+        diccionario = ByteBuffer.allocateDirect(textos.tamano);
+        diccionario.put(textos.valores, 0, textos.tamano).flip();
+        inicioTexto = inicios.arreglo();
+
+        //se ordena por id solo si no llegaron ordenados
+        int total = idsLeidos.size();
+        int[] orden = IntStream.range(0, total).toArray();
+        if (!IntStream.range(1, total).allMatch(i -> idsLeidos.get(i - 1) <= idsLeidos.get(i))) {
+            orden = IntStream.range(0, total).boxed()
+                    .sorted((a, b) -> Long.compare(idsLeidos.get(a), idsLeidos.get(b)))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+        ids = new long[total];
+        nombres = new int[total];
+        inicioPreguntas = new int[total + 1];
+        preguntas = new int[preguntasLeidas.tamano];
+        int siguiente = 0;
+        for (int i = 0; i < total; i++) {
+            int leido = orden[i];
+            ids[i] = idsLeidos.get(leido);
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                throw new IllegalArgumentException("Id de examen repetido: " + ids[i]);
+            }
+            nombres[i] = nombresLeidos.valores[leido];
+            inicioPreguntas[i] = siguiente;
+            int desde = iniciosLeidos.valores[leido];
+            int cuantas = iniciosLeidos.valores[leido + 1] - desde;
+            System.arraycopy(preguntasLeidas.valores, desde, preguntas, siguiente, cuantas);
+            siguiente += cuantas;
+        }
+        inicioPreguntas[total] = siguiente;
+
+        tablaNombres = new int[Integer.highestOneBit(Math.max(2, total * 2) - 1) << 1];
+        for (int i = 0; i < total; i++) {
+            if (nombres[i] != SIN_TEXTO) {
+                indexarNombre(i);
+            }
+        }
+    }
+
+    @Override
+    public List<Examen> findAll() {
+        List<Examen> examenes = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            examenes.add(vista(i));
+        }
+        return examenes;
+    }
+
+    //las vistas decodifican las preguntas al pedirlas, conPreguntas no cambia nada
+    @Override
+    public Stream<Examen> findAllStream(boolean conPreguntas) {
+        return IntStream.range(0, ids.length).mapToObj(this::vista);
+    }
+
+    @Override
+    public List<Examen> findPagina(long despuesDeId, int limite, boolean conPreguntas) {
+        int desde = Arrays.binarySearch(ids, despuesDeId);
+        desde = desde >= 0 ? desde + 1 : -desde - 1;
+        int hasta = (int) Math.min(ids.length, (long) desde + limite);
+        List<Examen> pagina = new ArrayList<>(Math.max(0, hasta - desde));
+        for (int i = desde; i < hasta; i++) {
+            pagina.add(vista(i));
+        }
+        return pagina;
+    }
+
+    @Override
+    public Optional<Examen> findByNombre(String nombre) {
+        if (nombre == null) {
+            return Optional.empty();
+        }
+        byte[] buscado = nombre.getBytes(StandardCharsets.UTF_8);
+        int mascara = tablaNombres.length - 1;
+        for (int i = mezclar(nombre.hashCode()) & mascara; tablaNombres[i] != 0; i = (i + 1) & mascara) {
+            int examen = tablaNombres[i] - 1;
+            if (textoIgual(nombres[examen], buscado)) {
+                return Optional.of(vista(examen));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Examen> findById(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        int examen = Arrays.binarySearch(ids, id);
+        return examen >= 0 ? Optional.of(vista(examen)) : Optional.empty();
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getTextosUnicos() {
+        return inicioTexto.length - 1;
+    }
+
+    //bytes fuera del heap
+    public long getBytesDiccionario() {
+        return diccionario.capacity();
+    }
+
+    //bytes de los arreglos en el heap, sin contar encabezados
+    public long getBytesIndices() {
+        return 4L * (inicioTexto.length + nombres.length + inicioPreguntas.length + preguntas.length + tablaNombres.length)
+                + 8L * ids.length;
+    }
+
+    String nombre(int examen) {
+        return texto(nombres[examen]);
+    }
+
+    List<String> preguntas(int examen) {
+        int desde = inicioPreguntas[examen];
+        int cuantas = inicioPreguntas[examen + 1] - desde;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int indice) {
+                if (indice < 0 || indice >= cuantas) {
+                    throw new IndexOutOfBoundsException("Indice: " + indice + ", preguntas: " + cuantas);
+                }
+                return texto(preguntas[desde + indice]);
+            }
+
+            @Override
+            public int size() {
+                return cuantas;
+            }
+        };
+    }
+
+    private Examen vista(int examen) {
+        return new ExamenCompacto(this, examen, ids[examen]);
+    }
+
+    //lectura absoluta, no mueve la posicion del buffer y se puede hacer desde varios hilos
+    private String texto(int texto) {
+        if (texto == SIN_TEXTO) {
+            return null;
+        }
+        byte[] bytes = new byte[inicioTexto[texto + 1] - inicioTexto[texto]];
+        diccionario.get(inicioTexto[texto], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean textoIgual(int texto, byte[] buscado) {
+        int inicio = inicioTexto[texto];
+        if (inicioTexto[texto + 1] - inicio != buscado.length) {
+            return false;
+        }
+        for (int i = 0; i < buscado.length; i++) {
+            if (diccionario.get(inicio + i) != buscado[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //los examenes van en orden de id, el primero con cada nombre se queda en la tabla
+    private void indexarNombre(int examen) {
+        String nombre = texto(nombres[examen]);
+        int mascara = tablaNombres.length - 1;
+        int i = mezclar(nombre.hashCode()) & mascara;
+        while (tablaNombres[i] != 0) {
+            if (nombres[tablaNombres[i] - 1] == nombres[examen]) {
+                return; //textos internados: mismo numero es mismo nombre
+            }
+            i = (i + 1) & mascara;
+        }
+        tablaNombres[i] = examen + 1;
+    }
+
+    private static int internar(String texto, Map<String, Integer> internados, Bytes textos, Enteros inicios) {
+        if (texto == null) {
+            return SIN_TEXTO;
+        }
+        Integer existente = internados.get(texto);
+        if (existente != null) {
+            return existente;
+        }
+        int nuevo = inicios.tamano;
+        inicios.agregar(textos.tamano);
+        textos.agregar(texto.getBytes(StandardCharsets.UTF_8));
+        internados.put(texto, nuevo);
+        return nuevo;
+    }
+
+    private static int mezclar(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    //arreglos que crecen, solo para construir el catalogo
+    private static class Enteros {
+        int[] valores = new int[64];
+        int tamano;
+
+        void agregar(int valor) {
+            if (tamano == valores.length) {
+                valores = Arrays.copyOf(valores, tamano * 2);
+            }
+            valores[tamano++] = valor;
+        }
+
+        int[] arreglo() {
+            return Arrays.copyOf(valores, tamano);
+        }
+    }
+
+    private static class Bytes {
+        byte[] valores = new byte[1024];
+        int tamano;
+
+        void agregar(byte[] bytes) {
+            if (tamano + bytes.length > valores.length) {
+                valores = Arrays.copyOf(valores, Math.max(valores.length * 2, tamano + bytes.length));
+            }
+            System.arraycopy(bytes, 0, valores, tamano, bytes.length);
+            tamano += bytes.length;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+lee examenes de un CSV en UTF-8 con una linea por examen: id,nombre,pregunta1,pregunta2,...
+los campos pueden ir entre comillas dobles para llevar comas o saltos de linea, "" dentro de comillas es una comilla.
+si el primer campo de la primera linea no es un numero, esa linea es el encabezado y se ignora.
+como herramienta convierte el CSV al archivo de ExamenRepositoryArchivo:
+java -cp app-mockito.jar org.emgs.appmockito.ejemplos.repositories.CsvExamenes examenes.csv examenes.bin
+ */
+public class CsvExamenes {
+
+    private CsvExamenes() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("uso: CsvExamenes <archivo.csv> <archivo de salida>");
+            System.exit(1);
+        }
+        List<Examen> examenes = leer(Paths.get(args[0]));
+        ExamenRepositoryArchivo.escribir(examenes, Paths.get(args[1]));
+        System.out.println(examenes.size() + " examenes escritos en " + args[1]);
+    }
+
+    public static List<Examen> leer(Path csv) throws IOException {
+        List<Examen> examenes = new ArrayList<>();
+        List<List<String>> lineas = separar(Files.readString(csv, StandardCharsets.UTF_8));
+        for (int i = 0; i < lineas.size(); i++) {
+            List<String> campos = lineas.get(i);
+            long id;
+            try {
+                id = Long.parseLong(campos.get(0).trim());
+            } catch (NumberFormatException e) {
+                if (i == 0) {
+                    continue; //encabezado
+                }
+                throw new IOException("Id invalido en el registro " + (i + 1) + " de " + csv + ": " + campos.get(0));
+            }
+            Examen examen = new Examen(id, campos.size() > 1 ? campos.get(1) : null);
+            examen.setPreguntas(campos.size() > 2 ? new ArrayList<>(campos.subList(2, campos.size())) : new ArrayList<>());
+            examenes.add(examen);
+        }
+        return examenes;
+    }
+
+    //separa el texto en registros y campos, las lineas vacias se ignoran
+    static List<List<String>> separar(String texto) throws IOException {
+        List<List<String>> registros = new ArrayList<>();
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        boolean registroVacio = true;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (entreComillas) {
+                if (c != '"') {
+                    campo.append(c);
+                } else if (i + 1 < texto.length() && texto.charAt(i + 1) == '"') {
+                    campo.append('"');
+                    i++;
+                } else {
+                    entreComillas = false;
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+                registroVacio = false;
+            } else if (c == ',') {
+                campos.add(campo.toString());
+                campo.setLength(0);
+                registroVacio = false;
+            } else if (c == '\n' || c == '\r') {
+                if (!registroVacio || campo.length() > 0) {
+                    campos.add(campo.toString());
+                    registros.add(campos);
+                    campos = new ArrayList<>();
+                    campo.setLength(0);
+                }
+                registroVacio = true;
+            } else {
+                campo.append(c);
+                registroVacio = false;
+            }
+        }
+        if (entreComillas) {
+            throw new IOException("Comillas sin cerrar al final del CSV");
+        }
+        if (!registroVacio || campo.length() > 0) {
+            campos.add(campo.toString());
+            registros.add(campos);
+        }
+        return registros;
+    }
+}
@@ -0,0 +1,95 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+vista de un examen de CatalogoCompacto: el nombre y las preguntas se leen del catalogo en cada llamada.
+getPreguntas regresa una lista modificable como la de Examen: se lee del catalogo hasta la primera modificacion,
+que copia las preguntas a una lista propia (copia al escribir). setNombre, setPreguntas y esa primera modificacion
+separan la vista del catalogo sin modificarlo. las preguntas siempre estan en memoria, por eso isPreguntasCargadas es true
+ */
+class ExamenCompacto extends Examen {
+    private final CatalogoCompacto catalogo;
+    private final int indice;
+    private boolean nombrePropio;
+    private boolean preguntasPropias;
+
+    ExamenCompacto(CatalogoCompacto catalogo, int indice, long id) {
+        super(id, null);
+        this.catalogo = catalogo;
+        this.indice = indice;
+    }
+
+    @Override
+    public String getNombre() {
+        return nombrePropio ? super.getNombre() : catalogo.nombre(indice);
+    }
+
+    @Override
+    public void setNombre(String nombre) {
+        super.setNombre(nombre);
+        nombrePropio = true;
+    }
+
+    @Override
+    public List<String> getPreguntas() {
+        return preguntasPropias ? super.getPreguntas() : new PreguntasCompactas();
+    }
+
+    @Override
+    public void setPreguntas(List<String> preguntas) {
+        super.setPreguntas(preguntas);
+        preguntasPropias = true;
+    }
+
+    @Override
+    public boolean isPreguntasCargadas() {
+        return true;
+    }
+
+    private List<String> actuales() {
+        return preguntasPropias ? super.getPreguntas() : catalogo.preguntas(indice);
+    }
+
+    //la primera escritura copia las preguntas del catalogo; las siguientes van directo a la copia
+    private List<String> propias() {
+        if (!preguntasPropias) {
+            setPreguntas(new ArrayList<>(catalogo.preguntas(indice)));
+        }
+        return super.getPreguntas();
+    }
+
+    private class PreguntasCompactas extends AbstractList<String> {
+        @Override
+        public String get(int indice) {
+            return actuales().get(indice);
+        }
+
+        @Override
+        public int size() {
+            return actuales().size();
+        }
+
+        @Override
+        public String set(int indice, String pregunta) {
+            return propias().set(indice, pregunta);
+        }
+
+        @Override
+        public void add(int indice, String pregunta) {
+            propias().add(indice, pregunta);
+            modCount++;
+        }
+
+        @Override
+        public String remove(int indice) {
+            String quitada = propias().remove(indice);
+            modCount++;
+            return quitada;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.CargadorPreguntas;
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+repositorio de solo lectura sobre un archivo binario mapeado en memoria: abrirlo solo lee el encabezado y las
+busquedas por nombre o id hacen busqueda binaria sobre los indices del archivo sin deserializar el catalogo.
+las preguntas de findByNombre, findById y de los streams o paginas sin preguntas se leen al pedirlas.
+el archivo se escribe con escribir() o desde CSV con CsvExamenes y debe medir menos de 2 GB.
+
+formato (big endian):
+encabezado: MAGICO, VERSION, cantidad de examenes, cantidad con nombre, posicion del indice por id y del indice por nombre
+registros ordenados por id: id, nombre, longitud del bloque de preguntas, cantidad de preguntas y cada pregunta
+(textos en UTF-8 con su longitud antes, -1 es null)
+indice por id: id y posicion del registro; indice por nombre: posicion del registro, ordenado por los bytes del nombre y despues por id
+ */
+public class ExamenRepositoryArchivo implements ExamenRepositoryIndexado, ExamenRepositoryStream {
+    static final int MAGICO = 0x4558414D; //"EXAM"
+    static final int VERSION = 1;
+    private static final int ENCABEZADO = 32;
+    private static final int ENTRADA_ID = 12;
+    private static final int ENTRADA_NOMBRE = 4;
+    private static final int SIN_TEXTO = -1;
+
+    private final MappedByteBuffer buffer;
+    private final int cantidad;
+    private final int conNombre;
+    private final int posIndiceIds;
+    private final int posIndiceNombres;
+
+    public ExamenRepositoryArchivo(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("El archivo mide mas de 2 GB: " + archivo);
+            }
+            buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        if (buffer.capacity() < ENCABEZADO || buffer.getInt(0) != MAGICO || buffer.getInt(4) != VERSION) {
+            throw new IOException("El archivo no es un catalogo de examenes: " + archivo);
+        }
+        cantidad = buffer.getInt(8);
+        conNombre = buffer.getInt(12);
+        posIndiceIds = (int) buffer.getLong(16);
+        posIndiceNombres = (int) buffer.getLong(24);
+        if (posIndiceIds + (long) cantidad * ENTRADA_ID > buffer.capacity()
+                || posIndiceNombres + (long) conNombre * ENTRADA_NOMBRE > buffer.capacity()) {
+            throw new IOException("El catalogo de examenes esta incompleto: " + archivo);
+        }
+    }
+
+    @Override
+    public List<Examen> findAll() {
+        List<Examen> examenes = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            examenes.add(leer(posicionRegistro(i), null));
+        }
+        return examenes;
+    }
+
+    @Override
+    public Stream<Examen> findAllStream(boolean conPreguntas) {
+        CargadorPreguntas cargador = conPreguntas ? null : nuevoCargador();
+        return IntStream.range(0, cantidad).mapToObj(i -> leer(posicionRegistro(i), cargador));
+    }
+
+    @Override
+    public List<Examen> findPagina(long despuesDeId, int limite, boolean conPreguntas) {
+        CargadorPreguntas cargador = conPreguntas ? null : nuevoCargador();
+        int desde = primeroConIdMayorA(despuesDeId);
+        int hasta = (int) Math.min(cantidad, (long) desde + limite);
+        List<Examen> pagina = new ArrayList<>(Math.max(0, hasta - desde));
+        for (int i = desde; i < hasta; i++) {
+            pagina.add(leer(posicionRegistro(i), cargador));
+        }
+        return pagina;
+    }
+
+    @Override
+    public Optional<Examen> findByNombre(String nombre) {
+        if (nombre == null) {
+            return Optional.empty();
+        }
+        byte[] buscado = nombre.getBytes(StandardCharsets.UTF_8);
+        //primera entrada con nombre >= buscado, entre nombres iguales queda la de menor id
+        int bajo = 0;
+        int alto = conNombre;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (compararNombre(posicionNombre(medio), buscado) < 0) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        if (bajo < conNombre && compararNombre(posicionNombre(bajo), buscado) == 0) {
+            return Optional.of(leer(posicionNombre(bajo), nuevoCargador()));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Examen> findById(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        int posicion = buscarPosicion(id);
+        return posicion < 0 ? Optional.empty() : Optional.of(leer(posicion, nuevoCargador()));
+    }
+
+    public int size() {
+        return cantidad;
+    }
+
+    //escribe primero a un archivo temporal y lo mueve al final, los lectores nunca ven un catalogo a medias
+    public static void escribir(Collection<Examen> examenes, Path archivo) throws IOException {
+        List<Examen> ordenados = new ArrayList<>(examenes);
+        ordenados.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        List<byte[]> nombres = new ArrayList<>(ordenados.size());
+        List<Integer> conNombre = new ArrayList<>();
+        int[] posiciones = new int[ordenados.size()];
+
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        int posIndiceIds;
+        int posIndiceNombres;
+        try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            salida.write(new byte[ENCABEZADO]); //se completa al final
+            for (int i = 0; i < ordenados.size(); i++) {
+                Examen examen = ordenados.get(i);
+                if (i > 0 && examen.getId() == ordenados.get(i - 1).getId()) {
+                    throw new IllegalArgumentException("Id de examen repetido: " + examen.getId());
+                }
+                posiciones[i] = salida.size();
+                byte[] nombre = bytes(examen.getNombre());
+                nombres.add(nombre);
+                if (nombre != null) {
+                    conNombre.add(i);
+                }
+                salida.writeLong(examen.getId());
+                escribirTexto(salida, nombre);
+
+                List<byte[]> preguntas = new ArrayList<>(examen.getPreguntas().size());
+                int longitudBloque = 4;
+                for (String pregunta : examen.getPreguntas()) {
+                    byte[] texto = bytes(pregunta);
+                    preguntas.add(texto);
+                    longitudBloque += 4 + (texto == null ? 0 : texto.length);
+                }
+                salida.writeInt(longitudBloque);
+                salida.writeInt(preguntas.size());
+                for (byte[] pregunta : preguntas) {
+                    escribirTexto(salida, pregunta);
+                }
+                if (salida.size() == Integer.MAX_VALUE) { //DataOutputStream se queda en el maximo al desbordar
+                    throw new IOException("El catalogo de examenes mide mas de 2 GB");
+                }
+            }
+
+            posIndiceIds = salida.size();
+            for (int i = 0; i < ordenados.size(); i++) {
+                salida.writeLong(ordenados.get(i).getId());
+                salida.writeInt(posiciones[i]);
+            }
+            posIndiceNombres = salida.size();
+            //la ordenacion es estable: entre nombres iguales se conserva el orden por id
+            conNombre.sort((a, b) -> Arrays.compareUnsigned(nombres.get(a), nombres.get(b)));
+            for (int i : conNombre) {
+                salida.writeInt(posiciones[i]);
+            }
+            if (salida.size() == Integer.MAX_VALUE) {
+                throw new IOException("El catalogo de examenes mide mas de 2 GB");
+            }
+        }
+
+        ByteBuffer encabezado = ByteBuffer.allocate(ENCABEZADO);
+        encabezado.putInt(MAGICO).putInt(VERSION).putInt(ordenados.size()).putInt(conNombre.size())
+                .putLong(posIndiceIds).putLong(posIndiceNombres).flip();
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            while (encabezado.hasRemaining()) {
+                canal.write(encabezado, encabezado.position());
+            }
+            canal.force(true);
+        }
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //sin lotes: cada lectura de preguntas es una busqueda binaria en memoria, no hay viajes que ahorrar
+    private CargadorPreguntas nuevoCargador() {
+        return new CargadorPreguntas(this::buscarPreguntas, new long[0], 1);
+    }
+
+    private Map<Long, List<String>> buscarPreguntas(Collection<Long> ids) {
+        Map<Long, List<String>> preguntas = new HashMap<>(ids.size() * 2);
+        for (Long id : ids) {
+            int posicion = buscarPosicion(id);
+            if (posicion >= 0) {
+                preguntas.put(id, leerPreguntas(saltarTexto(posicion + 8)));
+            }
+        }
+        return preguntas;
+    }
+
+    private Examen leer(int posicion, CargadorPreguntas cargador) {
+        long id = buffer.getLong(posicion);
+        String nombre = leerTexto(posicion + 8);
+        if (cargador != null) {
+            return new Examen(id, nombre, cargador);
+        }
+        Examen examen = new Examen(id, nombre);
+        examen.setPreguntas(leerPreguntas(saltarTexto(posicion + 8)));
+        return examen;
+    }
+
+    private List<String> leerPreguntas(int posicionBloque) {
+        int cuantas = buffer.getInt(posicionBloque + 4);
+        List<String> preguntas = new ArrayList<>(cuantas);
+        int posicion = posicionBloque + 8;
+        for (int i = 0; i < cuantas; i++) {
+            preguntas.add(leerTexto(posicion));
+            posicion = saltarTexto(posicion);
+        }
+        return preguntas;
+    }
+
+    private int buscarPosicion(long id) {
+        int i = primeroConIdMayorA(id) - 1; //ultimo con id <= buscado
+        if (i >= 0 && idEn(i) == id) {
+            return posicionRegistro(i);
+        }
+        return -1;
+    }
+
+    private int primeroConIdMayorA(long id) {
+        int bajo = 0;
+        int alto = cantidad;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (idEn(medio) <= id) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    private long idEn(int indice) {
+        return buffer.getLong(posIndiceIds + indice * ENTRADA_ID);
+    }
+
+    private int posicionRegistro(int indice) {
+        return buffer.getInt(posIndiceIds + indice * ENTRADA_ID + 8);
+    }
+
+    private int posicionNombre(int indice) {
+        return buffer.getInt(posIndiceNombres + indice * ENTRADA_NOMBRE);
+    }
+
+    //compara el nombre del registro con buscado byte por byte sin signo, como se ordeno el indice
+    private int compararNombre(int posicionRegistro, byte[] buscado) {
+        int longitud = buffer.getInt(posicionRegistro + 8);
+        int inicio = posicionRegistro + 12;
+        int comunes = Math.min(longitud, buscado.length);
+        for (int i = 0; i < comunes; i++) {
+            int diferencia = Byte.toUnsignedInt(buffer.get(inicio + i)) - Byte.toUnsignedInt(buscado[i]);
+            if (diferencia != 0) {
+                return diferencia;
+            }
+        }
+        return Integer.compare(longitud, buscado.length);
+    }
+
+    private String leerTexto(int posicion) {
+        int longitud = buffer.getInt(posicion);
+        if (longitud == SIN_TEXTO) {
+            return null;
+        }
+        byte[] bytes = new byte[longitud];
+        buffer.get(posicion + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int saltarTexto(int posicion) {
+        return posicion + 4 + Math.max(0, buffer.getInt(posicion));
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto == null ? null : texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void escribirTexto(DataOutputStream salida, byte[] texto) throws IOException {
+        if (texto == null) {
+            salida.writeInt(SIN_TEXTO);
+            return;
+        }
+        salida.writeInt(texto.length);
+        salida.write(texto);
+    }
+}
@@ -0,0 +1,12 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.util.Optional;
+
+//repositorio con busquedas directas, el servicio las usa en lugar de recorrer findAll
+public interface ExamenRepositoryIndexado extends ExamenRepository {
+    Optional<Examen> findByNombre(String nombre);
+
+    Optional<Examen> findById(Long id);
+}
@@ -0,0 +1,149 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+repositorio en memoria con indices hash por id y por nombre, las busquedas son O(1) y no bloquean.
+si varios examenes tienen el mismo nombre, findByNombre regresa el de menor id, igual que findFirst sobre findAll
+(que va en orden de id), CatalogoCompacto y ExamenRepositoryArchivo.
+el nombre se indexa al guardar: un examen al que se le cambia el nombre se reindexa al guardarlo de nuevo.
+el indice por nombre nunca se vacia a la mitad de un cambio: una busqueda concurrente ve el examen anterior o el nuevo.
+los examenes ya estan en memoria, asi que conPreguntas no cambia nada en este repositorio
+ */
+public class ExamenRepositoryMemoria implements ExamenRepositoryIndexado, ExamenRepositoryStream {
+    private final Map<Long, Examen> porId;
+    private final Map<String, Examen> porNombre;
+    //nombre con el que se indexo cada id, para quitarlo aunque el examen ya tenga otro nombre (setNombre)
+    private final Map<Long, String> nombresIndexados;
+    //examenes de mas con el mismo nombre (solo nombres repetidos), asi quitar un nombre unico no recorre nada
+    private final Map<String, Integer> repetidos = new HashMap<>();
+    //mismo contenido que porId ordenado por id, para recorrer y paginar sin ordenar en cada consulta
+    private final NavigableMap<Long, Examen> ordenados = new ConcurrentSkipListMap<>();
+
+    public ExamenRepositoryMemoria() {
+        this(16);
+    }
+
+    public ExamenRepositoryMemoria(int capacidad) {
+        porId = new ConcurrentHashMap<>(capacidad);
+        porNombre = new ConcurrentHashMap<>(capacidad);
+        nombresIndexados = new ConcurrentHashMap<>(capacidad);
+    }
+
+    public ExamenRepositoryMemoria(List<Examen> examenes) {
+        this(examenes.size());
+        examenes.forEach(this::guardar);
+    }
+
+    @Override
+    public List<Examen> findAll() {
+        return new ArrayList<>(ordenados.values());
+    }
+
+    @Override
+    public Stream<Examen> findAllStream(boolean conPreguntas) {
+        return ordenados.values().stream();
+    }
+
+    @Override
+    public List<Examen> findPagina(long despuesDeId, int limite, boolean conPreguntas) {
+        return ordenados.tailMap(despuesDeId, false).values().stream()
+                .limit(limite)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Examen> findByNombre(String nombre) {
+        return nombre == null ? Optional.empty() : Optional.ofNullable(porNombre.get(nombre));
+    }
+
+    @Override
+    public Optional<Examen> findById(Long id) {
+        return id == null ? Optional.empty() : Optional.ofNullable(porId.get(id));
+    }
+
+    //guardar de nuevo un examen con el mismo id lo reemplaza y actualiza el indice por nombre
+    public synchronized Examen guardar(Examen examen) {
+        long id = examen.getId();
+        String nombre = examen.getNombre();
+        porId.put(id, examen);
+        ordenados.put(id, examen);
+        if (nombre != null && nombre.equals(nombresIndexados.get(id))) {
+            //mismo nombre (la actualizacion comun): si este id es el indexado se cambia el valor, no se quita la entrada
+            Examen indexado = porNombre.get(nombre);
+            if (indexado.getId() == id) {
+                porNombre.put(nombre, examen);
+            }
+            return examen;
+        }
+        quitarDeNombre(id);
+        if (nombre != null) {
+            nombresIndexados.put(id, nombre);
+            Examen indexado = porNombre.get(nombre);
+            if (indexado == null) {
+                porNombre.put(nombre, examen);
+            } else {
+                repetidos.merge(nombre, 1, Integer::sum);
+                if (id < indexado.getId()) {
+                    porNombre.put(nombre, examen);
+                }
+            }
+        }
+        return examen;
+    }
+
+    public synchronized Optional<Examen> eliminar(Long id) {
+        Examen eliminado = porId.remove(id);
+        if (eliminado != null) {
+            ordenados.remove(id);
+            quitarDeNombre(id);
+        }
+        return Optional.ofNullable(eliminado);
+    }
+
+    public int size() {
+        return porId.size();
+    }
+
+    /*
+    quita el id del nombre con el que se indexo. si era el unico examen con ese nombre se quita la entrada; si hay
+    repetidos y este era el indexado, se busca primero el siguiente id con ese nombre y se pone en su lugar con un
+    solo put (solo este caso recorre los examenes: renombrar o eliminar el de menor id de un nombre repetido)
+     */
+    private void quitarDeNombre(long id) {
+        String nombre = nombresIndexados.remove(id);
+        if (nombre == null) {
+            return;
+        }
+        Integer otros = repetidos.get(nombre);
+        if (otros == null) {
+            porNombre.remove(nombre);
+            return;
+        }
+        if (otros == 1) {
+            repetidos.remove(nombre);
+        } else {
+            repetidos.put(nombre, otros - 1);
+        }
+        if (porNombre.get(nombre).getId() != id) {
+            return;
+        }
+        for (Examen examen : ordenados.values()) {
+            if (nombre.equals(nombresIndexados.get(examen.getId()))) {
+                porNombre.put(nombre, examen);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+repositorio que entrega el catalogo de forma perezosa en lugar de una lista completa.
+con conPreguntas en false las preguntas no se leen junto con el examen, el repositorio le asigna un
+CargadorPreguntas para leerlas por lotes en el primer acceso (los repositorios en memoria ya las tienen)
+ */
+public interface ExamenRepositoryStream extends ExamenRepository {
+    //ordenado por id; el stream se debe cerrar (try-with-resources) si el repositorio usa recursos externos
+    Stream<Examen> findAllStream(boolean conPreguntas);
+
+    //paginacion por llave: hasta limite examenes con id mayor a despuesDeId, ordenados por id
+    List<Examen> findPagina(long despuesDeId, int limite, boolean conPreguntas);
+}
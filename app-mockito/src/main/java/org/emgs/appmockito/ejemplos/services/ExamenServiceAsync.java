@@ -0,0 +1,127 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+version no bloqueante de ExamenService: cada busqueda regresa un CompletableFuture y a lo mucho maximoConcurrentes
+llamadas al servicio corren al mismo tiempo en el executor. las demas esperan en una cola sin ocupar ningun hilo,
+asi decenas de miles de busquedas pendientes no necesitan decenas de miles de hilos.
+el tiempo limite cuenta desde que se pide la busqueda (incluye la espera en cola) y termina el future con TimeoutException;
+una busqueda que ya expiro en la cola no se ejecuta, una que ya empezo no se interrumpe.
+el executor debe correr las tareas en otros hilos (un executor directo anidaria cada busqueda en la pila)
+ */
+public class ExamenServiceAsync {
+
+    private final ExamenService delegado;
+    private final Executor executor;
+    private final int maximoConcurrentes;
+    private final long timeoutNanos;
+
+    private final Queue<Busqueda> enEspera = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger enCurso = new AtomicInteger();
+
+    public ExamenServiceAsync(ExamenService delegado, Executor executor, int maximoConcurrentes, Duration timeout) {
+        if (maximoConcurrentes <= 0) {
+            throw new IllegalArgumentException("El maximo de llamadas concurrentes debe ser mayor a cero");
+        }
+        this.delegado = delegado;
+        this.executor = executor;
+        this.maximoConcurrentes = maximoConcurrentes;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public CompletableFuture<Optional<Examen>> findExamenPorNombre(String nombre) {
+        Busqueda busqueda = new Busqueda(nombre);
+        busqueda.resultado.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        enEspera.add(busqueda);
+        despachar();
+        return busqueda.resultado;
+    }
+
+    /*
+    busca todos los nombres en paralelo (los repetidos una sola vez) y regresa un mapa en el orden recibido.
+    si alguna busqueda falla o expira, el future del mapa termina con esa excepcion
+     */
+    public CompletableFuture<Map<String, Optional<Examen>>> findExamenesPorNombres(Collection<String> nombres) {
+        Set<String> unicos = new LinkedHashSet<>(nombres);
+        Map<String, CompletableFuture<Optional<Examen>>> busquedas = new LinkedHashMap<>(unicos.size() * 2);
+        for (String nombre : unicos) {
+            busquedas.put(nombre, findExamenPorNombre(nombre));
+        }
+        return CompletableFuture.allOf(busquedas.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(terminadas -> {
+                    Map<String, Optional<Examen>> examenes = new LinkedHashMap<>(busquedas.size() * 2);
+                    busquedas.forEach((nombre, busqueda) -> examenes.put(nombre, busqueda.join()));
+                    return examenes;
+                });
+    }
+
+    public int getEnEspera() {
+        return enEspera.size();
+    }
+
+    public int getEnCurso() {
+        return enCurso.get();
+    }
+
+    //toma un lugar y lo usa para la siguiente busqueda de la cola; cada busqueda terminada vuelve a despachar
+    private void despachar() {
+        while (!enEspera.isEmpty()) {
+            int actuales = enCurso.get();
+            if (actuales >= maximoConcurrentes) {
+                return; //la siguiente busqueda que termine volvera a despachar
+            }
+            if (!enCurso.compareAndSet(actuales, actuales + 1)) {
+                continue;
+            }
+            Busqueda busqueda = enEspera.poll();
+            if (busqueda == null || busqueda.resultado.isDone()) {
+                enCurso.decrementAndGet(); //cola vacia o busqueda ya expirada
+                continue;
+            }
+            try {
+                executor.execute(() -> ejecutar(busqueda));
+            } catch (RejectedExecutionException e) {
+                enCurso.decrementAndGet();
+                busqueda.resultado.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void ejecutar(Busqueda busqueda) {
+        try {
+            if (!busqueda.resultado.isDone()) {
+                busqueda.resultado.complete(delegado.findExamenPorNombre(busqueda.nombre));
+            }
+        } catch (Throwable e) {
+            busqueda.resultado.completeExceptionally(e);
+        } finally {
+            enCurso.decrementAndGet();
+            despachar();
+        }
+    }
+
+    private static class Busqueda {
+        final String nombre;
+        final CompletableFuture<Optional<Examen>> resultado = new CompletableFuture<>();
+
+        Busqueda(String nombre) {
+            this.nombre = nombre;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryStream;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ExamenService con busqueda de texto: indexa los examenes del repositorio al crearse y despues los que se agreguen.
+findExamenPorNombre sigue siendo la busqueda exacta de ExamenServiceImpl
+ */
+public class ExamenServiceBusqueda implements ExamenService {
+
+    private final ExamenService delegado;
+    private final IndiceExamenes indice = new IndiceExamenes();
+
+    public ExamenServiceBusqueda(ExamenRepository examenRepository) {
+        this.delegado = new ExamenServiceImpl(examenRepository);
+        if (examenRepository instanceof ExamenRepositoryStream) {
+            try (Stream<Examen> examenes = ((ExamenRepositoryStream) examenRepository).findAllStream(true)) {
+                indice.agregarTodos(examenes::iterator);
+            }
+        } else {
+            indice.agregarTodos(examenRepository.findAll());
+        }
+    }
+
+    @Override
+    public Optional<Examen> findExamenPorNombre(String nombre) {
+        return delegado.findExamenPorNombre(nombre);
+    }
+
+    //examenes que tienen todas las palabras de la consulta en el nombre o en las preguntas, los k mas relevantes
+    public List<Examen> buscar(String consulta, int k) {
+        return indice.buscar(consulta, k);
+    }
+
+    //examenes con nombre parcial, "leng c" encuentra "Lenguaje C"
+    public List<Examen> buscarPorPrefijo(String texto, int k) {
+        return indice.buscarPorPrefijo(texto, k);
+    }
+
+    //se llama despues de guardar un examen en el repositorio; con un id ya indexado reemplaza al anterior
+    public void agregar(Examen examen) {
+        indice.agregar(examen);
+    }
+
+    public int size() {
+        return indice.size();
+    }
+}
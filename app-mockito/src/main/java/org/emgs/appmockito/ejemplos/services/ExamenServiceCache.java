@@ -0,0 +1,212 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+decorador de ExamenService con cache de lectura: tamano maximo con desalojo LRU aproximado, tiempo de vida (TTL),
+invalidacion explicita y cache de resultados vacios (Optional.empty()).
+si varios hilos piden el mismo nombre que no esta en cache, solo uno consulta al servicio y los demas esperan su resultado
+(o reciben la misma excepcion). invalidar un nombre descarta la carga en curso de ese nombre, las de otros se guardan.
+
+los aciertos no toman ningun candado: leen un ConcurrentHashMap y marcan la entrada como usada. el desalojo es un reloj
+(segunda oportunidad) sobre las entradas en orden de llegada: una entrada marcada se desmarca y pasa al final,
+la primera sin marcar sale. se aproxima a LRU sin que cada lectura tenga que reordenar una lista compartida;
+solo altas, desalojos e invalidaciones se serializan en el monitor de la cola
+ */
+public class ExamenServiceCache implements ExamenService {
+
+    private final ExamenService delegado;
+    private final int tamanoMaximo;
+    private final long ttlNanos;
+    private final LongSupplier reloj;
+
+    private final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+    //entradas en orden de llegada para el reloj de desalojo; protegida por su propio monitor. puede tener entradas
+    //que ya salieron del mapa (expiradas o invalidadas), se saltan al desalojar
+    private final ArrayDeque<Entrada> cola = new ArrayDeque<>();
+    private final Map<String, Carga> enVuelo = new ConcurrentHashMap<>();
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    public ExamenServiceCache(ExamenService delegado, int tamanoMaximo, Duration ttl) {
+        this(delegado, tamanoMaximo, ttl, System::nanoTime);
+    }
+
+    ExamenServiceCache(ExamenService delegado, int tamanoMaximo, Duration ttl, LongSupplier reloj) {
+        if (tamanoMaximo <= 0) {
+            throw new IllegalArgumentException("El tamano maximo debe ser mayor a cero");
+        }
+        this.delegado = delegado;
+        this.tamanoMaximo = tamanoMaximo;
+        //un TTL que no cabe en long nanos (p.ej. ChronoUnit.FOREVER) queda en el maximo, las entradas no expiran
+        this.ttlNanos = ttl.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : ttl.toNanos();
+        this.reloj = reloj;
+    }
+
+    @Override
+    public Optional<Examen> findExamenPorNombre(String nombre) {
+        if (nombre == null) {
+            return delegado.findExamenPorNombre(null);
+        }
+        Optional<Examen> enCache = buscarEnCache(nombre);
+        if (enCache != null) {
+            aciertos.increment();
+            return enCache;
+        }
+        fallos.increment();
+
+        Carga carga = new Carga();
+        Carga existente = enVuelo.putIfAbsent(nombre, carga);
+        if (existente != null) {
+            return esperar(existente); //otro hilo ya esta consultando este nombre
+        }
+        try {
+            Optional<Examen> resultado = delegado.findExamenPorNombre(nombre);
+            synchronized (cola) {
+                if (!carga.invalidada) {
+                    guardar(new Entrada(nombre, resultado, reloj.getAsLong() + ttlNanos));
+                }
+            }
+            carga.complete(resultado);
+            return resultado;
+        } catch (RuntimeException | Error e) {
+            carga.completeExceptionally(e);
+            throw e;
+        } finally {
+            enVuelo.remove(nombre, carga);
+        }
+    }
+
+    /*
+    se llama cuando un examen cambia o se elimina. la carga en curso de ese nombre (si hay) ya no se guarda y sale
+    de enVuelo, asi las consultas que lleguen despues leen el examen nuevo en lugar de esperar a la vieja
+     */
+    public void invalidar(String nombre) {
+        synchronized (cola) {
+            entradas.remove(nombre);
+            Carga carga = enVuelo.remove(nombre);
+            if (carga != null) {
+                carga.invalidada = true;
+            }
+        }
+    }
+
+    public void invalidarTodo() {
+        synchronized (cola) {
+            entradas.clear();
+            cola.clear();
+            enVuelo.values().forEach(carga -> carga.invalidada = true);
+            enVuelo.clear();
+        }
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getDesalojos() {
+        return desalojos.sum();
+    }
+
+    public int size() {
+        return entradas.size();
+    }
+
+    //el resultado de la carga de otro hilo; su excepcion se relanza tal cual, sin la CompletionException de join
+    private static Optional<Examen> esperar(Carga carga) {
+        try {
+            return carga.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            throw e;
+        }
+    }
+
+    //regresa null si no esta en cache o ya expiro
+    private Optional<Examen> buscarEnCache(String nombre) {
+        Entrada entrada = entradas.get(nombre);
+        if (entrada == null) {
+            return null;
+        }
+        if (reloj.getAsLong() - entrada.expira >= 0) {
+            entradas.remove(nombre, entrada);
+            return null;
+        }
+        if (!entrada.usada) {
+            entrada.usada = true; //solo se escribe la primera vez, asi los aciertos repetidos no se pelean la linea de cache
+        }
+        return entrada.valor;
+    }
+
+    //con el monitor de la cola tomado
+    private void guardar(Entrada nueva) {
+        Entrada anterior = entradas.put(nueva.nombre, nueva);
+        cola.addLast(nueva);
+        if (anterior == null) {
+            while (entradas.size() > tamanoMaximo) {
+                desalojar();
+            }
+        }
+        if (cola.size() > 2 * tamanoMaximo) {
+            cola.removeIf(entrada -> entradas.get(entrada.nombre) != entrada); //entradas que ya no estan en el mapa
+        }
+    }
+
+    private void desalojar() {
+        while (true) {
+            Entrada entrada = cola.pollFirst();
+            if (entradas.get(entrada.nombre) != entrada) {
+                continue; //expirada, invalidada o reemplazada
+            }
+            if (entrada.usada) {
+                entrada.usada = false; //segunda oportunidad
+                cola.addLast(entrada);
+            } else {
+                entradas.remove(entrada.nombre, entrada);
+                desalojos.increment();
+                return;
+            }
+        }
+    }
+
+    private static class Carga extends CompletableFuture<Optional<Examen>> {
+        //protegida por el monitor de la cola, igual que guardar
+        boolean invalidada;
+    }
+
+    private static class Entrada {
+        final String nombre;
+        final Optional<Examen> valor;
+        final long expira;
+        //se uso desde que el reloj de desalojo paso por ella
+        volatile boolean usada;
+
+        Entrada(String nombre, Optional<Examen> valor, long expira) {
+            this.nombre = nombre;
+            this.valor = valor;
+            this.expira = expira;
+        }
+    }
+}
@@ -2,8 +2,11 @@ package org.emgs.appmockito.ejemplos.services;
 
 import org.emgs.appmockito.ejemplos.models.Examen;
 import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryIndexado;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryStream;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class ExamenServiceImpl implements ExamenService{
 
@@ -15,6 +18,17 @@ public class ExamenServiceImpl implements ExamenService{
 
     @Override
     public Optional<Examen> findExamenPorNombre(String nombre) {
+        //si el repositorio tiene indice por nombre la busqueda es directa, sin cargar todos los examenes
+        if (examenRepository instanceof ExamenRepositoryIndexado) {
+            return ((ExamenRepositoryIndexado) examenRepository).findByNombre(nombre);
+        }
+        //con stream el repositorio deja de producir examenes en cuanto findFirst encuentra uno,
+        //y las preguntas solo se leen si quien llama las pide
+        if (examenRepository instanceof ExamenRepositoryStream) {
+            try (Stream<Examen> examenes = ((ExamenRepositoryStream) examenRepository).findAllStream(false)) {
+                return examenes.filter(e-> e.getNombre().equals(nombre)).findFirst();
+            }
+        }
         //optional valida si existe un elemento en la busqueda compatible con el inyectado
         return examenRepository.findAll()
                 .stream()
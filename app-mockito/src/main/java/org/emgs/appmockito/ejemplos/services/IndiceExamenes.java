@@ -0,0 +1,435 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+indice en memoria para buscar examenes por palabras del nombre y de las preguntas.
+- indice invertido: palabra -> lista de documentos con su peso (PESO_NOMBRE por aparicion en el nombre,
+  PESO_PREGUNTA por aparicion en preguntas). los documentos se numeran al agregarse, asi cada lista queda ordenada
+- prefijos: palabras de los nombres en un arreglo ordenado mas las pendientes en un TreeMap, que se mezclan al arreglo
+  cuando son tantas como las del arreglo (minimo MINIMO_PENDIENTES): cada palabra se copia un numero constante de
+  veces en promedio. la carga inicial (agregarTodos) arma el arreglo de una sola vez
+las palabras se comparan sin mayusculas ni acentos. agregar un examen con un id ya indexado reemplaza al anterior,
+que queda marcado como eliminado; cuando los eliminados son mas de la mitad se renumeran los documentos y se quitan
+de las listas y del arreglo. varias consultas pueden correr a la vez, agregar las bloquea
+ */
+class IndiceExamenes {
+    private static final int PESO_NOMBRE = 3;
+    private static final int PESO_PREGUNTA = 1;
+    private static final int MINIMO_PENDIENTES = 4096;
+    private static final int MINIMO_PARA_COMPACTAR = 1024;
+
+    private final ReadWriteLock candado = new ReentrantReadWriteLock();
+
+    private final List<Examen> documentos = new ArrayList<>();
+    private final BitSet eliminados = new BitSet();
+    private int cantidadEliminados;
+    private final Map<Long, Integer> documentoPorId = new HashMap<>();
+    private final Map<String, Postings> invertido = new HashMap<>();
+
+    private String[] palabras = new String[0];
+    private int[] documentosPalabra = new int[0];
+    //palabra -> documentos con esa palabra en el nombre que todavia no estan en el arreglo
+    private final TreeMap<String, List<Integer>> pendientes = new TreeMap<>();
+    private int cantidadPendientes;
+
+    void agregar(Examen examen) {
+        List<String> delNombre = palabras(examen.getNombre());
+        Map<String, Integer> pesos = pesos(examen, delNombre);
+        candado.writeLock().lock();
+        try {
+            indexar(examen, delNombre, pesos);
+            if (cantidadPendientes >= Math.max(MINIMO_PENDIENTES, palabras.length)) {
+                mezclarPendientes();
+            }
+            if (cantidadEliminados >= MINIMO_PARA_COMPACTAR && cantidadEliminados * 2 > documentos.size()) {
+                compactar();
+            }
+        } finally {
+            candado.writeLock().unlock();
+        }
+    }
+
+    //carga inicial: indexa todos y mezcla las palabras de los nombres al arreglo una sola vez
+    void agregarTodos(Iterable<Examen> examenes) {
+        candado.writeLock().lock();
+        try {
+            for (Examen examen : examenes) {
+                List<String> delNombre = palabras(examen.getNombre());
+                indexar(examen, delNombre, pesos(examen, delNombre));
+            }
+            mezclarPendientes();
+            if (cantidadEliminados * 2 > documentos.size()) {
+                compactar();
+            }
+        } finally {
+            candado.writeLock().unlock();
+        }
+    }
+
+    //examenes con todas las palabras de la consulta, los k de mayor puntaje (peso por idf de cada palabra)
+    List<Examen> buscar(String consulta, int k) {
+        Set<String> unicas = new LinkedHashSet<>(palabras(consulta));
+        if (unicas.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+        candado.readLock().lock();
+        try {
+            Postings[] listas = new Postings[unicas.size()];
+            int i = 0;
+            for (String palabra : unicas) {
+                listas[i] = invertido.get(palabra);
+                if (listas[i++] == null) {
+                    return new ArrayList<>();
+                }
+            }
+            Arrays.sort(listas, Comparator.comparingInt(p -> p.tamano)); //se recorre la mas corta
+            double vivos = documentos.size() - cantidadEliminados;
+            double[] idf = new double[listas.length];
+            for (int j = 0; j < listas.length; j++) {
+                idf[j] = Math.log(1 + vivos / listas[j].tamano);
+            }
+            int[] cursores = new int[listas.length];
+            PriorityQueue<Resultado> mejores = new PriorityQueue<>(k + 1, Resultado.PEOR_PRIMERO);
+            Postings menor = listas[0];
+            siguienteDocumento:
+            for (int p = 0; p < menor.tamano; p++) {
+                int documento = menor.documentos[p];
+                if (eliminados.get(documento)) {
+                    continue;
+                }
+                double puntaje = menor.pesos[p] * idf[0];
+                for (int j = 1; j < listas.length; j++) {
+                    cursores[j] = listas[j].buscarDesde(cursores[j], documento);
+                    if (cursores[j] >= listas[j].tamano) {
+                        break siguienteDocumento; //una lista se acabo, no hay mas coincidencias
+                    }
+                    if (listas[j].documentos[cursores[j]] != documento) {
+                        continue siguienteDocumento;
+                    }
+                    puntaje += listas[j].pesos[cursores[j]] * idf[j];
+                }
+                if (entraEnMejores(mejores, puntaje, documentos.get(documento).getId(), k)) {
+                    agregarMejor(mejores, new Resultado(documentos.get(documento), puntaje), k);
+                }
+            }
+            return ordenados(mejores);
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    /*
+    examenes cuyo nombre tiene, por cada palabra del texto, una palabra que empieza con ella.
+    los k primeros con el nombre mas corto (el mas parecido al texto) y despues por id
+     */
+    List<Examen> buscarPorPrefijo(String texto, int k) {
+        List<String> prefijos = palabras(texto);
+        if (prefijos.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+        candado.readLock().lock();
+        try {
+            //se recorre el prefijo con menos palabras en el arreglo ordenado y los demas se revisan en cada nombre
+            int guia = 0;
+            int inicio = 0;
+            int fin = Integer.MAX_VALUE;
+            for (int j = 0; j < prefijos.size(); j++) {
+                int inicioJ = inicioPrefijo(prefijos.get(j));
+                int finJ = inicioPrefijo(prefijos.get(j) + Character.MAX_VALUE);
+                if (finJ - inicioJ < fin - inicio) {
+                    guia = j;
+                    inicio = inicioJ;
+                    fin = finJ;
+                }
+            }
+            String prefijoGuia = prefijos.get(guia);
+            List<String> otros = new ArrayList<>(prefijos);
+            otros.remove(guia);
+
+            BitSet revisados = new BitSet(documentos.size());
+            PriorityQueue<Resultado> mejores = new PriorityQueue<>(k + 1, Resultado.PEOR_PRIMERO);
+            for (int i = inicio; i < fin; i++) {
+                revisarPrefijos(documentosPalabra[i], otros, revisados, mejores, k);
+            }
+            for (List<Integer> pendientesPalabra : pendientes.subMap(prefijoGuia, prefijoGuia + Character.MAX_VALUE).values()) {
+                for (int documento : pendientesPalabra) {
+                    revisarPrefijos(documento, otros, revisados, mejores, k);
+                }
+            }
+            return ordenados(mejores);
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    int size() {
+        candado.readLock().lock();
+        try {
+            return documentos.size() - cantidadEliminados;
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    //minusculas sin acentos, separadas por todo lo que no sea letra o numero
+    static List<String> palabras(String texto) {
+        List<String> palabras = new ArrayList<>();
+        if (texto == null) {
+            return palabras;
+        }
+        String normalizado = Normalizer.normalize(texto, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        StringBuilder palabra = new StringBuilder();
+        for (int i = 0; i < normalizado.length(); i++) {
+            char c = normalizado.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                palabra.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && palabra.length() > 0) {
+                palabras.add(palabra.toString());
+                palabra.setLength(0);
+            }
+        }
+        if (palabra.length() > 0) {
+            palabras.add(palabra.toString());
+        }
+        return palabras;
+    }
+
+    private static Map<String, Integer> pesos(Examen examen, List<String> delNombre) {
+        Map<String, Integer> pesos = new HashMap<>();
+        for (String palabra : delNombre) {
+            pesos.merge(palabra, PESO_NOMBRE, Integer::sum);
+        }
+        for (String pregunta : examen.getPreguntas()) {
+            for (String palabra : palabras(pregunta)) {
+                pesos.merge(palabra, PESO_PREGUNTA, Integer::sum);
+            }
+        }
+        return pesos;
+    }
+
+    //con el candado de escritura
+    private void indexar(Examen examen, List<String> delNombre, Map<String, Integer> pesos) {
+        int documento = documentos.size();
+        documentos.add(examen);
+        Integer anterior = documentoPorId.put(examen.getId(), documento);
+        if (anterior != null) {
+            eliminados.set(anterior);
+            cantidadEliminados++;
+        }
+        pesos.forEach((palabra, peso) -> invertido.computeIfAbsent(palabra, p -> new Postings()).agregar(documento, peso));
+        for (String palabra : new LinkedHashSet<>(delNombre)) {
+            pendientes.computeIfAbsent(palabra, p -> new ArrayList<>()).add(documento);
+            cantidadPendientes++;
+        }
+    }
+
+    private void revisarPrefijos(int documento, List<String> otros, BitSet revisados, PriorityQueue<Resultado> mejores, int k) {
+        if (revisados.get(documento) || eliminados.get(documento)) {
+            return;
+        }
+        revisados.set(documento);
+        Examen examen = documentos.get(documento);
+        String nombre = examen.getNombre();
+        double puntaje = -nombre.length(); //menos caracteres es mejor puntaje
+        if (!entraEnMejores(mejores, puntaje, examen.getId(), k)) {
+            return;
+        }
+        if (!otros.isEmpty()) {
+            List<String> delNombre = palabras(nombre);
+            for (String prefijo : otros) {
+                if (delNombre.stream().noneMatch(palabra -> palabra.startsWith(prefijo))) {
+                    return;
+                }
+            }
+        }
+        agregarMejor(mejores, new Resultado(examen, puntaje), k);
+    }
+
+    private int inicioPrefijo(String prefijo) {
+        int bajo = 0;
+        int alto = palabras.length;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (palabras[medio].compareTo(prefijo) < 0) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    //las pendientes ya estan ordenadas en el TreeMap, solo se intercalan con el arreglo
+    private void mezclarPendientes() {
+        if (cantidadPendientes == 0) {
+            return;
+        }
+        String[] nuevasPalabras = new String[palabras.length + cantidadPendientes];
+        int[] nuevosDocumentos = new int[nuevasPalabras.length];
+        int a = 0;
+        int i = 0;
+        for (Map.Entry<String, List<Integer>> pendiente : pendientes.entrySet()) {
+            String palabra = pendiente.getKey();
+            while (a < palabras.length && palabras[a].compareTo(palabra) <= 0) {
+                nuevasPalabras[i] = palabras[a];
+                nuevosDocumentos[i++] = documentosPalabra[a++];
+            }
+            for (int documento : pendiente.getValue()) {
+                nuevasPalabras[i] = palabra;
+                nuevosDocumentos[i++] = documento;
+            }
+        }
+        System.arraycopy(palabras, a, nuevasPalabras, i, palabras.length - a);
+        System.arraycopy(documentosPalabra, a, nuevosDocumentos, i, palabras.length - a);
+        palabras = nuevasPalabras;
+        documentosPalabra = nuevosDocumentos;
+        pendientes.clear();
+        cantidadPendientes = 0;
+    }
+
+    /*
+    quita los documentos eliminados: los vivos se renumeran en el mismo orden, asi las listas siguen ordenadas y
+    solo se filtran. despues tamano e idf ya no cuentan examenes reemplazados
+     */
+    private void compactar() {
+        int[] nuevoNumero = new int[documentos.size()];
+        List<Examen> vivos = new ArrayList<>(documentos.size() - cantidadEliminados);
+        for (int documento = 0; documento < documentos.size(); documento++) {
+            if (eliminados.get(documento)) {
+                nuevoNumero[documento] = -1;
+            } else {
+                nuevoNumero[documento] = vivos.size();
+                vivos.add(documentos.get(documento));
+            }
+        }
+        invertido.values().removeIf(postings -> postings.renumerar(nuevoNumero) == 0);
+        int n = 0;
+        for (int i = 0; i < palabras.length; i++) {
+            int documento = nuevoNumero[documentosPalabra[i]];
+            if (documento >= 0) {
+                palabras[n] = palabras[i];
+                documentosPalabra[n++] = documento;
+            }
+        }
+        palabras = Arrays.copyOf(palabras, n);
+        documentosPalabra = Arrays.copyOf(documentosPalabra, n);
+        cantidadPendientes = 0;
+        for (List<Integer> pendientesPalabra : pendientes.values()) {
+            pendientesPalabra.replaceAll(documento -> nuevoNumero[documento]);
+            pendientesPalabra.removeIf(documento -> documento < 0);
+            cantidadPendientes += pendientesPalabra.size();
+        }
+        pendientes.values().removeIf(List::isEmpty);
+        documentoPorId.replaceAll((id, documento) -> nuevoNumero[documento]);
+        documentos.clear();
+        documentos.addAll(vivos);
+        eliminados.clear();
+        cantidadEliminados = 0;
+    }
+
+    //revisa antes de crear el Resultado, asi los documentos que no entran no reservan memoria
+    private static boolean entraEnMejores(PriorityQueue<Resultado> mejores, double puntaje, long id, int k) {
+        if (mejores.size() < k) {
+            return true;
+        }
+        Resultado peor = mejores.peek();
+        return puntaje > peor.puntaje || (puntaje == peor.puntaje && id < peor.examen.getId());
+    }
+
+    private static void agregarMejor(PriorityQueue<Resultado> mejores, Resultado resultado, int k) {
+        mejores.add(resultado);
+        if (mejores.size() > k) {
+            mejores.poll();
+        }
+    }
+
+    private static List<Examen> ordenados(PriorityQueue<Resultado> mejores) {
+        Examen[] examenes = new Examen[mejores.size()];
+        for (int i = examenes.length - 1; i >= 0; i--) {
+            examenes[i] = mejores.poll().examen;
+        }
+        return new ArrayList<>(Arrays.asList(examenes));
+    }
+
+    //documentos en orden ascendente con su peso, solo se agrega al final
+    private static class Postings {
+        int[] documentos = new int[2];
+        int[] pesos = new int[2];
+        int tamano;
+
+        void agregar(int documento, int peso) {
+            if (tamano == documentos.length) {
+                documentos = Arrays.copyOf(documentos, tamano * 2);
+                pesos = Arrays.copyOf(pesos, tamano * 2);
+            }
+            documentos[tamano] = documento;
+            pesos[tamano++] = peso;
+        }
+
+        //con los numeros nuevos de compactar (-1 = eliminado); regresa cuantos quedan
+        int renumerar(int[] nuevoNumero) {
+            int n = 0;
+            for (int i = 0; i < tamano; i++) {
+                int documento = nuevoNumero[documentos[i]];
+                if (documento >= 0) {
+                    documentos[n] = documento;
+                    pesos[n++] = pesos[i];
+                }
+            }
+            tamano = n;
+            return n;
+        }
+
+        //primera posicion >= desde con documento >= buscado, por saltos exponenciales y despues busqueda binaria
+        int buscarDesde(int desde, int buscado) {
+            int salto = 1;
+            int alto = desde;
+            while (alto < tamano && documentos[alto] < buscado) {
+                desde = alto + 1;
+                alto += salto;
+                salto <<= 1;
+            }
+            alto = Math.min(alto, tamano);
+            while (desde < alto) {
+                int medio = (desde + alto) >>> 1;
+                if (documentos[medio] < buscado) {
+                    desde = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return desde;
+        }
+    }
+
+    private static class Resultado {
+        //el peor queda en la cabeza del heap: menor puntaje y, empatados, mayor id
+        static final Comparator<Resultado> PEOR_PRIMERO = Comparator.<Resultado>comparingDouble(r -> r.puntaje)
+                .thenComparing(Comparator.<Resultado>comparingLong(r -> r.examen.getId()).reversed());
+
+        final Examen examen;
+        final double puntaje;
+
+        Resultado(Examen examen, double puntaje) {
+            this.examen = examen;
+            this.puntaje = puntaje;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.emgs.appmockito.ejemplos.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExamenTest {
+
+    @Test
+    void preguntasSinCargadorSeCreanAlPrimerAcceso() {
+        Examen examen = new Examen(5L,"Lenguaje C");
+        assertFalse(examen.isPreguntasCargadas());
+        examen.getPreguntas().add("que es un puntero?");
+        assertTrue(examen.isPreguntasCargadas());
+        assertEquals(1, examen.getPreguntas().size());
+    }
+
+    @Test
+    void cargaPerezosaPorLotes() {
+        List<Collection<Long>> consultas = new ArrayList<>();
+        long[] ids = {1L, 2L, 3L, 4L, 5L};
+        CargadorPreguntas cargador = new CargadorPreguntas(buscados -> {
+            consultas.add(new ArrayList<>(buscados));
+            Map<Long, List<String>> preguntas = new HashMap<>();
+            for (Long id : buscados) {
+                if (id != 4L) { //el examen 4 no tiene preguntas
+                    preguntas.put(id, new ArrayList<>(Arrays.asList("pregunta " + id)));
+                }
+            }
+            return preguntas;
+        }, ids, 2);
+        List<Examen> examenes = new ArrayList<>();
+        for (long id : ids) {
+            examenes.add(new Examen(id, "examen" + id, cargador));
+        }
+        assertEquals("examen3", examenes.get(2).getNombre()); //nombre e id no tocan la fuente
+        assertEquals(0, cargador.getConsultas());
+
+        assertEquals(Arrays.asList("pregunta 3"), examenes.get(2).getPreguntas());
+        assertEquals(Arrays.asList(3L, 4L), consultas.get(0)); //el pedido mas el siguiente de la consulta
+        assertFalse(examenes.get(3).isPreguntasCargadas());
+        examenes.get(3).getPreguntas().add("nueva"); //sin preguntas queda una lista vacia modificable
+        assertEquals(1, cargador.getConsultas());
+
+        assertEquals(Arrays.asList("pregunta 1"), examenes.get(0).getPreguntas());
+        assertEquals(Arrays.asList("pregunta 2"), examenes.get(1).getPreguntas());
+        assertEquals(Arrays.asList("pregunta 5"), examenes.get(4).getPreguntas());
+        assertEquals(Arrays.asList(1L, 2L), consultas.get(1));
+        assertEquals(Arrays.asList(5L), consultas.get(2));
+        assertEquals(3, cargador.getConsultas());
+    }
+
+    @Test
+    void setPreguntasReemplazaLaCarga() {
+        CargadorPreguntas cargador = new CargadorPreguntas(ids -> {
+            throw new IllegalStateException("no se debe consultar");
+        }, new long[]{1L}, 10);
+        Examen examen = new Examen(1L,"Java", cargador);
+        examen.setPreguntas(new ArrayList<>(Arrays.asList("que es la JVM?")));
+        assertEquals(1, examen.getPreguntas().size());
+        assertEquals(0, cargador.getConsultas());
+    }
+}
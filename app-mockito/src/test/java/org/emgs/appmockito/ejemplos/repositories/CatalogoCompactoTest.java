@@ -0,0 +1,86 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogoCompactoTest {
+    CatalogoCompacto catalogo;
+
+    @BeforeEach
+    void setUp() {
+        Examen java = examen(7L, "Java", "que es la JVM?", "que es un objeto?");
+        Examen c = examen(5L, "Lenguaje C", "que es un puntero?", "que es un objeto?");
+        Examen otroJava = examen(9L, "Java", "que es la JVM?");
+        Examen sinNombre = examen(2L, null);
+        Examen espanol = examen(3L, "Programaci\u00f3n", "\u00bfqu\u00e9 es un \u00f1and\u00fa?", null);
+        catalogo = new CatalogoCompacto(Arrays.asList(java, c, otroJava, sinNombre, espanol));
+    }
+
+    @Test
+    void textosInternadosUnaSolaVez() {
+        //Java, Lenguaje C, Programacion y 4 preguntas distintas
+        assertEquals(7, catalogo.getTextosUnicos());
+        assertEquals(5, catalogo.size());
+    }
+
+    @Test
+    void examenesComoVistas() {
+        Examen java = catalogo.findByNombre("Java").orElseThrow();
+        assertEquals(7L, java.getId()); //el de menor id con ese nombre
+        assertEquals(Arrays.asList("que es la JVM?", "que es un objeto?"), java.getPreguntas());
+
+        Examen espanol = catalogo.findById(3L).orElseThrow();
+        assertEquals("Programaci\u00f3n", espanol.getNombre());
+        assertEquals(Arrays.asList("\u00bfqu\u00e9 es un \u00f1and\u00fa?", null), espanol.getPreguntas());
+        assertNull(catalogo.findById(2L).orElseThrow().getNombre());
+        assertFalse(catalogo.findByNombre("Python").isPresent());
+        assertFalse(catalogo.findByNombre(null).isPresent());
+        assertFalse(catalogo.findById(4L).isPresent());
+
+        java.setPreguntas(new ArrayList<>(Arrays.asList("nueva")));
+        assertEquals(Arrays.asList("nueva"), java.getPreguntas());
+        assertEquals(2, catalogo.findById(7L).orElseThrow().getPreguntas().size()); //el catalogo no cambia
+    }
+
+    @Test
+    void preguntasSeCopianAlModificarlas() {
+        Examen java = catalogo.findById(7L).orElseThrow();
+        List<String> preguntas = java.getPreguntas();
+        preguntas.add("otra");
+        assertEquals(Arrays.asList("que es la JVM?", "que es un objeto?", "otra"), preguntas);
+        assertEquals(preguntas, java.getPreguntas());
+        java.getPreguntas().remove(0);
+        assertEquals(Arrays.asList("que es un objeto?", "otra"), java.getPreguntas());
+        assertTrue(java.isPreguntasCargadas());
+        //el catalogo y las demas vistas no cambian
+        assertEquals(Arrays.asList("que es la JVM?", "que es un objeto?"), catalogo.findById(7L).orElseThrow().getPreguntas());
+    }
+
+    @Test
+    void ordenPorIdYPaginas() {
+        assertEquals(Arrays.asList(2L, 3L, 5L, 7L, 9L), catalogo.findAll().stream().map(Examen::getId).collect(Collectors.toList()));
+        List<Examen> pagina = catalogo.findPagina(3L, 2, false);
+        assertEquals(Arrays.asList(5L, 7L), pagina.stream().map(Examen::getId).collect(Collectors.toList()));
+        assertEquals("Lenguaje C", new ExamenServiceImpl(catalogo).findExamenPorNombre("Lenguaje C").orElseThrow().getNombre());
+    }
+
+    @Test
+    void idRepetido() {
+        assertThrows(IllegalArgumentException.class, () -> new CatalogoCompacto(Arrays.asList(examen(1L, "a"), examen(1L, "b"))));
+    }
+
+    private static Examen examen(long id, String nombre, String... preguntas) {
+        Examen examen = new Examen(id, nombre);
+        examen.setPreguntas(new ArrayList<>(Arrays.asList(preguntas)));
+        return examen;
+    }
+}
@@ -0,0 +1,94 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExamenRepositoryArchivoTest {
+    @TempDir
+    Path carpeta;
+
+    ExamenRepositoryArchivo repository;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path archivo = carpeta.resolve("examenes.bin");
+        ExamenRepositoryArchivo.escribir(Arrays.asList(
+                examen(9L, "Java", "que es la JVM?"),
+                examen(5L, "Lenguaje C", "que es un puntero?", null),
+                examen(7L, "Java", "que es un objeto?", "que es la JVM?"),
+                examen(2L, null),
+                examen(3L, "\u00d1u\u00f1oa", "\u00bfqu\u00e9?")), archivo);
+        repository = new ExamenRepositoryArchivo(archivo);
+    }
+
+    @Test
+    void busquedasSobreElArchivoMapeado() {
+        Examen java = repository.findByNombre("Java").orElseThrow();
+        assertEquals(7L, java.getId()); //el de menor id con ese nombre
+        assertFalse(java.isPreguntasCargadas()); //las preguntas se leen al pedirlas
+        assertEquals(Arrays.asList("que es un objeto?", "que es la JVM?"), java.getPreguntas());
+
+        assertEquals(Arrays.asList("\u00bfqu\u00e9?"), repository.findByNombre("\u00d1u\u00f1oa").orElseThrow().getPreguntas());
+        assertEquals(Arrays.asList("que es un puntero?", null), repository.findById(5L).orElseThrow().getPreguntas());
+        assertNull(repository.findById(2L).orElseThrow().getNombre());
+        assertFalse(repository.findByNombre("Python").isPresent());
+        assertFalse(repository.findByNombre("Jav").isPresent());
+        assertFalse(repository.findById(4L).isPresent());
+        assertFalse(repository.findById(Long.MIN_VALUE).isPresent());
+    }
+
+    @Test
+    void recorridoYPaginasPorId() {
+        assertEquals(5, repository.size());
+        List<Examen> todos = repository.findAll();
+        assertEquals(Arrays.asList(2L, 3L, 5L, 7L, 9L), todos.stream().map(Examen::getId).collect(Collectors.toList()));
+        assertTrue(todos.get(4).isPreguntasCargadas());
+        assertEquals(Arrays.asList(7L, 9L), repository.findPagina(5L, 10, false).stream().map(Examen::getId).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(2L), repository.findPagina(Long.MIN_VALUE, 1, true).stream().map(Examen::getId).collect(Collectors.toList()));
+        assertEquals(5, repository.findAllStream(false).count());
+    }
+
+    @Test
+    void archivoInvalido() throws IOException {
+        Path archivo = Files.write(carpeta.resolve("otro.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> new ExamenRepositoryArchivo(archivo));
+    }
+
+    @Test
+    void desdeCsv() throws IOException {
+        Path csv = carpeta.resolve("examenes.csv");
+        Files.write(csv, ("id,nombre,preguntas\n"
+                + "5,Lenguaje C,que es un puntero?,\"que hace \"\"malloc\"\", free?\"\n"
+                + "\n"
+                + "7,Java,\"pregunta en\ndos lineas\"\r\n"
+                + "8,Sin preguntas\n").getBytes(StandardCharsets.UTF_8));
+        Path archivo = carpeta.resolve("desde-csv.bin");
+        CsvExamenes.main(new String[]{csv.toString(), archivo.toString()});
+
+        ExamenRepositoryArchivo desdeCsv = new ExamenRepositoryArchivo(archivo);
+        assertEquals(3, desdeCsv.size());
+        assertEquals(Arrays.asList("que es un puntero?", "que hace \"malloc\", free?"),
+                desdeCsv.findByNombre("Lenguaje C").orElseThrow().getPreguntas());
+        assertEquals(Arrays.asList("pregunta en\ndos lineas"), desdeCsv.findById(7L).orElseThrow().getPreguntas());
+        assertTrue(desdeCsv.findByNombre("Sin preguntas").orElseThrow().getPreguntas().isEmpty());
+    }
+
+    private static Examen examen(long id, String nombre, String... preguntas) {
+        Examen examen = new Examen(id, nombre);
+        examen.setPreguntas(new ArrayList<>(Arrays.asList(preguntas)));
+        return examen;
+    }
+}
@@ -0,0 +1,124 @@
+package org.emgs.appmockito.ejemplos.repositories;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.services.ExamenService;
+import org.emgs.appmockito.ejemplos.services.ExamenServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExamenRepositoryMemoriaTest {
+    ExamenRepositoryMemoria repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new ExamenRepositoryMemoria(Arrays.asList(new Examen(5L,"Lenguaje C"), new Examen(7L,"Java"),
+                new Examen(9L,"Java")));
+    }
+
+    @Test
+    void findByNombreYId() {
+        assertEquals(7L, repository.findByNombre("Java").orElseThrow().getId()); //el primero con ese nombre
+        assertEquals("Lenguaje C", repository.findById(5L).orElseThrow().getNombre());
+        assertFalse(repository.findByNombre("Python").isPresent());
+        assertFalse(repository.findById(null).isPresent());
+        assertEquals(3, repository.findAll().size());
+    }
+
+    @Test
+    void eliminarYReemplazarActualizaIndices() {
+        repository.eliminar(7L);
+        assertEquals(9L, repository.findByNombre("Java").orElseThrow().getId());
+
+        repository.guardar(new Examen(5L,"Matematicas"));
+        assertFalse(repository.findByNombre("Lenguaje C").isPresent());
+        assertEquals(5L, repository.findByNombre("Matematicas").orElseThrow().getId());
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    void nombreRepetidoRegresaElMenorIdYSeReindexaAlRenombrar() {
+        //guardado despues pero con menor id: gana igual que findFirst sobre findAll
+        repository.guardar(new Examen(3L, "Java"));
+        assertEquals(3L, repository.findByNombre("Java").orElseThrow().getId());
+        assertEquals(repository.findAll().stream().filter(e -> "Java".equals(e.getNombre())).findFirst().orElseThrow(),
+                repository.findByNombre("Java").orElseThrow());
+
+        Examen examen = repository.findById(3L).orElseThrow();
+        examen.setNombre("Kotlin");
+        repository.guardar(examen);
+        assertEquals(3L, repository.findByNombre("Kotlin").orElseThrow().getId());
+        assertEquals(7L, repository.findByNombre("Java").orElseThrow().getId());
+
+        repository.findById(5L).orElseThrow().setNombre("C");
+        repository.guardar(repository.findById(5L).orElseThrow());
+        assertFalse(repository.findByNombre("Lenguaje C").isPresent());
+        assertEquals(5L, repository.findByNombre("C").orElseThrow().getId());
+    }
+
+    @Test
+    void actualizarSinCambiarNombreNuncaDejaElIndiceVacio() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicBoolean terminado = new AtomicBoolean();
+        try {
+            Future<?> escritor = executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    repository.guardar(new Examen(7L, "Java"));
+                    repository.guardar(new Examen(9L, "Java"));
+                    repository.guardar(new Examen(5L, "Lenguaje C"));
+                }
+                terminado.set(true);
+            });
+            Future<Integer> lector = executor.submit(() -> {
+                int lecturas = 0;
+                while (!terminado.get()) {
+                    assertEquals(7L, repository.findByNombre("Java").orElseThrow().getId());
+                    assertEquals(5L, repository.findByNombre("Lenguaje C").orElseThrow().getId());
+                    lecturas++;
+                }
+                return lecturas;
+            });
+            escritor.get(30, TimeUnit.SECONDS);
+            assertTrue(lector.get(30, TimeUnit.SECONDS) > 0);
+        } finally {
+            terminado.set(true);
+            executor.shutdownNow();
+        }
+        //renombrar el indexado de un nombre repetido pasa el nombre al siguiente id sin dejarlo vacio
+        repository.guardar(new Examen(7L, "Kotlin"));
+        assertEquals(9L, repository.findByNombre("Java").orElseThrow().getId());
+        repository.eliminar(9L);
+        assertFalse(repository.findByNombre("Java").isPresent());
+    }
+
+    @Test
+    void streamYPaginacionPorId() {
+        repository.guardar(new Examen(1L,"Historia"));
+        assertEquals(Arrays.asList(1L, 5L, 7L, 9L), repository.findAllStream(false).map(Examen::getId).collect(Collectors.toList()));
+
+        List<Examen> pagina = repository.findPagina(0L, 2, true);
+        assertEquals(Arrays.asList(1L, 5L), pagina.stream().map(Examen::getId).collect(Collectors.toList()));
+        pagina = repository.findPagina(pagina.get(pagina.size() - 1).getId(), 2, true);
+        assertEquals(Arrays.asList(7L, 9L), pagina.stream().map(Examen::getId).collect(Collectors.toList()));
+        assertTrue(repository.findPagina(9L, 2, true).isEmpty());
+    }
+
+    @Test
+    void servicioConRepositorioEnMemoria() {
+        ExamenService service = new ExamenServiceImpl(repository);
+        Optional<Examen> examen = service.findExamenPorNombre("Lenguaje C");
+        assertTrue(examen.isPresent());
+        assertEquals(5L, examen.get().getId());
+    }
+}
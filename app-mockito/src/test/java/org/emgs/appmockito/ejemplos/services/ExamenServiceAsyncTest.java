@@ -0,0 +1,120 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExamenServiceAsyncTest {
+    ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void respetaElMaximoDeLlamadasConcurrentes() {
+        AtomicInteger actuales = new AtomicInteger();
+        AtomicInteger maximo = new AtomicInteger();
+        ExamenService delegado = nombre -> {
+            maximo.accumulateAndGet(actuales.incrementAndGet(), Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(1); //simula un repositorio lento
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                actuales.decrementAndGet();
+            }
+            return Optional.of(new Examen(1L, nombre));
+        };
+        ExamenServiceAsync service = new ExamenServiceAsync(delegado, executor, 4, Duration.ofSeconds(10));
+
+        List<CompletableFuture<Optional<Examen>>> busquedas = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            busquedas.add(service.findExamenPorNombre("examen" + i));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("examen" + i, busquedas.get(i).join().orElseThrow().getNombre());
+        }
+        assertTrue(maximo.get() <= 4);
+        assertEquals(0, service.getEnEspera());
+    }
+
+    @Test
+    void busquedasQueExpiranEnLaColaNoSeEjecutan() throws InterruptedException {
+        CountDownLatch liberar = new CountDownLatch(1);
+        ExamenService delegado = mock(ExamenService.class);
+        when(delegado.findExamenPorNombre(anyString())).thenAnswer(invocation -> {
+            liberar.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+        ExamenServiceAsync service = new ExamenServiceAsync(delegado, executor, 1, Duration.ofMillis(100));
+
+        CompletableFuture<Optional<Examen>> primera = service.findExamenPorNombre("Java");
+        CompletableFuture<Optional<Examen>> segunda = service.findExamenPorNombre("Lenguaje C");
+        ExecutionException error = assertThrows(ExecutionException.class, () -> segunda.get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof TimeoutException);
+        assertThrows(ExecutionException.class, () -> primera.get(5, TimeUnit.SECONDS));
+
+        liberar.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        verify(delegado).findExamenPorNombre("Java");
+        verify(delegado, never()).findExamenPorNombre("Lenguaje C");
+    }
+
+    @Test
+    void busquedaEnLoteSinRepetidos() {
+        ExamenService delegado = mock(ExamenService.class);
+        when(delegado.findExamenPorNombre("Java")).thenReturn(Optional.of(new Examen(7L,"Java")));
+        when(delegado.findExamenPorNombre("Lenguaje C")).thenReturn(Optional.of(new Examen(5L,"Lenguaje C")));
+        when(delegado.findExamenPorNombre("Python")).thenReturn(Optional.empty());
+        ExamenServiceAsync service = new ExamenServiceAsync(delegado, executor, 2, Duration.ofSeconds(10));
+
+        Map<String, Optional<Examen>> examenes = service
+                .findExamenesPorNombres(Arrays.asList("Python", "Java", "Lenguaje C", "Java")).join();
+        assertEquals(Arrays.asList("Python", "Java", "Lenguaje C"), new ArrayList<>(examenes.keySet()));
+        assertFalse(examenes.get("Python").isPresent());
+        assertEquals(7L, examenes.get("Java").orElseThrow().getId());
+        verify(delegado, times(1)).findExamenPorNombre("Java");
+    }
+
+    @Test
+    void decenasDeMilesDeBusquedasPendientes() {
+        ExamenService delegado = nombre -> Optional.of(new Examen(nombre.length(), nombre));
+        ExamenServiceAsync service = new ExamenServiceAsync(delegado, executor, 16, Duration.ofSeconds(30));
+
+        List<String> nombres = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            nombres.add("examen" + i);
+        }
+        Map<String, Optional<Examen>> examenes = service.findExamenesPorNombres(nombres).join();
+        assertEquals(50_000, examenes.size());
+        assertTrue(examenes.values().stream().allMatch(Optional::isPresent));
+        assertEquals(0, service.getEnEspera());
+    }
+}
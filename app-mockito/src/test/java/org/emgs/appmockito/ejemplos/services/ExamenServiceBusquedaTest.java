@@ -0,0 +1,89 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ExamenServiceBusquedaTest {
+    ExamenServiceBusqueda service;
+
+    @BeforeEach
+    void setUp() {
+        ExamenRepository repository = mock(ExamenRepository.class);
+        when(repository.findAll()).thenReturn(Arrays.asList(
+                examen(5L, "Lenguaje C", "Que es un puntero?", "Como se libera la memoria?"),
+                examen(7L, "Java", "Que es la JVM?", "Como libera la memoria el recolector de basura?"),
+                examen(9L, "Java avanzado", "Que es la memoria de la JVM?"),
+                examen(11L, "Lenguajes formales", "Que es un automata?")));
+        service = new ExamenServiceBusqueda(repository);
+    }
+
+    @Test
+    void buscarPalabrasEnNombreYPreguntas() {
+        assertEquals(Arrays.asList(7L, 9L), ids(service.buscar("JVM", 10)));
+        //todas las palabras deben aparecer, sin importar mayusculas
+        assertEquals(Arrays.asList(5L, 7L), ids(service.buscar("LIBERA memoria", 10))); //empatados, menor id primero
+        assertEquals(Arrays.asList(9L), ids(service.buscar("avanzado memoria jvm", 10)));
+        assertTrue(service.buscar("python", 10).isEmpty());
+        assertTrue(service.buscar("  ", 10).isEmpty());
+        assertEquals(1, service.buscar("memoria", 1).size()); //top-k
+    }
+
+    @Test
+    void buscarPorPrefijoDelNombre() {
+        assertEquals(Arrays.asList(5L, 11L), ids(service.buscarPorPrefijo("leng", 10))); //el nombre mas corto primero
+        assertEquals(Arrays.asList(5L), ids(service.buscarPorPrefijo("leng c", 10)));
+        assertEquals(Arrays.asList(7L), ids(service.buscarPorPrefijo("ja", 1)));
+        assertTrue(service.buscarPorPrefijo("py", 10).isEmpty());
+    }
+
+    @Test
+    void agregarYReemplazarExamenes() {
+        for (long id = 100; id < 5_100; id++) { //pasa por la mezcla de prefijos pendientes
+            service.agregar(examen(id, "Matem\u00e1ticas " + id, "\u00bfCu\u00e1nto es " + id + " m\u00e1s uno?"));
+        }
+        assertEquals(5_004, service.size());
+        assertEquals(Arrays.asList(4321L), ids(service.buscar("cuanto 4321", 10)));
+        assertEquals(Arrays.asList(777L), ids(service.buscarPorPrefijo("matem 777", 10)));
+
+        service.agregar(examen(7L, "Kotlin", "Que es una corrutina?"));
+        assertEquals(Arrays.asList(9L), ids(service.buscar("jvm", 10)));
+        assertEquals(Arrays.asList(7L), ids(service.buscarPorPrefijo("kot", 10)));
+        assertEquals(5_004, service.size());
+    }
+
+    @Test
+    void reemplazosRepetidosCompactanElIndice() {
+        for (int vuelta = 0; vuelta < 3; vuelta++) { //la mitad del indice queda eliminada y se compacta
+            for (long id = 100; id < 1_500; id++) {
+                service.agregar(examen(id, "Fisica " + id + " v" + vuelta, "Pregunta " + id));
+            }
+        }
+        assertEquals(1_404, service.size());
+        assertEquals(Arrays.asList(1234L), ids(service.buscar("pregunta 1234", 10)));
+        assertEquals(Arrays.asList(1234L), ids(service.buscarPorPrefijo("fis 1234 v2", 10)));
+        assertTrue(service.buscarPorPrefijo("fis 1234 v1", 10).isEmpty());
+        assertEquals(Arrays.asList(5L, 11L), ids(service.buscarPorPrefijo("leng", 10)));
+        assertEquals(Arrays.asList(7L, 9L), ids(service.buscar("JVM", 10)));
+    }
+
+    private static List<Long> ids(List<Examen> examenes) {
+        return examenes.stream().map(Examen::getId).collect(Collectors.toList());
+    }
+
+    private static Examen examen(long id, String nombre, String... preguntas) {
+        Examen examen = new Examen(id, nombre);
+        examen.setPreguntas(new ArrayList<>(Arrays.asList(preguntas)));
+        return examen;
+    }
+}
@@ -0,0 +1,173 @@
+package org.emgs.appmockito.ejemplos.services;
+
+import org.emgs.appmockito.ejemplos.models.Examen;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExamenServiceCacheTest {
+    ExamenService delegado;
+    AtomicLong reloj;
+    ExamenServiceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        delegado = mock(ExamenService.class);
+        reloj = new AtomicLong();
+        cache = new ExamenServiceCache(delegado, 2, Duration.ofSeconds(10), reloj::get);
+        when(delegado.findExamenPorNombre("Java")).thenReturn(Optional.of(new Examen(7L,"Java")));
+        when(delegado.findExamenPorNombre("Lenguaje C")).thenReturn(Optional.of(new Examen(5L,"Lenguaje C")));
+        when(delegado.findExamenPorNombre("Python")).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void segundaConsultaSaleDeCache() {
+        assertEquals(7L, cache.findExamenPorNombre("Java").orElseThrow().getId());
+        assertEquals(7L, cache.findExamenPorNombre("Java").orElseThrow().getId());
+        verify(delegado, times(1)).findExamenPorNombre("Java");
+        assertEquals(1, cache.getAciertos());
+        assertEquals(1, cache.getFallos());
+    }
+
+    @Test
+    void resultadoVacioTambienSeGuarda() {
+        assertFalse(cache.findExamenPorNombre("Python").isPresent());
+        assertFalse(cache.findExamenPorNombre("Python").isPresent());
+        verify(delegado, times(1)).findExamenPorNombre("Python");
+    }
+
+    @Test
+    void desalojoLRUExpiracionEInvalidacion() {
+        cache.findExamenPorNombre("Java");
+        cache.findExamenPorNombre("Lenguaje C");
+        cache.findExamenPorNombre("Java"); //Lenguaje C queda como el menos usado
+        cache.findExamenPorNombre("Python");
+        assertEquals(1, cache.getDesalojos());
+        assertEquals(2, cache.size());
+        cache.findExamenPorNombre("Lenguaje C");
+        verify(delegado, times(2)).findExamenPorNombre("Lenguaje C");
+
+        reloj.addAndGet(Duration.ofSeconds(11).toNanos()); //expira todo
+        cache.findExamenPorNombre("Lenguaje C");
+        verify(delegado, times(3)).findExamenPorNombre("Lenguaje C");
+
+        cache.invalidar("Lenguaje C");
+        cache.findExamenPorNombre("Lenguaje C");
+        verify(delegado, times(4)).findExamenPorNombre("Lenguaje C");
+    }
+
+    @Test
+    void consultasConcurrentesDelMismoNombreSeUnen() throws InterruptedException {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(delegado.findExamenPorNombre("Historia")).thenAnswer(invocation -> {
+            consultando.countDown();
+            liberar.await(5, TimeUnit.SECONDS); //simula un repositorio lento
+            return Optional.of(new Examen(11L,"Historia"));
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> assertEquals(11L, cache.findExamenPorNombre("Historia").orElseThrow().getId()));
+        }
+        assertTrue(consultando.await(5, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(100); //los demas hilos llegan mientras la primera consulta sigue en curso
+        liberar.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        verify(delegado, times(1)).findExamenPorNombre("Historia");
+    }
+
+    @Test
+    void invalidarOtroNombreNoImpideGuardarUnaCargaEnCurso() throws Exception {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(delegado.findExamenPorNombre("Historia")).thenAnswer(invocation -> {
+            consultando.countDown();
+            liberar.await(5, TimeUnit.SECONDS);
+            return Optional.of(new Examen(11L,"Historia"));
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Optional<Examen>> carga = executor.submit(() -> cache.findExamenPorNombre("Historia"));
+        assertTrue(consultando.await(5, TimeUnit.SECONDS));
+        cache.invalidar("Java");
+        liberar.countDown();
+        assertEquals(11L, carga.get(5, TimeUnit.SECONDS).orElseThrow().getId());
+        executor.shutdown();
+
+        cache.findExamenPorNombre("Historia");
+        verify(delegado, times(1)).findExamenPorNombre("Historia");
+    }
+
+    @Test
+    void invalidarElMismoNombreDescartaLaCargaEnCurso() throws Exception {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(delegado.findExamenPorNombre("Historia")).thenAnswer(invocation -> {
+            consultando.countDown();
+            liberar.await(5, TimeUnit.SECONDS);
+            return Optional.of(new Examen(11L,"Historia"));
+        }).thenReturn(Optional.of(new Examen(12L,"Historia")));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Optional<Examen>> carga = executor.submit(() -> cache.findExamenPorNombre("Historia"));
+        assertTrue(consultando.await(5, TimeUnit.SECONDS));
+        cache.invalidar("Historia");
+        //no espera a la carga vieja, consulta de nuevo
+        assertEquals(12L, cache.findExamenPorNombre("Historia").orElseThrow().getId());
+        liberar.countDown();
+        assertEquals(11L, carga.get(5, TimeUnit.SECONDS).orElseThrow().getId());
+        executor.shutdown();
+
+        assertEquals(12L, cache.findExamenPorNombre("Historia").orElseThrow().getId());
+        verify(delegado, times(2)).findExamenPorNombre("Historia");
+    }
+
+    @Test
+    void quienEsperaRecibeLaExcepcionOriginal() throws Exception {
+        CountDownLatch consultando = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        when(delegado.findExamenPorNombre("Historia")).thenAnswer(invocation -> {
+            consultando.countDown();
+            liberar.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("repositorio caido");
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Optional<Examen>> primera = executor.submit(() -> cache.findExamenPorNombre("Historia"));
+        assertTrue(consultando.await(5, TimeUnit.SECONDS));
+        Future<Optional<Examen>> segunda = executor.submit(() -> cache.findExamenPorNombre("Historia"));
+        TimeUnit.MILLISECONDS.sleep(100); //la segunda llega mientras la primera sigue en curso
+        liberar.countDown();
+        for (Future<Optional<Examen>> consulta : List.of(primera, segunda)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> consulta.get(5, TimeUnit.SECONDS));
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        executor.shutdown();
+        verify(delegado, times(1)).findExamenPorNombre("Historia");
+    }
+
+    @Test
+    void ttlEnormeNoDesborda() {
+        cache = new ExamenServiceCache(delegado, 2, Duration.ofSeconds(Long.MAX_VALUE), reloj::get);
+        cache.findExamenPorNombre("Java");
+        reloj.addAndGet(Duration.ofDays(365).toNanos());
+        cache.findExamenPorNombre("Java");
+        verify(delegado, times(1)).findExamenPorNombre("Java");
+    }
+}
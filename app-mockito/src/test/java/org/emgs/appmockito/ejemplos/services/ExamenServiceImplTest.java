@@ -2,6 +2,7 @@ package org.emgs.appmockito.ejemplos.services;
 
 import org.emgs.appmockito.ejemplos.models.Examen;
 import org.emgs.appmockito.ejemplos.repositories.ExamenRepository;
+import org.emgs.appmockito.ejemplos.repositories.ExamenRepositoryIndexado;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
@@ -11,6 +12,8 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 //mock solo de metodos publicos o default dentro del mismo package, no privados ni estaticos o finals
@@ -41,4 +44,17 @@ class ExamenServiceImplTest {
         assertEquals("Lenguaje C",examen.get().getNombre());
     }
 
-}
\ No newline at end of file
+    @Test
+    void findExamenPorNombreRepositorioIndexado() {
+        ExamenRepositoryIndexado repository = mock(ExamenRepositoryIndexado.class);
+        ExamenService service = new ExamenServiceImpl(repository);
+        when(repository.findByNombre("Java")).thenReturn(Optional.of(new Examen(7L,"Java")));
+
+        Optional<Examen> examen = service.findExamenPorNombre("Java");
+        assertTrue(examen.isPresent());
+        assertEquals(7L,examen.get().getId());
+        verify(repository).findByNombre("Java");
+        verify(repository, never()).findAll(); //con indice ya no se recorre todo el catalogo
+    }
+
+}